@@ -0,0 +1,73 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read paths of CopyOnWriteHashMap that should allocate nothing once warmed up, run with
+ * {@code -prof gc} to check the allocation rate stays at zero.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class AllocationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"1000"})
+        int numberOfKeys = 1000;
+
+        CopyOnWriteHashMap<String,Object> map = new CopyOnWriteHashMap<>();
+        String [] keys;
+
+        @Setup
+        public void setup() {
+            keys = Keys.sequentialKeys(numberOfKeys);
+            for (String key : keys) {
+                map.put(key, key);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object get(MapHolder holder, Counter counter) {
+        return holder.map.get(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+
+    @Benchmark
+    public boolean containsKey(MapHolder holder, Counter counter) {
+        return holder.map.containsKey(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+
+    @Benchmark
+    public void forEach(MapHolder holder, Blackhole bh) {
+        holder.map.forEach((key, value) -> bh.consume(value));
+    }
+
+    @Benchmark
+    public void iterateEntrySet(MapHolder holder, Blackhole bh) {
+        for (Map.Entry<String,Object> entry : holder.map.entrySet()) {
+            bh.consume(entry.getValue());
+        }
+    }
+}
@@ -1,13 +1,88 @@
 package com.logicalpractice.kindafasthash.benchmarks;
 
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
- *
+ * Ways of copying the small Object arrays a Hash node is made of, which every persistent update
+ * does once per level of the trie. A replace copies the node as is, an insert copies it with a
+ * gap for the new slot.
  */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
 public class ArrayCopyBench {
+
+    @State(Scope.Thread)
+    public static class Node {
+        @Param({"2", "8", "32"})
+        int length = 8;
+
+        Object [] slots;
+        int index;
+
+        @Setup
+        public void setup() {
+            slots = new Object[length];
+            for (int i = 0; i < length; i++) {
+                slots[i] = new Object();
+            }
+            index = length / 2;
+        }
+    }
+
+    @Benchmark
+    public Object[] arraysCopyOf(Node node) {
+        return Arrays.copyOf(node.slots, node.slots.length);
+    }
+
+    @Benchmark
+    public Object[] cloneArray(Node node) {
+        return node.slots.clone();
+    }
+
+    @Benchmark
+    public Object[] systemArraycopy(Node node) {
+        Object[] copy = new Object[node.slots.length];
+        System.arraycopy(node.slots, 0, copy, 0, copy.length);
+        return copy;
+    }
+
+    @Benchmark
+    public Object[] loop(Node node) {
+        Object[] slots = node.slots;
+        Object[] copy = new Object[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            copy[i] = slots[i];
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public Object[] insertWithArraycopy(Node node) {
+        Object[] slots = node.slots;
+        Object[] copy = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, copy, 0, node.index);
+        copy[node.index] = node;
+        System.arraycopy(slots, node.index, copy, node.index + 1, slots.length - node.index);
+        return copy;
+    }
+
     @Benchmark
-    public void measureName() {
-        // todo complete benchmark here
+    public Object[] insertWithCopyOf(Node node) {
+        Object[] slots = node.slots;
+        Object[] copy = Arrays.copyOf(slots, slots.length + 1); // copies the tail twice, but lets the JIT skip zeroing
+        System.arraycopy(slots, node.index, copy, node.index + 1, slots.length - node.index);
+        copy[node.index] = node;
+        return copy;
     }
 }
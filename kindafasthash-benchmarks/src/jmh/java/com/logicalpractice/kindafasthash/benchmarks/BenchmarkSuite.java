@@ -0,0 +1,52 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link ReadWriteMixBenchmark#mixed} at 1, 2, 4... threads up to the number of cores, with
+ * the GC profiler, and writes every result to one JSON file so runs can be compared for
+ * regressions, {@code build/reports/jmh/suite.json} unless the system property
+ * {@code suite.results} says otherwise. Any arguments are passed on to JMH, to narrow the
+ * parameters with {@code -p} say.
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        Options commandLine = new CommandLineOptions(args);
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(ReadWriteMixBenchmark.class.getName() + ".mixed")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            results.addAll(new Runner(options).run());
+        }
+
+        File file = new File(System.getProperty("suite.results", "build/reports/jmh/suite.json"));
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, file.getPath()).writeOut(results);
+        System.out.println("Results written to " + file);
+    }
+
+    static List<Integer> threadCounts(int cores) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+        return counts;
+    }
+}
@@ -0,0 +1,93 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteCache;
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Look ups of Zipfian distributed keys that put the key on a miss, in a CopyOnWriteCache bounded
+ * to a fraction of the keys against an unbounded CopyOnWriteHashMap. The hit rate and final size
+ * of each are printed once the trial is over, the map's being the best a cache could do.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class CacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CacheHolder {
+        @Param({"CopyOnWriteCache", "CopyOnWriteHashMap"})
+        String cacheType = "CopyOnWriteCache";
+
+        @Param({"100000"})
+        int numberOfKeys = 100000;
+
+        @Param({"1000"})
+        int maximumSize = 1000;
+
+        @Param({"0.99"})
+        double theta = 0.99;
+
+        String [] keys;
+        ZipfianGenerator generator;
+        CopyOnWriteCache<String,String> cache;
+        CopyOnWriteHashMap<String,String> map;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+
+        @Setup
+        public void setup() {
+            keys = Keys.sequentialKeys(numberOfKeys);
+            generator = new ZipfianGenerator(numberOfKeys, theta);
+            if (cacheType.equals("CopyOnWriteCache")) {
+                cache = CopyOnWriteCache.<String,String>newBuilder().maximumSize(maximumSize).build();
+            } else {
+                map = new CopyOnWriteHashMap<>();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void reportHitRate() {
+            long total = hits.sum() + misses.sum();
+            System.out.printf("%n%s: hit rate %.1f%% over %,d look ups, %,d entries%n",
+                    cacheType, 100.0 * hits.sum() / total, total, cache != null ? cache.size() : map.size());
+        }
+
+        String get(String key) {
+            return cache != null ? cache.get(key) : map.get(key);
+        }
+
+        void put(String key, String value) {
+            if (cache != null) {
+                cache.put(key, value);
+            } else {
+                map.put(key, value);
+            }
+        }
+    }
+
+    @Benchmark
+    public String getOrPut(CacheHolder holder) {
+        String key = holder.keys[holder.generator.nextInt()];
+        String value = holder.get(key);
+        if (value != null) {
+            holder.hits.increment();
+            return value;
+        }
+        holder.misses.increment();
+        holder.put(key, key);
+        return key;
+    }
+}
@@ -0,0 +1,72 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and updates in a Hash whose keys all share one hash code, {@link Keys#collidingKeys},
+ * against the same number of ordinary keys. With the colliding keys in a tree bucket the cost
+ * should grow with log n, a chain would make it grow with n.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class CollisionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HashHolder {
+        @Param({"COLLIDING", "SEQUENTIAL"})
+        String keySet = "COLLIDING";
+
+        @Param({"1000", "10000", "100000"})
+        int numberOfKeys = 1000;
+
+        Hash<String,Object> hash;
+        String [] keys;
+
+        @Setup
+        public void setup() {
+            keys = keySet.equals("COLLIDING")
+                    ? Keys.collidingKeys(numberOfKeys)
+                    : Keys.sequentialKeys(numberOfKeys);
+            Hash.Builder<String,Object> builder = Hash.newBuilder();
+            for (String key : keys) {
+                builder.put(key, key);
+            }
+            hash = builder.build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object get(HashHolder holder, Counter counter) {
+        return holder.hash.get(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+
+    @Benchmark
+    public Hash<String,Object> with(HashHolder holder, Counter counter) {
+        return holder.hash.with(holder.keys[counter.nextUpTo(holder.keys.length)], Boolean.TRUE);
+    }
+
+    @Benchmark
+    public Hash<String,Object> without(HashHolder holder, Counter counter) {
+        return holder.hash.without(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+}
@@ -0,0 +1,81 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.HashingStrategies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts in to one CopyOnWriteHashMap from a growing number of writer threads, under each of its
+ * {@link CopyOnWriteHashMap.WriteMode}s. Combining should pull ahead of plain compare and set
+ * once several writers overlap, and adaptive should track whichever of the two is better.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class CombiningWriteBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"CAS", "COMBINING", "ADAPTIVE"})
+        String writeMode = "ADAPTIVE";
+
+        @Param({"1000", "100000"})
+        int numberOfKeys = 1000;
+
+        CopyOnWriteHashMap<String,Object> map;
+        String [] keys;
+
+        @Setup
+        public void setup() {
+            map = new CopyOnWriteHashMap<>(CopyOnWriteHashMap.SnapshotLayout.TRIE, HashingStrategies.DEFAULT, null,
+                    CopyOnWriteHashMap.WriteMode.valueOf(writeMode));
+            keys = Keys.sequentialKeys(numberOfKeys);
+            for (String key : keys) {
+                map.put(key, new Object());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count = ThreadLocalRandom.current().nextInt(1 << 20); // so threads don't walk the keys in step
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object put1Thread(MapHolder holder, Counter counter) {
+        return put(holder, counter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object put4Threads(MapHolder holder, Counter counter) {
+        return put(holder, counter);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Object put32Threads(MapHolder holder, Counter counter) {
+        return put(holder, counter);
+    }
+
+    private Object put(MapHolder holder, Counter counter) {
+        int index = counter.nextUpTo(holder.keys.length);
+        return holder.map.put(holder.keys[index], counter.count); // a new value, so every put writes
+    }
+}
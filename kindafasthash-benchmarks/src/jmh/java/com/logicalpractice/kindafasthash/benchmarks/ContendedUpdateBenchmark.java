@@ -0,0 +1,84 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters incremented by several threads at once over a small set of hot keys, comparing the
+ * atomic {@code merge} with the read then write pattern it replaces. At the end of each iteration
+ * the counters are checked against the number of increments made and any lost updates reported.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class ContendedUpdateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Counters {
+        @Param({"CopyOnWriteHashMap", "ConcurrentHashMap"})
+        String mapType = "CopyOnWriteHashMap";
+
+        @Param({"16"})
+        int numberOfKeys = 16;
+
+        ConcurrentMap<Integer,Long> map;
+        final LongAdder increments = new LongAdder();
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            map = "ConcurrentHashMap".equals(mapType) ? new ConcurrentHashMap<>() : new CopyOnWriteHashMap<>();
+            increments.reset();
+        }
+
+        @TearDown(Level.Iteration)
+        public void checkForLostUpdates() {
+            long total = 0;
+            for (Long count : map.values()) {
+                total += count;
+            }
+            long lost = increments.sum() - total;
+            System.out.println("(" + mapType + ") increments: " + increments.sum() + " lost updates: " + lost);
+        }
+
+        Integer nextKey() {
+            return ThreadLocalRandom.current().nextInt(numberOfKeys);
+        }
+    }
+
+    @Benchmark
+    public Long merge(Counters counters) {
+        counters.increments.increment();
+        return counters.map.merge(counters.nextKey(), 1L, Long::sum);
+    }
+
+    @Benchmark
+    public Long compute(Counters counters) {
+        counters.increments.increment();
+        return counters.map.compute(counters.nextKey(), (key, count) -> count == null ? 1L : count + 1);
+    }
+
+    @Benchmark
+    public Long getThenPut(Counters counters) {
+        counters.increments.increment();
+        Integer key = counters.nextKey();
+        Long count = counters.map.get(key);
+        return counters.map.put(key, count == null ? 1L : count + 1);
+    }
+}
@@ -0,0 +1,67 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciling an old snapshot with a new one that differs in {@code changes} keys, through
+ * {@link Hash#diff(Hash)} against the per entry lookups it replaces.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DiffBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Snapshots {
+        @Param({"1000", "100000", "1000000"})
+        int numberOfKeys = 1000;
+
+        @Param({"10"})
+        int changes = 10;
+
+        Hash<String,Object> before;
+        Hash<String,Object> after;
+
+        @Setup
+        public void setup() {
+            String [] keys = Keys.sequentialKeys(numberOfKeys);
+            Hash.Builder<String,Object> builder = Hash.newBuilder();
+            for (String key : keys) {
+                builder.put(key, key);
+            }
+            before = builder.build();
+            Hash.Builder<String,Object> changed = before.toBuilder();
+            for (int i = 0; i < changes; i++) {
+                changed.put(keys[i * (numberOfKeys / changes)], new Object());
+            }
+            after = changed.build();
+        }
+    }
+
+    @Benchmark
+    public Hash.Diff<String,Object> diff(Snapshots snapshots) {
+        return snapshots.before.diff(snapshots.after);
+    }
+
+    @Benchmark
+    public int lookupEachEntry(Snapshots snapshots) {
+        int changed = 0;
+        for (Map.Entry<String,Object> entry : snapshots.after) {
+            if (!entry.getValue().equals(snapshots.before.get(entry.getKey()))) {
+                changed ++;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,146 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Codecs;
+import com.logicalpractice.kindafasthash.DurableCopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.DurableCopyOnWriteHashMap.Durability;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * What logging each write costs a {@link DurableCopyOnWriteHashMap} in each durability mode,
+ * and how long reopening one takes to replay a large log. Writes come from several threads so
+ * that group commit has something to batch. Both need a real disk, a tmpfs makes forcing free.
+ */
+public class DurabilityBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"NONE", "SYNC_PER_BATCH", "SYNC_PER_WRITE"})
+        Durability durability = Durability.NONE;
+
+        @Param({"10000"})
+        int numberOfKeys = 10000;
+
+        DurableCopyOnWriteHashMap<String,Long> map;
+        String [] keys;
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("DurabilityBenchmark");
+            map = DurableCopyOnWriteHashMap.open(directory, Codecs.STRING, Codecs.LONG, durability);
+            keys = Keys.sequentialKeys(numberOfKeys);
+        }
+
+        @TearDown(Level.Iteration)
+        public void checkpoint() throws IOException {
+            map.checkpoint(); // or the log grows without bound over the trial
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            map.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        long count;
+
+        public int nextUpTo(int limit) {
+            return (int) ((count ++) % limit);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Log {
+        @Param({"1073741824"})
+        long logBytes = 1L << 30;
+
+        @Param({"1000000"})
+        int numberOfKeys = 1000000;
+
+        @Param({"100"})
+        int valueBytes = 100;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("DurabilityBenchmark");
+            String[] keys = Keys.sequentialKeys(numberOfKeys);
+            long records = 0;
+            try (DurableCopyOnWriteHashMap<String,byte[]> map = DurableCopyOnWriteHashMap.open(
+                    directory, Codecs.STRING, Codecs.BYTES, Durability.NONE)) {
+                long bytes = 0;
+                while (bytes < logBytes) {
+                    for (int i = 0; i < 100_000; i++, records++) {
+                        map.put(keys[(int) (records % keys.length)], new byte[valueBytes]); // a new value, so every put writes
+                    }
+                    bytes = size(directory);
+                }
+            }
+            System.out.printf("%n%,d records, %,d bytes of log%n", records, size(directory));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+    @Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+    @Fork(1)
+    public Object put(MapHolder holder, Counter counter) {
+        int index = counter.nextUpTo(holder.keys.length);
+        return holder.map.put(holder.keys[index], counter.count); // a new value, so every put writes
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    public int recover(Log log) throws IOException {
+        try (DurableCopyOnWriteHashMap<String,byte[]> map = DurableCopyOnWriteHashMap.open(
+                log.directory, Codecs.STRING, Codecs.BYTES, Durability.NONE)) {
+            return map.size(); // reopening only starts an empty segment, so each replays the same log
+        }
+    }
+
+    private static long size(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
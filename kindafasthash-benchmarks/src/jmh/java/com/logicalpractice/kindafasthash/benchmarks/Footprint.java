@@ -0,0 +1,29 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Retained size of a structure as measured by JOL, benchmarks print it from their tear down so
+ * the footprint appears next to the throughput numbers.
+ */
+public class Footprint {
+
+    /**
+     * @param roots    the structure to measure
+     * @param shared   objects reachable from the structure that shouldn't count, such as a
+     *                 value shared by every entry
+     * @param entries  how many entries the structure holds
+     */
+    public static double bytesPerEntry(Object roots, Object shared, int entries) {
+        long total = GraphLayout.parseInstance(roots).totalSize();
+        if (shared != null) {
+            total -= GraphLayout.parseInstance(shared).totalSize();
+        }
+        return (double) total / entries;
+    }
+
+    public static void report(String label, Object roots, Object shared, int entries) {
+        System.out.printf("%n%s: %,d entries, %.1f bytes per entry%n",
+                label, entries, bytesPerEntry(roots, shared, entries));
+    }
+}
@@ -0,0 +1,92 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes per entry of a Hash, with and without its compact table, against HashMap and
+ * ConcurrentHashMap holding the same keys. The keys, and the one value every entry shares, are
+ * left out so the figures are the overhead of the structure alone. They are printed once the
+ * trial is over, the lookups are only there to give the trial something to run.
+ * <p>
+ * The 10M case wants a heap of a few GB, e.g. {@code -jvmArgsAppend -Xmx6g}.
+ */
+@Warmup(iterations = 1, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 1, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class FootprintBenchmark {
+    private static final Object VALUE = new Object();
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"1000", "100000", "10000000"})
+        int numberOfKeys = 1000;
+
+        @Param({"0.5", "0.75"})
+        double loadFactor = 0.5;
+
+        String [] keys;
+        Hash<String,Object> hash;
+        Hash<String,Object> compactHash;
+        CopyOnWriteHashMap<String,Object> copyOnWriteHashMap = new CopyOnWriteHashMap<>();
+        Map<String,Object> hashMap = new HashMap<>();
+        Map<String,Object> concurrentHashMap = new ConcurrentHashMap<>();
+
+        @Setup
+        public void setup() {
+            keys = Keys.sequentialKeys(numberOfKeys);
+            Hash.Builder<String,Object> builder = Hash.newBuilder();
+            for (String key : keys) {
+                builder.put(key, VALUE);
+                hashMap.put(key, VALUE);
+                concurrentHashMap.put(key, VALUE);
+            }
+            hash = builder.build();
+            compactHash = hash.compact(loadFactor);
+            copyOnWriteHashMap.putAll(hashMap);
+        }
+
+        @TearDown(Level.Trial)
+        public void reportFootprint() {
+            report("Hash<String,Object>", hash);
+            report("Hash<String,Object> compact(" + loadFactor + ")", compactHash);
+            report("CopyOnWriteHashMap<String,Object>", copyOnWriteHashMap);
+            report("HashMap<String,Object>", hashMap);
+            report("ConcurrentHashMap<String,Object>", concurrentHashMap);
+        }
+
+        private void report(String label, Object map) {
+            Object[] shared = { keys, VALUE }; // leave out what every structure holds
+            Footprint.report(label, new Object[] { map, shared }, shared, numberOfKeys);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object get(MapHolder holder, Counter counter) {
+        return holder.hash.get(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+}
@@ -0,0 +1,87 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Hash;
+import com.logicalpractice.kindafasthash.HashingStrategies;
+import com.logicalpractice.kindafasthash.HashingStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in a Hash of {@link Keys#sequentialKeys} under each of the string strategies. Setup
+ * prints how the strategy's hash codes spread those keys: the collision chains, keys that share
+ * a whole hash code, and how many keys share each slot 3 levels down the trie.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class HashingStrategyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HashHolder {
+        @Param({"DEFAULT", "MURMUR3", "CHAR_SEQUENCE", "CASE_INSENSITIVE"})
+        String strategyName = "DEFAULT";
+
+        @Param({"100000"})
+        int numberOfKeys = 100000;
+
+        Hash<String,Object> hash;
+        String [] keys;
+
+        @Setup
+        public void setup() throws Exception {
+            @SuppressWarnings("unchecked")
+            HashingStrategy<? super String> strategy =
+                    (HashingStrategy<? super String>) HashingStrategies.class.getField(strategyName).get(null);
+            keys = Keys.sequentialKeys(numberOfKeys);
+            Hash.Builder<String,Object> builder = Hash.newBuilder(strategy);
+            for (String key : keys) {
+                builder.put(key, key);
+            }
+            hash = builder.build();
+            report(strategy);
+        }
+
+        private void report(HashingStrategy<? super String> strategy) {
+            Map<Integer,Integer> chains = new HashMap<>();
+            Set<Integer> level3Slots = new HashSet<>();
+            for (String key : keys) {
+                int hashCode = strategy.hashCode(key);
+                chains.merge(hashCode, 1, Integer::sum);
+                level3Slots.add(hashCode & ((1 << 15) - 1));
+            }
+            int longest = 0;
+            for (int length : chains.values()) {
+                longest = Math.max(longest, length);
+            }
+            System.out.printf("%n(%s) chains: %d for %d keys, longest %d, mean %.3f, keys per used level 3 slot %.2f%n",
+                    strategyName, chains.size(), keys.length, longest,
+                    (double) keys.length / chains.size(), (double) keys.length / level3Slots.size());
+        }
+
+        public String nextKey(Counter counter) {
+            return keys[(counter.count ++) % keys.length];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+    }
+
+    @Benchmark
+    public Object get(HashHolder holder, Counter counter) {
+        return holder.hash.get(holder.nextKey(counter));
+    }
+}
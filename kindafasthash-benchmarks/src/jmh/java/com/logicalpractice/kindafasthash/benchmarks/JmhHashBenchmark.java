@@ -3,33 +3,48 @@ package com.logicalpractice.kindafasthash.benchmarks;
 
 import com.logicalpractice.kindafasthash.Hash;
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.util.concurrent.TimeUnit;
+
 /**
- *
+ * Cost of a single persistent update or lookup as the Hash grows, put should stay roughly flat
+ * as an update only copies the path through the trie.
  */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
 public class JmhHashBenchmark {
 
     @State(Scope.Benchmark)
     public static class HashReference {
+        @Param({"10", "1000", "100000", "1000000"})
+        int numberOfKeys = 10;
+
         Hash<String,Object> hash = Hash.emptyHash();
         String [] keysToAdd;
 
         @Setup
         public void setup(){
-            keysToAdd = Keys.sequentialKeys(10_000);
+            keysToAdd = Keys.sequentialKeys(numberOfKeys);
+            Hash.Builder<String,Object> builder = Hash.newBuilder();
             for(String key: keysToAdd) {
-                hash = hash.with(key, new Object());
+                builder.put(key, new Object());
             }
+            hash = builder.build();
         }
 
         @TearDown
         public void check() {
-            assert hash.size() == 1000: "Size should not have changed";
+            assert hash.size() == numberOfKeys: "Size should not have changed";
         }
 
         public String nextKey(ArrayCounter counter) {
@@ -50,7 +65,25 @@ public class JmhHashBenchmark {
 
     @Benchmark
     public void get(Blackhole bh, HashReference hashReference, ArrayCounter counter) {
-        String key = hashReference.keysToAdd[(counter.counter ++) % hashReference.keysToAdd.length];
-        bh.consume(hashReference.hash.with(key, new Object()));
+        String key = hashReference.nextKey(counter);
+        bh.consume(hashReference.hash.get(key));
+    }
+
+    @Benchmark
+    public Hash<String,Object> buildWithPersistentUpdates(HashReference hashReference) {
+        Hash<String,Object> hash = Hash.emptyHash();
+        for (String key : hashReference.keysToAdd) {
+            hash = hash.with(key, key);
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public Hash<String,Object> buildWithBuilder(HashReference hashReference) {
+        Hash.Builder<String,Object> builder = Hash.newBuilder();
+        for (String key : hashReference.keysToAdd) {
+            builder.put(key, key);
+        }
+        return builder.build();
     }
 }
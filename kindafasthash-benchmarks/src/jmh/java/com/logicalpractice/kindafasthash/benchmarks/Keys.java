@@ -1,6 +1,7 @@
 package com.logicalpractice.kindafasthash.benchmarks;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -21,4 +22,89 @@ public class Keys {
         return keys.toArray(new String[count]);
     }
 
+    /**
+     * The Longs 0 to count - 1, shuffled.
+     */
+    public static Long[] longKeys(int count) {
+        Long[] keys = new Long[count];
+        for( int i = 0; i < count; i ++ ) {
+            keys[i] = (long) i;
+        }
+        Collections.shuffle(Arrays.asList(keys));
+        return keys;
+    }
+
+    /**
+     * Keys made of two fields, as a map keyed by tenant and name would use, shuffled.
+     */
+    public static CompositeKey[] compositeKeys(int count) {
+        CompositeKey[] keys = new CompositeKey[count];
+        for( int i = 0; i < count; i ++ ) {
+            keys[i] = new CompositeKey(i % 100, "name" + i / 100);
+        }
+        Collections.shuffle(Arrays.asList(keys));
+        return keys;
+    }
+
+    /**
+     * Keys of the given type, one of "String", "Long" or "Composite".
+     */
+    public static Object[] keys(String type, int count) {
+        switch (type) {
+            case "String":
+                return sequentialKeys(count);
+            case "Long":
+                return longKeys(count);
+            case "Composite":
+                return compositeKeys(count);
+            default:
+                throw new IllegalArgumentException("unknown key type " + type);
+        }
+    }
+
+    /**
+     * Strings that all have the same hashCode, made of "Aa" and "BB" (which hash alike) spelling
+     * out each index in binary.
+     */
+    public static String[] collidingKeys(int count) {
+        int pairs = Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+        String[] keys = new String[count];
+        for( int i = 0; i < count; i ++ ) {
+            StringBuilder key = new StringBuilder(pairs * 2);
+            for( int bit = pairs - 1; bit >= 0; bit -- ) {
+                key.append((i >>> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = key.toString();
+        }
+        Collections.shuffle(Arrays.asList(keys));
+        return keys;
+    }
+
+    public static final class CompositeKey {
+        private final long tenant;
+        private final String name;
+
+        public CompositeKey(long tenant, String name) {
+            this.tenant = tenant;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CompositeKey)) return false;
+            CompositeKey other = (CompositeKey) o;
+            return tenant == other.tenant && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(tenant) + name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return tenant + "/" + name;
+        }
+    }
 }
@@ -12,6 +12,7 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -26,7 +27,7 @@ public class MapBenchmark {
 
     public static abstract class MapHolder {
         Map<String,Object> map;
-        private String [] keys;
+        String [] keys;
         void populateMap() {
             keys = Keys.sequentialKeys(numberOfKeys());
             for (String key : keys) {
@@ -53,6 +54,28 @@ public class MapBenchmark {
         }
     }
 
+    @State(Scope.Benchmark)
+    public static class CompactCopyOnWriteMapHolder extends MapHolder {
+        @Param({"10", "1000", "10000", "100000"})
+        int numberOfKeys = 10;
+
+        @Setup
+        public void setup() {
+            map = new CopyOnWriteHashMap<>(CopyOnWriteHashMap.SnapshotLayout.COMPACT);
+            keys = Keys.sequentialKeys(numberOfKeys); // shuffled, HashMap order would walk the table in step
+            Map<String,Object> entries = new HashMap<>();
+            for (String key : keys) {
+                entries.put(key, new Object());
+            }
+            map.putAll(entries); // a single compaction rather than one per key
+        }
+
+        @Override
+        int numberOfKeys() {
+            return numberOfKeys;
+        }
+    }
+
     @State(Scope.Benchmark)
     public static class ConcurrentHashMapHolder extends MapHolder {
         @Param({"10", "1000", "10000", "100000"})
@@ -111,6 +134,15 @@ public class MapBenchmark {
         get(bh, holder, counter);
     }
 
+    @Benchmark
+    public void compactCopyOnWriteHashMapGet(
+            Blackhole bh,
+            CompactCopyOnWriteMapHolder holder,
+            Counter counter
+    ) {
+        get(bh, holder, counter);
+    }
+
     @Benchmark
     public void concurrentHashMapGet(
             Blackhole bh,
@@ -0,0 +1,72 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consistent reads of several keys at once from a CopyOnWriteHashMap: through one
+ * {@link CopyOnWriteHashMap#snapshot()}, against copying the map in to a HashMap first.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class MultiGetBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"1000", "100000"})
+        int numberOfKeys = 1000;
+
+        @Param({"8"})
+        int keysPerRead = 8;
+
+        CopyOnWriteHashMap<String,Object> map = new CopyOnWriteHashMap<>();
+        String [] keys;
+
+        @Setup
+        public void setup() {
+            keys = Keys.sequentialKeys(numberOfKeys);
+            for (String key : keys) {
+                map.put(key, key);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public void snapshot(MapHolder holder, Counter counter, Blackhole bh) {
+        Hash<String,Object> snapshot = holder.map.snapshot();
+        for (int i = 0; i < holder.keysPerRead; i++) {
+            bh.consume(snapshot.get(holder.keys[counter.nextUpTo(holder.keys.length)]));
+        }
+    }
+
+    @Benchmark
+    public void copyToHashMap(MapHolder holder, Counter counter, Blackhole bh) {
+        Map<String,Object> copy = new HashMap<>(holder.map);
+        for (int i = 0; i < holder.keysPerRead; i++) {
+            bh.consume(copy.get(holder.keys[counter.nextUpTo(holder.keys.length)]));
+        }
+    }
+}
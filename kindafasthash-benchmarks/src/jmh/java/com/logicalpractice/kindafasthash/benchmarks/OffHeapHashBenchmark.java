@@ -0,0 +1,94 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Codecs;
+import com.logicalpractice.kindafasthash.Hash;
+import com.logicalpractice.kindafasthash.OffHeapHash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in a memory mapped {@link OffHeapHash} against the same entries in a {@link Hash} on
+ * the heap, and the cost of opening the mapped file.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class OffHeapHashBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        @Param({"1000", "1000000"})
+        int numberOfKeys = 1000;
+
+        String [] keys;
+        Hash<String,byte[]> hash;
+        Path path;
+        OffHeapHash<String,ByteBuffer> offHeapHash;
+
+        @Setup
+        public void setup() throws IOException {
+            keys = Keys.sequentialKeys(numberOfKeys);
+            Hash.Builder<String,byte[]> builder = Hash.newBuilder();
+            for (String key : keys) {
+                builder.put(key, new byte[64]);
+            }
+            hash = builder.build();
+            path = Files.createTempFile("OffHeapHashBenchmark", ".kfh");
+            OffHeapHash.write(hash, path, Codecs.STRING, Codecs.BYTES);
+            offHeapHash = OffHeapHash.open(path, Codecs.STRING, Codecs.BYTE_BUFFER);
+        }
+
+        @TearDown
+        public void deleteFile() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object offHeapGet(Snapshot snapshot, Counter counter) {
+        return snapshot.offHeapHash.get(snapshot.keys[counter.nextUpTo(snapshot.keys.length)]);
+    }
+
+    @Benchmark
+    public Object heapGet(Snapshot snapshot, Counter counter) {
+        return snapshot.hash.get(snapshot.keys[counter.nextUpTo(snapshot.keys.length)]);
+    }
+
+    /**
+     * a single open per iteration, every mapping lives until it is garbage collected so opening
+     * in a tight loop would only measure running out of address space
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 20)
+    public Object open(Snapshot snapshot) throws IOException {
+        return OffHeapHash.open(snapshot.path, Codecs.STRING, Codecs.BYTE_BUFFER);
+    }
+}
@@ -0,0 +1,72 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summing every value of a large snapshot, sequentially and through the fork join pool, with
+ * ConcurrentHashMap's bulk reduce as the reference point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ParallelAggregationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Maps {
+        @Param({"1000000"})
+        int numberOfKeys = 1000000;
+
+        CopyOnWriteHashMap<String,Long> copyOnWriteHashMap;
+        ConcurrentHashMap<String,Long> concurrentHashMap;
+
+        @Setup
+        public void setup() {
+            copyOnWriteHashMap = new CopyOnWriteHashMap<>();
+            concurrentHashMap = new ConcurrentHashMap<>();
+            String [] keys = Keys.sequentialKeys(numberOfKeys);
+            copyOnWriteHashMap.update(builder -> {
+                for (int i = 0; i < keys.length; i++) {
+                    builder.put(keys[i], (long) i);
+                }
+            });
+            concurrentHashMap.putAll(copyOnWriteHashMap);
+        }
+    }
+
+    @Benchmark
+    public long sequentialStream(Maps maps) {
+        return maps.copyOnWriteHashMap.entrySet().stream().mapToLong(Map.Entry::getValue).sum();
+    }
+
+    @Benchmark
+    public long parallelStream(Maps maps) {
+        return maps.copyOnWriteHashMap.entrySet().parallelStream().mapToLong(Map.Entry::getValue).sum();
+    }
+
+    @Benchmark
+    public Long parallelReduce(Maps maps) {
+        return maps.copyOnWriteHashMap.reduce(1, (key, value) -> value, Long::sum);
+    }
+
+    @Benchmark
+    public Long concurrentHashMapParallelReduce(Maps maps) {
+        return maps.concurrentHashMap.reduce(1, (key, value) -> value, Long::sum);
+    }
+}
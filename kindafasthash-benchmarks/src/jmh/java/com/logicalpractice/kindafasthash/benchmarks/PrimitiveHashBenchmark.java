@@ -0,0 +1,107 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Hash;
+import com.logicalpractice.kindafasthash.LongLongHash;
+import com.logicalpractice.kindafasthash.LongObjHash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code long} keyed lookups and updates through {@link LongObjHash} and {@link LongLongHash}
+ * against a {@code Hash<Long,Object>} holding the same keys. The bytes per entry of each
+ * structure are printed once the trial is over.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class PrimitiveHashBenchmark {
+
+    private static final Object VALUE = new Object();
+
+    @State(Scope.Benchmark)
+    public static class Hashes {
+        @Param({"1000", "100000", "1000000"})
+        int numberOfKeys = 1000;
+
+        long [] keys;
+        Hash<Long,Object> hash;
+        LongObjHash<Object> longObjHash = LongObjHash.emptyHash();
+        LongLongHash longLongHash = LongLongHash.emptyHash();
+
+        @Setup
+        public void setup() {
+            Random random = new Random(42);
+            keys = new long[numberOfKeys];
+            Hash.Builder<Long,Object> builder = Hash.newBuilder();
+            for (int i = 0; i < numberOfKeys; i++) {
+                long key = random.nextLong();
+                keys[i] = key;
+                builder.put(key, VALUE);
+                longObjHash = longObjHash.with(key, VALUE);
+                longLongHash = longLongHash.with(key, i);
+            }
+            hash = builder.build();
+        }
+
+        @TearDown(Level.Trial)
+        public void reportFootprint() {
+            Footprint.report("Hash<Long,Object>", hash, VALUE, numberOfKeys);
+            Footprint.report("LongObjHash<Object>", longObjHash, VALUE, numberOfKeys);
+            Footprint.report("LongLongHash", longLongHash, null, numberOfKeys);
+        }
+
+        long nextKey(Counter counter) {
+            return keys[counter.nextUpTo(keys.length)];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count = 0;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object hashGet(Hashes hashes, Counter counter) {
+        return hashes.hash.get(hashes.nextKey(counter));
+    }
+
+    @Benchmark
+    public Object longObjHashGet(Hashes hashes, Counter counter) {
+        return hashes.longObjHash.get(hashes.nextKey(counter));
+    }
+
+    @Benchmark
+    public long longLongHashGet(Hashes hashes, Counter counter) {
+        return hashes.longLongHash.get(hashes.nextKey(counter), -1L);
+    }
+
+    @Benchmark
+    public Object hashPut(Hashes hashes, Counter counter) {
+        return hashes.hash.with(hashes.nextKey(counter), counter);
+    }
+
+    @Benchmark
+    public Object longObjHashPut(Hashes hashes, Counter counter) {
+        return hashes.longObjHash.with(hashes.nextKey(counter), counter);
+    }
+
+    @Benchmark
+    public Object longLongHashPut(Hashes hashes, Counter counter) {
+        return hashes.longLongHash.with(hashes.nextKey(counter), counter.count);
+    }
+}
@@ -0,0 +1,82 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of puts of new keys in to a map that keeps growing, from empty through
+ * every power of two up to {@code maxKeys}. Table based maps pay for a resize at each of those
+ * boundaries, which shows up in the high percentiles, the trie behind CopyOnWriteHashMap never
+ * resizes so its tail should stay flat.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class PutLatencyBenchmark {
+
+    @State(Scope.Thread)
+    public static class GrowingMap {
+        @Param({"CopyOnWriteHashMap", "ConcurrentHashMap", "HashMap"})
+        String mapType = "CopyOnWriteHashMap";
+
+        @Param({"131072"})
+        int maxKeys = 131072;
+
+        String [] keys;
+        Map<String,Object> map;
+        int next;
+
+        @Setup(Level.Trial)
+        public void createKeys() {
+            keys = Keys.sequentialKeys(maxKeys);
+        }
+
+        @Setup(Level.Iteration)
+        public void createMap() {
+            switch (mapType) {
+                case "CopyOnWriteHashMap":
+                    map = new CopyOnWriteHashMap<>();
+                    break;
+                case "ConcurrentHashMap":
+                    map = new ConcurrentHashMap<>();
+                    break;
+                case "HashMap":
+                    map = new HashMap<>();
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown mapType " + mapType);
+            }
+            next = 0;
+        }
+
+        String nextKey() {
+            if (next == keys.length) {
+                createMap(); // start growing again from empty
+            }
+            return keys[next++];
+        }
+    }
+
+    @Benchmark
+    public Object putNewKey(GrowingMap growingMap) {
+        return growingMap.map.put(growingMap.nextKey(), growingMap);
+    }
+}
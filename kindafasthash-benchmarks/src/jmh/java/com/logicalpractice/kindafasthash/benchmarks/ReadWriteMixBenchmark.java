@@ -0,0 +1,102 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CopyOnWriteHashMap against ConcurrentHashMap on the mixes of reads and writes they are used
+ * for, by key type and by how the keys asked for are distributed.
+ * <p>
+ * {@code mixed} picks get or put at random for each operation, in the proportion
+ * {@code writePercent} gives, so the mix is exact whatever the two cost. Run it with
+ * {@code -t} from 1 up to the number of cores, {@link BenchmarkSuite} does the lot and
+ * collects the results as JSON. {@code readersWithWriter} instead has readers run alongside a
+ * writer that never stops, reporting each side separately, widen it with {@code -tg}.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ReadWriteMixBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"CopyOnWriteHashMap", "ConcurrentHashMap"})
+        String mapType = "CopyOnWriteHashMap";
+
+        @Param({"String", "Long", "Composite"})
+        String keyType = "String";
+
+        @Param({"uniform", "zipfian"})
+        String distribution = "uniform";
+
+        @Param({"100000"})
+        int numberOfKeys = 100000;
+
+        Map<Object,Object> map;
+        Object [] keys;
+        ZipfianGenerator zipfian; // null for uniform
+
+        @Setup
+        public void setup() {
+            if (mapType.equals("CopyOnWriteHashMap")) {
+                map = new CopyOnWriteHashMap<>();
+            } else {
+                map = new ConcurrentHashMap<>();
+            }
+            keys = Keys.keys(keyType, numberOfKeys);
+            for (Object key : keys) {
+                map.put(key, new Object());
+            }
+            if (distribution.equals("zipfian")) {
+                zipfian = new ZipfianGenerator(numberOfKeys, 0.99); // the keys are shuffled, so the hot ones are spread through the map
+            }
+        }
+
+        Object nextKey() {
+            return keys[zipfian != null ? zipfian.nextInt() : ThreadLocalRandom.current().nextInt(keys.length)];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Mix {
+        @Param({"0", "5", "50"})
+        int writePercent = 5;
+    }
+
+    @Benchmark
+    public Object mixed(MapHolder holder, Mix mix) {
+        Object key = holder.nextKey();
+        if (ThreadLocalRandom.current().nextInt(100) < mix.writePercent) {
+            return holder.map.put(key, new Object());
+        }
+        return holder.map.get(key);
+    }
+
+    @Benchmark
+    @Group("readersWithWriter")
+    @GroupThreads(3)
+    public Object reader(MapHolder holder) {
+        return holder.map.get(holder.nextKey());
+    }
+
+    @Benchmark
+    @Group("readersWithWriter")
+    @GroupThreads(1)
+    public Object writer(MapHolder holder) {
+        return holder.map.put(holder.nextKey(), new Object());
+    }
+}
@@ -0,0 +1,98 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.CopyOnWriteHashSet;
+import com.logicalpractice.kindafasthash.PersistentHashSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets of strings: {@link CopyOnWriteHashSet} against a set over a ConcurrentHashMap and a
+ * CopyOnWriteHashMap holding {@code Boolean.TRUE} for each key. The bytes per element of each,
+ * not counting the strings themselves, are printed once the trial is over.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class SetFootprintBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SetHolder {
+        @Param({"1000", "100000"})
+        int numberOfKeys = 1000;
+
+        String [] keys;
+        CopyOnWriteHashSet<String> copyOnWriteHashSet = new CopyOnWriteHashSet<>();
+        Set<String> concurrentHashMapSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        CopyOnWriteHashMap<String,Boolean> copyOnWriteHashMap = new CopyOnWriteHashMap<>();
+
+        @Setup
+        public void setup() {
+            keys = Keys.sequentialKeys(numberOfKeys);
+            copyOnWriteHashSet.addAll(Arrays.asList(keys));
+            concurrentHashMapSet.addAll(Arrays.asList(keys));
+            for (String key : keys) {
+                copyOnWriteHashMap.put(key, Boolean.TRUE);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void reportFootprint() {
+            report("PersistentHashSet<String>", copyOnWriteHashSet.snapshot());
+            report("CopyOnWriteHashSet<String>", copyOnWriteHashSet);
+            report("newSetFromMap(ConcurrentHashMap<String,Boolean>)", concurrentHashMapSet);
+            report("CopyOnWriteHashMap<String,Boolean>", copyOnWriteHashMap);
+        }
+
+        private void report(String label, Object set) {
+            Footprint.report(label, new Object[] { set, keys }, keys, numberOfKeys); // keys are shared, leave them out
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public boolean copyOnWriteHashSetContains(SetHolder holder, Counter counter) {
+        return holder.copyOnWriteHashSet.contains(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+
+    @Benchmark
+    public boolean concurrentHashMapSetContains(SetHolder holder, Counter counter) {
+        return holder.concurrentHashMapSet.contains(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+
+    @Benchmark
+    public boolean copyOnWriteHashSetAdd(SetHolder holder, Counter counter) {
+        String key = holder.keys[counter.nextUpTo(holder.keys.length)];
+        holder.copyOnWriteHashSet.remove(key);
+        return holder.copyOnWriteHashSet.add(key);
+    }
+
+    @Benchmark
+    public boolean concurrentHashMapSetAdd(SetHolder holder, Counter counter) {
+        String key = holder.keys[counter.nextUpTo(holder.keys.length)];
+        holder.concurrentHashMapSet.remove(key);
+        return holder.concurrentHashMapSet.add(key);
+    }
+}
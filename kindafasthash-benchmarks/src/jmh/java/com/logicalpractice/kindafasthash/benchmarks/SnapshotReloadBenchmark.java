@@ -0,0 +1,75 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.Codecs;
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpointing a map to disk and reloading it at startup, each iteration is a single whole
+ * snapshot written or read.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotReloadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        @Param({"1000000", "10000000"})
+        int numberOfKeys = 1000000;
+
+        CopyOnWriteHashMap<String,Long> map;
+        Path path;
+
+        @Setup
+        public void setup() throws IOException {
+            map = new CopyOnWriteHashMap<>();
+            map.update(builder -> {
+                for (long i = 0; i < numberOfKeys; i++) {
+                    builder.put(Long.toString(i), i);
+                }
+            });
+            path = Files.createTempFile("SnapshotReloadBenchmark", ".kfh");
+            map.snapshotTo(path, Codecs.STRING, Codecs.LONG);
+        }
+
+        @TearDown
+        public void deleteFile() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Benchmark
+    public Hash<String,Long> reload(Snapshot snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot.path, StandardOpenOption.READ)) {
+            return Hash.readFrom(channel, Codecs.STRING, Codecs.LONG);
+        }
+    }
+
+    @Benchmark
+    public Path checkpoint(Snapshot snapshot) throws IOException {
+        snapshot.map.snapshotTo(snapshot.path, Codecs.STRING, Codecs.LONG);
+        return snapshot.path;
+    }
+}
@@ -0,0 +1,83 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteSortedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CopyOnWriteSortedMap against ConcurrentSkipListMap: point lookups, scans of a range of
+ * {@code rangeSize} keys, and puts. The keys are the hex strings from {@link Keys}, so each
+ * range is a run of neighbouring keys.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class SortedMapBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"CopyOnWriteSortedMap", "ConcurrentSkipListMap"})
+        String mapType = "CopyOnWriteSortedMap";
+
+        @Param({"100000"})
+        int numberOfKeys = 100000;
+
+        @Param({"100"})
+        int rangeSize = 100;
+
+        ConcurrentNavigableMap<String,Object> map;
+        String [] keys;
+        String [] sortedKeys;
+
+        @Setup
+        public void setup() {
+            map = mapType.equals("CopyOnWriteSortedMap") ? new CopyOnWriteSortedMap<>() : new ConcurrentSkipListMap<>();
+            keys = Keys.sequentialKeys(numberOfKeys);
+            for (String key : keys) {
+                map.put(key, key);
+            }
+            sortedKeys = map.keySet().toArray(new String[numberOfKeys]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object get(MapHolder holder, Counter counter) {
+        return holder.map.get(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+
+    @Benchmark
+    public int rangeScan(MapHolder holder, Counter counter) {
+        int from = counter.nextUpTo(holder.sortedKeys.length - holder.rangeSize);
+        int sum = 0;
+        for (Map.Entry<String,Object> entry : holder.map.subMap(holder.sortedKeys[from], holder.sortedKeys[from + holder.rangeSize]).entrySet()) {
+            sum += entry.getValue().hashCode();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Object put(MapHolder holder, Counter counter) {
+        int index = counter.nextUpTo(holder.keys.length);
+        return holder.map.put(holder.keys[index], counter.count); // a new value, so every put writes
+    }
+}
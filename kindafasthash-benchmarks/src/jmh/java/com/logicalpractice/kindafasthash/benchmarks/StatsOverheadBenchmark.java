@@ -0,0 +1,67 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.CountingMapStatsRecorder;
+import com.logicalpractice.kindafasthash.HashingStrategies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CopyOnWriteHashMap with and without a {@link CountingMapStatsRecorder}. Without one, put and
+ * get should score the same as they did before stats existed.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class StatsOverheadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"NONE", "COUNTING"})
+        String recorder = "NONE";
+
+        @Param({"10000"})
+        int numberOfKeys = 10000;
+
+        CopyOnWriteHashMap<String,Object> map;
+        String [] keys;
+
+        @Setup
+        public void setup() {
+            map = new CopyOnWriteHashMap<>(CopyOnWriteHashMap.SnapshotLayout.TRIE, HashingStrategies.DEFAULT,
+                    recorder.equals("COUNTING") ? new CountingMapStatsRecorder() : null);
+            keys = Keys.sequentialKeys(numberOfKeys);
+            for (String key : keys) {
+                map.put(key, key);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object put(MapHolder holder, Counter counter) {
+        int index = counter.nextUpTo(holder.keys.length);
+        return holder.map.put(holder.keys[index], counter.count); // a new value, so every put writes
+    }
+
+    @Benchmark
+    public Object get(MapHolder holder, Counter counter) {
+        return holder.map.get(holder.keys[counter.nextUpTo(holder.keys.length)]);
+    }
+}
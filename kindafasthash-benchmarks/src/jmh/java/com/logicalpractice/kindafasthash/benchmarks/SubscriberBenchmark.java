@@ -0,0 +1,107 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import com.logicalpractice.kindafasthash.CopyOnWriteHashMap;
+import com.logicalpractice.kindafasthash.Hash;
+import com.logicalpractice.kindafasthash.MapChange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cost to writers of delivering changes to subscribers, each of which walks every change
+ * it is sent. Delivery runs on one shared executor thread, the changes sent, the writes they
+ * covered and the keys walked are printed once the trial is over.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class SubscriberBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MapHolder {
+        @Param({"0", "1", "8"})
+        int subscribers = 1;
+
+        @Param({"10000"})
+        int numberOfKeys = 10000;
+
+        CopyOnWriteHashMap<String,Object> map;
+        String [] keys;
+        ExecutorService executor;
+        final LongAdder changes = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder keysWalked = new LongAdder();
+
+        @Setup
+        public void setup() {
+            map = new CopyOnWriteHashMap<>();
+            keys = Keys.sequentialKeys(numberOfKeys);
+            for (String key : keys) {
+                map.put(key, key);
+            }
+            executor = Executors.newSingleThreadExecutor();
+            for (int i = 0; i < subscribers; i++) {
+                map.listen(executor, this::walk);
+            }
+        }
+
+        private void walk(MapChange<String,Object> change) {
+            changes.increment();
+            writes.add(change.writes());
+            change.forEach(new Hash.DiffVisitor<String, Object>() {
+                @Override
+                public void added(String key, Object value) {
+                    keysWalked.increment();
+                }
+
+                @Override
+                public void removed(String key, Object value) {
+                    keysWalked.increment();
+                }
+
+                @Override
+                public void changed(String key, Object oldValue, Object newValue) {
+                    keysWalked.increment();
+                }
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void report() throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            if (subscribers > 0) {
+                System.out.printf("%n%d subscribers: %,d changes sent covering %,d writes (%.1f per change), %,d keys walked%n",
+                        subscribers, changes.sum(), writes.sum(), (double) writes.sum() / Math.max(1, changes.sum()),
+                        keysWalked.sum());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int count;
+
+        public int nextUpTo(int limit) {
+            return (count ++) % limit;
+        }
+    }
+
+    @Benchmark
+    public Object put(MapHolder holder, Counter counter) {
+        int index = counter.nextUpTo(holder.keys.length);
+        return holder.map.put(holder.keys[index], counter.count); // a new value, so every put writes
+    }
+}
@@ -0,0 +1,48 @@
+package com.logicalpractice.kindafasthash.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Indexes in {@code [0, n)} where index i comes up in proportion to {@code 1 / (i + 1)^theta},
+ * so a few indexes are very popular and most are rare, as with the keys asked of a real cache.
+ * Uses the method from Gray et al, "Quickly Generating Billion-Record Synthetic Databases", as YCSB
+ * does. Building one costs O(n), after that it is immutable and can be shared between threads.
+ */
+public class ZipfianGenerator {
+    private final int n;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+
+    /**
+     * @param theta how skewed the distribution is, YCSB's default is 0.99
+     */
+    public ZipfianGenerator(int n, double theta) {
+        this.n = n;
+        this.theta = theta;
+        this.zetan = zeta(n, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    public int nextInt() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetan;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,800 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A persistent sorted map, the ordered counterpart of {@link Hash}. Like a Hash it is
+ * immutable, {@link #with} and {@link #without} return a new tree sharing all but the path to
+ * the changed key, and it numbers its versions the same way.
+ * <p>
+ * Entries live in the leaves of a B+ tree, up to 32 to a leaf in two parallel arrays of keys
+ * and values, and each branch has up to 32 children. A lookup binary searches a handful of
+ * small arrays, a range scan reads the leaves' arrays in order, and an update copies O(log32 n)
+ * arrays. Each branch keeps the number of entries beneath it, so counting the entries in a range
+ * is O(log n) too.
+ * <p>
+ * Keys are ordered by their natural order or by the comparator the empty tree was created with,
+ * neither keys nor values may be null.
+ */
+public final class BTree<K, V> implements Iterable<Map.Entry<K, V>> {
+    private static final int MAX = 32; // entries in a leaf, children of a branch
+    private static final int MIN = MAX / 2; // below this a node other than the root is merged with a sibling
+
+    private static final Comparator<Object> NATURAL_ORDER = new Comparator<Object>() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public int compare(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+    };
+
+    private static final Leaf EMPTY_LEAF = new Leaf(new Object[0], new Object[0]);
+    private static final BTree<?, ?> EMPTY = new BTree<>(EMPTY_LEAF, 0, null, 0);
+
+    private final Object root; // a Leaf or a Branch
+    private final int size;
+    private final Comparator<? super K> comparator; // null for the natural order
+    private final Comparator<Object> order;
+    private final long version;
+
+    @SuppressWarnings("unchecked")
+    private BTree(Object root, int size, Comparator<? super K> comparator, long version) {
+        this.root = root;
+        this.size = size;
+        this.comparator = comparator;
+        this.order = comparator == null ? NATURAL_ORDER : (Comparator<Object>) comparator;
+        this.version = version;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> BTree<K, V> emptyTree() {
+        return (BTree<K, V>) EMPTY;
+    }
+
+    /**
+     * @return an empty tree that orders its keys with {@code comparator}, as do all the trees
+     *         derived from it. A null comparator means the keys' natural order.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> BTree<K, V> emptyTree(Comparator<? super K> comparator) {
+        return comparator == null ? (BTree<K, V>) EMPTY : new BTree<>(EMPTY_LEAF, 0, comparator, 0);
+    }
+
+    /**
+     * @return the comparator keys are ordered by, or null if it is their natural order
+     */
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * @return the order of the keys, never null
+     */
+    Comparator<Object> order() {
+        return order;
+    }
+
+    /**
+     * @return 0 for an empty tree, and for any other one more than the version of the tree it
+     *         was derived from, see {@link Hash#version()}
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return this tree, sharing its nodes, with {@code version} in place of its own
+     */
+    BTree<K, V> withVersion(long version) {
+        return version == this.version ? this : new BTree<>(root, size, comparator, version);
+    }
+
+    /**
+     * @return an empty tree with the same comparator and the next version
+     */
+    BTree<K, V> cleared() {
+        return new BTree<>(EMPTY_LEAF, 0, comparator, version + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        checkKey(key);
+        Object node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            node = branch.children[childIndex(branch, key)];
+        }
+        Leaf leaf = (Leaf) node;
+        int index = Arrays.binarySearch(leaf.keys, key, order);
+        return index >= 0 ? (V) leaf.values[index] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public BTree<K, V> with(K key, V value) {
+        if (value == null)
+            throw new NullPointerException("null values are not allowed");
+        V found = get(key);
+        if (found == value) {
+            return this; // nothing would change
+        }
+        Object newRoot = with(root, key, value, found == null ? 1 : 0);
+        if (newRoot instanceof Split) {
+            Split split = (Split) newRoot;
+            newRoot = branch(new Object[]{split.key}, new Object[]{split.left, split.right});
+        }
+        return new BTree<>(newRoot, found == null ? size + 1 : size, comparator, version + 1);
+    }
+
+    /**
+     * @param keys   distinct and in order, with no nulls
+     * @param values the values for {@code keys}, none of them null
+     * @return this tree with each of {@code keys} mapped to its value, copying each node the keys
+     *         land in once however many of them it takes, or this tree if nothing would change
+     */
+    BTree<K, V> withAll(Object[] keys, Object[] values) {
+        int[] changed = new int[1];
+        Object newRoot = keys.length == 0 ? root : withAll(root, keys, values, 0, keys.length, changed);
+        if (changed[0] == 0) {
+            return this;
+        }
+        while (newRoot instanceof Pieces) { // the tree gets taller, by more than one level for a big enough batch
+            Pieces pieces = (Pieces) newRoot;
+            newRoot = pack(pieces.separators, pieces.nodes);
+        }
+        return new BTree<>(newRoot, sizeOf(newRoot), comparator, version + 1);
+    }
+
+    public BTree<K, V> without(Object key) {
+        if (!containsKey(key)) {
+            return this; // remove is a noop if not present
+        }
+        Object newRoot = without(root, key);
+        if (newRoot instanceof Branch && ((Branch) newRoot).children.length == 1) {
+            newRoot = ((Branch) newRoot).children[0]; // the tree gets shorter
+        }
+        return new BTree<>(newRoot, size - 1, comparator, version + 1);
+    }
+
+    /**
+     * @return the entry with the least key, or null if the tree is empty
+     */
+    public Map.Entry<K, V> firstEntry() {
+        Cursor<K, V> cursor = new Cursor<>(this);
+        cursor.first();
+        return cursor.entry();
+    }
+
+    /**
+     * @return the entry with the greatest key, or null if the tree is empty
+     */
+    public Map.Entry<K, V> lastEntry() {
+        Cursor<K, V> cursor = new Cursor<>(this);
+        cursor.last();
+        return cursor.entry();
+    }
+
+    /** @return the entry with the least key greater than or equal to {@code key}, or null */
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return after(key, true);
+    }
+
+    /** @return the entry with the least key strictly greater than {@code key}, or null */
+    public Map.Entry<K, V> higherEntry(K key) {
+        return after(key, false);
+    }
+
+    /** @return the entry with the greatest key less than or equal to {@code key}, or null */
+    public Map.Entry<K, V> floorEntry(K key) {
+        return before(key, true);
+    }
+
+    /** @return the entry with the greatest key strictly less than {@code key}, or null */
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return before(key, false);
+    }
+
+    private Map.Entry<K, V> after(Object key, boolean inclusive) {
+        checkKey(key);
+        Cursor<K, V> cursor = new Cursor<>(this);
+        cursor.seek(key, inclusive);
+        return cursor.entry();
+    }
+
+    private Map.Entry<K, V> before(Object key, boolean inclusive) {
+        checkKey(key);
+        Cursor<K, V> cursor = new Cursor<>(this);
+        cursor.seekBefore(key, inclusive);
+        return cursor.entry();
+    }
+
+    /**
+     * @return the number of entries with keys between {@code from} and {@code to}, found in
+     *         O(log n) without visiting them. A null bound leaves that end of the range open.
+     */
+    public int count(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return countRange(from, fromInclusive, to, toInclusive);
+    }
+
+    private int countRange(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        int upTo = to == null ? size : rank(to, toInclusive);
+        int below = from == null ? 0 : rank(from, !fromInclusive);
+        return Math.max(0, upTo - below);
+    }
+
+    /**
+     * @return the number of entries with keys less than {@code key}, or equal to it too if
+     *         {@code inclusive}
+     */
+    private int rank(Object key, boolean inclusive) {
+        int rank = 0;
+        Object node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int index = childIndex(branch, key);
+            for (int i = 0; i < index; i++) {
+                rank += sizeOf(branch.children[i]);
+            }
+            node = branch.children[index];
+        }
+        int index = Arrays.binarySearch(((Leaf) node).keys, key, order);
+        return rank + (index >= 0 ? (inclusive ? index + 1 : index) : -index - 1);
+    }
+
+    /**
+     * Iterates over the entries in key order.
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return iterator(null, false, null, false, false);
+    }
+
+    /**
+     * @return an iterator over the entries with keys between {@code from} and {@code to}, in key
+     *         order. A null bound leaves that end of the range open. Finding the first entry is
+     *         O(log n), each one after it amortised O(1).
+     */
+    public Iterator<Map.Entry<K, V>> iterator(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return iterator(from, fromInclusive, to, toInclusive, false);
+    }
+
+    /**
+     * As {@link #iterator(Object, boolean, Object, boolean)}, from the greatest key down if
+     * {@code descending}.
+     */
+    Iterator<Map.Entry<K, V>> iterator(Object from, boolean fromInclusive, Object to, boolean toInclusive,
+                                       boolean descending) {
+        return new RangeIterator<>(this, from, fromInclusive, to, toInclusive, descending);
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void forEach(Object node, BiConsumer<? super K, ? super V> action) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.keys.length; i++) {
+                action.accept((K) leaf.keys[i], (V) leaf.values[i]);
+            }
+        } else {
+            for (Object child : ((Branch) node).children) {
+                forEach(child, action);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (result.length() > 1) result.append(", ");
+            result.append(key).append('=').append(value);
+        });
+        return result.append('}').toString();
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null)
+            throw new NullPointerException("null keys are not allowed");
+    }
+
+    private int childIndex(Branch branch, Object key) {
+        int index = Arrays.binarySearch(branch.keys, key, order);
+        return index >= 0 ? index + 1 : -index - 1; // a key equal to a separator is in the child to its right
+    }
+
+    private static int sizeOf(Object node) {
+        return node instanceof Leaf ? ((Leaf) node).keys.length : ((Branch) node).size;
+    }
+
+    private static int widthOf(Object node) {
+        return node instanceof Leaf ? ((Leaf) node).keys.length : ((Branch) node).children.length;
+    }
+
+    /**
+     * @param added 1 if {@code key} is new, 0 if it is replacing a value
+     * @return the new node, or a {@link Split} if it grew too wide
+     */
+    private Object with(Object node, Object key, Object value, int added) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = Arrays.binarySearch(leaf.keys, key, order);
+            if (index >= 0) {
+                Object[] values = leaf.values.clone();
+                values[index] = value;
+                return new Leaf(leaf.keys, values); // the keys are unchanged, so shared
+            }
+            index = -index - 1;
+            Object[] keys = insert(leaf.keys, index, key);
+            Object[] values = insert(leaf.values, index, value);
+            if (keys.length <= MAX) {
+                return new Leaf(keys, values);
+            }
+            int half = keys.length / 2;
+            return new Split(
+                    new Leaf(Arrays.copyOfRange(keys, 0, half), Arrays.copyOfRange(values, 0, half)),
+                    keys[half],
+                    new Leaf(Arrays.copyOfRange(keys, half, keys.length), Arrays.copyOfRange(values, half, values.length)));
+        }
+        Branch branch = (Branch) node;
+        int index = childIndex(branch, key);
+        Object child = with(branch.children[index], key, value, added);
+        if (!(child instanceof Split)) {
+            Object[] children = branch.children.clone();
+            children[index] = child;
+            return new Branch(branch.keys, children, branch.size + added);
+        }
+        Split split = (Split) child;
+        Object[] keys = insert(branch.keys, index, split.key);
+        Object[] children = insert(branch.children, index + 1, split.right);
+        children[index] = split.left;
+        if (children.length <= MAX) {
+            return new Branch(keys, children, branch.size + added);
+        }
+        return split(keys, children);
+    }
+
+    /**
+     * @param changed incremented for each key added or given a different value
+     * @return the new node, or {@link Pieces} if it grew too wide
+     */
+    private Object withAll(Object node, Object[] keys, Object[] values, int from, int to, int[] changed) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Object[] mergedKeys = new Object[leaf.keys.length + to - from];
+            Object[] mergedValues = new Object[mergedKeys.length];
+            int i = 0, j = from, n = 0;
+            while (i < leaf.keys.length || j < to) {
+                int c = i == leaf.keys.length ? 1 : j == to ? -1 : order.compare(leaf.keys[i], keys[j]);
+                if (c < 0) {
+                    mergedKeys[n] = leaf.keys[i];
+                    mergedValues[n++] = leaf.values[i++];
+                    continue;
+                }
+                if (c > 0 || leaf.values[i] != values[j]) {
+                    changed[0]++;
+                }
+                if (c == 0) {
+                    i++;
+                }
+                mergedKeys[n] = keys[j];
+                mergedValues[n++] = values[j++];
+            }
+            if (n <= MAX) {
+                return new Leaf(Arrays.copyOf(mergedKeys, n), Arrays.copyOf(mergedValues, n));
+            }
+            int[] bounds = bounds(n);
+            Object[] nodes = new Object[bounds.length - 1];
+            Object[] separators = new Object[nodes.length - 1];
+            for (int p = 0; p < nodes.length; p++) {
+                nodes[p] = new Leaf(Arrays.copyOfRange(mergedKeys, bounds[p], bounds[p + 1]),
+                        Arrays.copyOfRange(mergedValues, bounds[p], bounds[p + 1]));
+                if (p > 0) {
+                    separators[p - 1] = mergedKeys[bounds[p]];
+                }
+            }
+            return new Pieces(nodes, separators);
+        }
+        Branch branch = (Branch) node;
+        List<Object> children = new ArrayList<>(branch.children.length + 1);
+        List<Object> separators = new ArrayList<>(branch.keys.length + 1);
+        int start = from;
+        for (int c = 0; c < branch.children.length; c++) {
+            int end = to;
+            if (c < branch.keys.length) {
+                end = Arrays.binarySearch(keys, start, to, branch.keys[c], order);
+                end = end >= 0 ? end : -end - 1; // a key equal to the separator belongs to the next child
+            }
+            if (c > 0) {
+                separators.add(branch.keys[c - 1]);
+            }
+            Object child = start == end ? branch.children[c] : withAll(branch.children[c], keys, values, start, end, changed);
+            if (child instanceof Pieces) {
+                Pieces pieces = (Pieces) child;
+                children.add(pieces.nodes[0]);
+                for (int p = 1; p < pieces.nodes.length; p++) {
+                    separators.add(pieces.separators[p - 1]);
+                    children.add(pieces.nodes[p]);
+                }
+            } else {
+                children.add(child);
+            }
+            start = end;
+        }
+        return pack(separators.toArray(), children.toArray());
+    }
+
+    /**
+     * @return the children as one branch, or as {@link Pieces} of evenly sized branches if there
+     *         are too many of them for one
+     */
+    private static Object pack(Object[] keys, Object[] children) {
+        if (children.length <= MAX) {
+            return branch(keys, children);
+        }
+        int[] bounds = bounds(children.length);
+        Object[] nodes = new Object[bounds.length - 1];
+        Object[] separators = new Object[nodes.length - 1];
+        for (int p = 0; p < nodes.length; p++) {
+            nodes[p] = branch(Arrays.copyOfRange(keys, bounds[p], bounds[p + 1] - 1),
+                    Arrays.copyOfRange(children, bounds[p], bounds[p + 1]));
+            if (p > 0) {
+                separators[p - 1] = keys[bounds[p] - 1];
+            }
+        }
+        return new Pieces(nodes, separators);
+    }
+
+    /**
+     * @return where to divide {@code n} entries or children, more than {@link #MAX}, in to as
+     *         few nodes as will take them, each at least {@link #MIN} wide
+     */
+    private static int[] bounds(int n) {
+        int pieces = (n + MAX - 1) / MAX;
+        int[] bounds = new int[pieces + 1];
+        for (int p = 0; p <= pieces; p++) {
+            bounds[p] = (int) ((long) n * p / pieces);
+        }
+        return bounds;
+    }
+
+    /**
+     * @return {@code node} without {@code key}, which is under it, possibly with fewer than
+     *         {@link #MIN} entries or children
+     */
+    private Object without(Object node, Object key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = Arrays.binarySearch(leaf.keys, key, order);
+            return new Leaf(remove(leaf.keys, index), remove(leaf.values, index));
+        }
+        Branch branch = (Branch) node;
+        int index = childIndex(branch, key);
+        Object child = without(branch.children[index], key);
+        if (widthOf(child) >= MIN) {
+            Object[] children = branch.children.clone();
+            children[index] = child;
+            return new Branch(branch.keys, children, branch.size - 1);
+        }
+        // too narrow, so merge it with a sibling and split them again if that is too wide
+        int left = index > 0 ? index - 1 : index;
+        Object leftNode = left == index ? child : branch.children[left];
+        Object rightNode = left == index ? branch.children[index + 1] : child;
+        Object merged = merge(leftNode, branch.keys[left], rightNode);
+        if (merged instanceof Split) {
+            Split split = (Split) merged;
+            Object[] keys = branch.keys.clone();
+            keys[left] = split.key;
+            Object[] children = branch.children.clone();
+            children[left] = split.left;
+            children[left + 1] = split.right;
+            return new Branch(keys, children, branch.size - 1);
+        }
+        Object[] children = remove(branch.children, left + 1);
+        children[left] = merged;
+        return new Branch(remove(branch.keys, left), children, branch.size - 1);
+    }
+
+    /**
+     * @param separator the parent's key between the two nodes
+     * @return the two neighbouring nodes as one, or as a {@link Split} evenly dividing them if
+     *         that would be too wide
+     */
+    private static Object merge(Object left, Object separator, Object right) {
+        if (left instanceof Leaf) {
+            Object[] keys = concat(((Leaf) left).keys, ((Leaf) right).keys);
+            Object[] values = concat(((Leaf) left).values, ((Leaf) right).values);
+            if (keys.length <= MAX) {
+                return new Leaf(keys, values);
+            }
+            int half = keys.length / 2;
+            return new Split(
+                    new Leaf(Arrays.copyOfRange(keys, 0, half), Arrays.copyOfRange(values, 0, half)),
+                    keys[half],
+                    new Leaf(Arrays.copyOfRange(keys, half, keys.length), Arrays.copyOfRange(values, half, values.length)));
+        }
+        Object[] keys = concat(insert(((Branch) left).keys, ((Branch) left).keys.length, separator), ((Branch) right).keys);
+        Object[] children = concat(((Branch) left).children, ((Branch) right).children);
+        return children.length <= MAX ? branch(keys, children) : split(keys, children);
+    }
+
+    /**
+     * @return the children divided evenly in to two branches, the key between them moving up
+     */
+    private static Split split(Object[] keys, Object[] children) {
+        int half = children.length / 2;
+        return new Split(
+                branch(Arrays.copyOfRange(keys, 0, half - 1), Arrays.copyOfRange(children, 0, half)),
+                keys[half - 1],
+                branch(Arrays.copyOfRange(keys, half, keys.length), Arrays.copyOfRange(children, half, children.length)));
+    }
+
+    private static Branch branch(Object[] keys, Object[] children) {
+        int size = 0;
+        for (Object child : children) {
+            size += sizeOf(child);
+        }
+        return new Branch(keys, children, size);
+    }
+
+    private static Object[] insert(Object[] array, int index, Object element) {
+        Object[] result = new Object[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = element;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private static Object[] remove(Object[] array, int index) {
+        Object[] result = new Object[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    private static Object[] concat(Object[] left, Object[] right) {
+        Object[] result = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, result, left.length, right.length);
+        return result;
+    }
+
+    private static final class Leaf {
+        final Object[] keys;
+        final Object[] values;
+
+        Leaf(Object[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private static final class Branch {
+        final Object[] keys; // keys[i] is the least key under children[i + 1]
+        final Object[] children;
+        final int size; // of all the entries under this branch
+
+        Branch(Object[] keys, Object[] children, int size) {
+            this.keys = keys;
+            this.children = children;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A node that had to be divided in two, returned up to its parent to take in.
+     */
+    private static final class Split {
+        final Object left;
+        final Object key; // the least key under right
+        final Object right;
+
+        Split(Object left, Object key, Object right) {
+            this.left = left;
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    /**
+     * A node that had to be divided in to several by a bulk edit, returned up to its parent to
+     * take in.
+     */
+    private static final class Pieces {
+        final Object[] nodes;
+        final Object[] separators; // separators[i] is the least key under nodes[i + 1]
+
+        Pieces(Object[] nodes, Object[] separators) {
+            this.nodes = nodes;
+            this.separators = separators;
+        }
+    }
+
+    /**
+     * A position in the tree's leaves, kept as the path down to it so it can step to the
+     * neighbouring leaves without them linking to each other.
+     */
+    private static final class Cursor<K, V> {
+        private final BTree<K, V> tree;
+        private final Object[] path;
+        private final int[] indexes;
+        private final int leaf; // the depth of the leaves
+        private boolean valid;
+
+        Cursor(BTree<K, V> tree) {
+            this.tree = tree;
+            int height = 1;
+            for (Object node = tree.root; node instanceof Branch; node = ((Branch) node).children[0]) {
+                height++;
+            }
+            this.path = new Object[height];
+            this.indexes = new int[height];
+            this.leaf = height - 1;
+            this.path[0] = tree.root;
+        }
+
+        boolean isValid() {
+            return valid;
+        }
+
+        Object key() {
+            return ((Leaf) path[leaf]).keys[indexes[leaf]];
+        }
+
+        @SuppressWarnings("unchecked")
+        Map.Entry<K, V> entry() {
+            if (!valid) return null;
+            Leaf node = (Leaf) path[leaf];
+            int index = indexes[leaf];
+            return new AbstractMap.SimpleImmutableEntry<>((K) node.keys[index], (V) node.values[index]);
+        }
+
+        void first() {
+            descend(0, true);
+        }
+
+        void last() {
+            descend(0, false);
+        }
+
+        /**
+         * Moves to the least key greater than {@code key}, or equal to it if {@code inclusive}.
+         */
+        void seek(Object key, boolean inclusive) {
+            for (int depth = 0; depth < leaf; depth++) {
+                Branch branch = (Branch) path[depth];
+                indexes[depth] = tree.childIndex(branch, key);
+                path[depth + 1] = branch.children[indexes[depth]];
+            }
+            Leaf node = (Leaf) path[leaf];
+            int index = Arrays.binarySearch(node.keys, key, tree.order);
+            indexes[leaf] = index >= 0 ? (inclusive ? index : index + 1) : -index - 1;
+            valid = true;
+            if (indexes[leaf] == node.keys.length) {
+                nextLeaf();
+            }
+        }
+
+        /**
+         * Moves to the greatest key less than {@code key}, or equal to it if {@code inclusive}.
+         */
+        void seekBefore(Object key, boolean inclusive) {
+            seek(key, !inclusive);
+            if (valid) {
+                previous();
+            } else {
+                last();
+            }
+        }
+
+        void next() {
+            if (++indexes[leaf] == ((Leaf) path[leaf]).keys.length) {
+                nextLeaf();
+            }
+        }
+
+        void previous() {
+            if (--indexes[leaf] < 0) {
+                previousLeaf();
+            }
+        }
+
+        private void nextLeaf() {
+            for (int depth = leaf - 1; depth >= 0; depth--) {
+                if (indexes[depth] + 1 < ((Branch) path[depth]).children.length) {
+                    indexes[depth]++;
+                    path[depth + 1] = ((Branch) path[depth]).children[indexes[depth]];
+                    descend(depth + 1, true);
+                    return;
+                }
+            }
+            valid = false;
+        }
+
+        private void previousLeaf() {
+            for (int depth = leaf - 1; depth >= 0; depth--) {
+                if (indexes[depth] > 0) {
+                    indexes[depth]--;
+                    path[depth + 1] = ((Branch) path[depth]).children[indexes[depth]];
+                    descend(depth + 1, false);
+                    return;
+                }
+            }
+            valid = false;
+        }
+
+        /**
+         * Follows the leftmost or rightmost children down from {@code path[depth]}.
+         */
+        private void descend(int depth, boolean leftmost) {
+            for (; depth < leaf; depth++) {
+                Object[] children = ((Branch) path[depth]).children;
+                indexes[depth] = leftmost ? 0 : children.length - 1;
+                path[depth + 1] = children[indexes[depth]];
+            }
+            int length = ((Leaf) path[leaf]).keys.length;
+            indexes[leaf] = leftmost ? 0 : length - 1;
+            valid = length > 0; // only the root can be an empty leaf
+        }
+    }
+
+    /**
+     * Walks the leaves from the first entry in the range for as many entries as the range was
+     * counted to hold, so it never compares keys once it has started.
+     */
+    private static final class RangeIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Cursor<K, V> cursor;
+        private final boolean descending;
+        private int remaining;
+
+        RangeIterator(BTree<K, V> tree, Object from, boolean fromInclusive, Object to, boolean toInclusive,
+                      boolean descending) {
+            this.cursor = new Cursor<>(tree);
+            this.descending = descending;
+            this.remaining = tree.countRange(from, fromInclusive, to, toInclusive);
+            if (remaining == 0) {
+                return;
+            }
+            if (descending) {
+                if (to == null) cursor.last(); else cursor.seekBefore(to, toInclusive);
+            } else {
+                if (from == null) cursor.first(); else cursor.seek(from, fromInclusive);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (remaining == 0)
+                throw new NoSuchElementException();
+            Map.Entry<K, V> entry = cursor.entry();
+            if (--remaining > 0) {
+                if (descending) cursor.previous(); else cursor.next();
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.logicalpractice.kindafasthash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns keys or values in to bytes and back, for the off heap and serialised forms of a
+ * {@link Hash}. See {@link Codecs} for the common ones.
+ */
+public interface Codec<T> {
+
+    byte[] encode(T value);
+
+    /**
+     * Reads a value back from {@code length} bytes starting at {@code offset}. The buffer is
+     * shared by every reader, so only its absolute methods may be used, its position, limit and
+     * mark must be left alone.
+     */
+    T decode(ByteBuffer buffer, int offset, int length);
+}
@@ -0,0 +1,97 @@
+package com.logicalpractice.kindafasthash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@link Codec}s for the usual key and value types.
+ */
+public final class Codecs {
+
+    private Codecs() {
+    }
+
+    /**
+     * Strings as UTF-8.
+     */
+    public static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer, int offset, int length) {
+            return new String(copy(buffer, offset, length), StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Byte arrays as they are, each decode copies the bytes on to the heap.
+     */
+    public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer buffer, int offset, int length) {
+            return copy(buffer, offset, length);
+        }
+    };
+
+    /**
+     * The remaining bytes of a buffer. A decoded value is a read only view over the source
+     * buffer, so reading a value from a mapped file doesn't copy it. That makes it only suitable
+     * for {@link OffHeapHash}, {@link Hash#readFrom} reuses its buffer.
+     */
+    public static final Codec<ByteBuffer> BYTE_BUFFER = new Codec<ByteBuffer>() {
+        @Override
+        public byte[] encode(ByteBuffer value) {
+            byte[] bytes = new byte[value.remaining()];
+            value.duplicate().get(bytes);
+            return bytes;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer buffer, int offset, int length) {
+            ByteBuffer view = buffer.asReadOnlyBuffer();
+            view.position(offset);
+            view.limit(offset + length);
+            return view.slice();
+        }
+    };
+
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public byte[] encode(Long value) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer, int offset, int length) {
+            return buffer.getLong(offset);
+        }
+    };
+
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public byte[] encode(Integer value) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset, int length) {
+            return buffer.getInt(offset);
+        }
+    };
+
+    private static byte[] copy(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,539 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A cache with a size bound and expiry, for the read mostly lookups a {@link CopyOnWriteHashMap}
+ * is used for once they need evicting.
+ * <p>
+ * {@link #get} is a single volatile read of the current {@link Hash}, as it is for the map. The
+ * read is then recorded in one of several striped ring buffers rather than in shared policy
+ * state, a buffer that is full simply drops the record as the policy only needs a sample. The
+ * buffers are drained in batches by whichever thread next holds the policy lock, a reader only
+ * ever tries for it.
+ * <p>
+ * Writes are serialized by that lock. Each one applies its change, along with the evictions and
+ * expirations it brings about, to one builder and publishes the result once. Eviction follows
+ * W-TinyLFU: new entries go in to a small LRU window, about 1% of the maximum size, and the entry
+ * pushed out of the window only takes the place of the least recently used entry of the rest
+ * when a {@link FrequencySketch} of recent reads says its key is asked for more often. A run of
+ * keys that are never asked for again so can't flush the cache, while the window lets a new key
+ * build up a count before it has to compete.
+ * <p>
+ * Expired entries are never returned, they are removed by the next write or drain.
+ */
+public class CopyOnWriteCache<K, V> {
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private final AtomicReference<Hash<K, CacheEntry<V>>> reference = new AtomicReference<>(Hash.emptyHash());
+    private final long maximumSize;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier ticker;
+    private final ReadBuffer readBuffer = new ReadBuffer();
+
+    // the policy, guarded by the lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, CacheEntry<V>> window = new LinkedHashMap<>(16, 0.75f, true); // in access order
+    private final LinkedHashMap<K, CacheEntry<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, CacheEntry<V>> writeOrder; // null unless entries expire after write
+    private final FrequencySketch sketch; // null when unbounded
+    private final long windowSize;
+    private final long mainSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private CopyOnWriteCache(Builder<K, V> builder) {
+        this.maximumSize = builder.maximumSize;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.ticker = builder.ticker;
+        this.writeOrder = expireAfterWriteNanos == NEVER ? null : new LinkedHashMap<>();
+        this.sketch = maximumSize == UNBOUNDED ? null : new FrequencySketch(maximumSize);
+        this.windowSize = maximumSize == UNBOUNDED || maximumSize == 0 ? 0 : Math.max(1, maximumSize / 100);
+        this.mainSize = maximumSize - windowSize;
+    }
+
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>();
+    }
+
+    private static final class CacheEntry<V> {
+        final V value;
+        final long writeTime;
+        volatile long accessTime;
+
+        CacheEntry(V value, long now) {
+            this.value = value;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+    }
+
+    /**
+     * @return the value for {@code key}, or null if there is none or it has expired
+     */
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        CacheEntry<V> entry = reference.get().get(key);
+        if (entry != null) {
+            long now = now();
+            if (!isExpired(entry, now)) {
+                if (expireAfterAccessNanos != NEVER) {
+                    entry.accessTime = now;
+                }
+                hits.increment();
+                recordRead(key);
+                return entry.value;
+            }
+        }
+        misses.increment();
+        recordRead(key); // a miss counts towards the key's frequency too
+        return null;
+    }
+
+    /**
+     * @return the value for {@code key}, loading it with {@code loader} when absent. Concurrent
+     *         callers may each load the value, the first to finish is the one cached.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        V loaded = loader.apply(key);
+        if (loaded == null) {
+            return null;
+        }
+        V raced = put(key, loaded, true);
+        return raced != null ? raced : loaded;
+    }
+
+    /**
+     * @return the previous value, or null. A new entry starts out in the window, once pushed out
+     *         of it the entry is only kept if its key has been read more often than the entry it
+     *         would replace. Puts don't count as reads.
+     */
+    public V put(K key, V value) {
+        return put(key, value, false);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
+    }
+
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        if (key == null)
+            throw new NullPointerException("null keys are not allowed");
+        if (value == null)
+            throw new NullPointerException("null values are not allowed");
+        lock.lock();
+        try {
+            long now = now();
+            readBuffer.drain(read -> onRead(read, now)); // so the victim is chosen on the latest reads
+            Hash.Builder<K, CacheEntry<V>> builder = reference.get().toBuilder();
+            CacheEntry<V> previous = builder.get(key);
+            if (previous != null && isExpired(previous, now)) {
+                previous = null;
+            }
+            if (previous != null && onlyIfAbsent) {
+                return previous.value;
+            }
+            CacheEntry<V> entry = new CacheEntry<>(value, now);
+            builder.put(key, entry);
+            if (main.containsKey(key)) {
+                main.put(key, entry);
+            } else {
+                window.put(key, entry);
+            }
+            if (writeOrder != null) {
+                writeOrder.remove(key); // to the back
+                writeOrder.put(key, entry);
+            }
+            expire(builder, now);
+            evict(builder);
+            reference.set(builder.build());
+            return previous == null ? null : previous.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the value removed, or null if there was none or it had expired
+     */
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Hash<K, CacheEntry<V>> current = reference.get();
+            CacheEntry<V> removed = current.get(key);
+            if (removed == null) {
+                return null;
+            }
+            reference.set(current.without(key));
+            forget(key);
+            return isExpired(removed, now()) ? null : removed.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            readBuffer.drain(key -> {});
+            reference.set(Hash.emptyHash());
+            window.clear();
+            main.clear();
+            if (writeOrder != null) {
+                writeOrder.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drains the read buffers and removes expired entries now, rather than on the next write.
+     */
+    public void cleanUp() {
+        lock.lock();
+        try {
+            maintain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries, including any that have expired but not yet been removed
+     */
+    public int size() {
+        return reference.get().size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private long now() {
+        return expireAfterWriteNanos == NEVER && expireAfterAccessNanos == NEVER ? 0 : ticker.getAsLong();
+    }
+
+    private boolean isExpired(CacheEntry<V> entry, long now) {
+        return now - entry.writeTime >= expireAfterWriteNanos || now - entry.accessTime >= expireAfterAccessNanos;
+    }
+
+    private void recordRead(Object key) {
+        if (sketch == null && expireAfterAccessNanos == NEVER) {
+            return; // there's no policy that cares about reads
+        }
+        if (readBuffer.offer(key) && lock.tryLock()) {
+            try {
+                maintain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void maintain() {
+        long now = now();
+        readBuffer.drain(key -> onRead(key, now));
+        Hash<K, CacheEntry<V>> current = reference.get();
+        Hash.Builder<K, CacheEntry<V>> builder = current.toBuilder();
+        expire(builder, now);
+        Hash<K, CacheEntry<V>> updated = builder.build();
+        if (updated != current) {
+            reference.set(updated);
+        }
+    }
+
+    private void onRead(Object key, long now) {
+        if (sketch != null) {
+            sketch.increment(Hash.hash(key));
+        }
+        CacheEntry<V> entry = reference.get().get(key);
+        if (entry != null && !isExpired(entry, now) && window.get(key) == null) {
+            main.get(key); // moves it to the back
+        }
+    }
+
+    private void forget(Object key) {
+        if (window.remove(key) == null) {
+            main.remove(key);
+        }
+        if (writeOrder != null) {
+            writeOrder.remove(key);
+        }
+    }
+
+    private void expire(Hash.Builder<K, CacheEntry<V>> builder, long now) {
+        if (expireAfterAccessNanos != NEVER) {
+            // in the order the reads were drained, an undrained read may leave an entry to the next time
+            removeExpired(window, builder, now);
+            removeExpired(main, builder, now);
+        }
+        if (writeOrder != null) {
+            removeExpired(writeOrder, builder, now);
+        }
+    }
+
+    private void removeExpired(Map<K, CacheEntry<V>> ordered, Hash.Builder<K, CacheEntry<V>> builder, long now) {
+        Iterator<Map.Entry<K, CacheEntry<V>>> i = ordered.entrySet().iterator();
+        List<K> expired = new ArrayList<>();
+        while (i.hasNext()) {
+            Map.Entry<K, CacheEntry<V>> oldest = i.next();
+            if (!isExpired(oldest.getValue(), now)) {
+                break;
+            }
+            expired.add(oldest.getKey());
+        }
+        for (K key : expired) {
+            forget(key);
+            builder.remove(key);
+        }
+    }
+
+    /**
+     * Moves the entries pushed out of the window in to the main space, each one either taking the
+     * place of the main space's least recently used entry or being evicted itself.
+     */
+    private void evict(Hash.Builder<K, CacheEntry<V>> builder) {
+        while (window.size() > windowSize) {
+            Iterator<Map.Entry<K, CacheEntry<V>>> oldest = window.entrySet().iterator();
+            Map.Entry<K, CacheEntry<V>> candidate = oldest.next();
+            oldest.remove();
+            if (main.size() < mainSize) {
+                main.put(candidate.getKey(), candidate.getValue());
+                continue;
+            }
+            K evicted = candidate.getKey();
+            if (!main.isEmpty()) {
+                K victim = main.keySet().iterator().next();
+                if (sketch.frequency(Hash.hash(evicted)) > sketch.frequency(Hash.hash(victim))) {
+                    main.remove(victim);
+                    main.put(evicted, candidate.getValue());
+                    evicted = victim;
+                }
+            }
+            if (writeOrder != null) {
+                writeOrder.remove(evicted);
+            }
+            builder.remove(evicted);
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Ring buffers of recent reads, striped by thread so readers seldom meet. A read claims a
+     * slot with a compare and set of its stripe's write count, a stripe that is full or a lost
+     * race drops the read. Only the thread holding the cache's lock drains.
+     */
+    static final class ReadBuffer {
+        static final int STRIPE_SIZE = 16;
+        private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+        private static final int DRAIN_THRESHOLD = STRIPE_SIZE / 2;
+
+        private final Stripe[] stripes;
+
+        ReadBuffer() {
+            int count = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+            stripes = new Stripe[Math.max(count, 1)];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        /**
+         * @return true once the stripe is full enough to be worth draining
+         */
+        boolean offer(Object key) {
+            long id = Thread.currentThread().getId();
+            Stripe stripe = stripes[(int) (id * 0x9E3779B97F4A7C15L >>> 40) & (stripes.length - 1)];
+            return stripe.offer(key);
+        }
+
+        void drain(Consumer<Object> consumer) {
+            for (Stripe stripe : stripes) {
+                stripe.drain(consumer);
+            }
+        }
+
+        private static final class Stripe {
+            final AtomicReferenceArray<Object> buffer = new AtomicReferenceArray<>(STRIPE_SIZE);
+            final AtomicLong writes = new AtomicLong();
+            volatile long reads;
+
+            boolean offer(Object key) {
+                long tail = writes.get();
+                long size = tail - reads;
+                if (size >= STRIPE_SIZE) {
+                    return true;
+                }
+                if (writes.compareAndSet(tail, tail + 1)) {
+                    buffer.lazySet((int) tail & STRIPE_MASK, key);
+                    return size + 1 >= DRAIN_THRESHOLD;
+                }
+                return false;
+            }
+
+            void drain(Consumer<Object> consumer) {
+                long head = reads;
+                long tail = writes.get();
+                for (; head < tail; head++) {
+                    int index = (int) head & STRIPE_MASK;
+                    Object key = buffer.get(index);
+                    if (key == null) {
+                        break; // claimed but not written yet, it'll be there next time
+                    }
+                    buffer.lazySet(index, null);
+                    consumer.accept(key);
+                }
+                reads = head;
+            }
+        }
+    }
+
+    /**
+     * A count-min sketch estimating how often each key has been seen, as the least of four 4 bit
+     * counters packed sixteen to a long. Once there have been ten increments for each entry the
+     * cache may hold every counter is halved, so that the estimates favour recent history.
+     * Not thread safe, the cache only uses it under its lock.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long HALF_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long maximumSize) {
+            int size = (int) Math.min(Math.max(maximumSize, 16), 1 << 26);
+            table = new long[Integer.highestOneBit(size - 1) << 1];
+            sampleSize = 10 * size;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int spread = spread(hash, i);
+                int index = (spread >>> 4) & (table.length - 1);
+                int offset = (spread & 15) << 2;
+                if (((table[index] >>> offset) & 15) != 15) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                halve();
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int spread = spread(hash, i);
+                int index = (spread >>> 4) & (table.length - 1);
+                int offset = (spread & 15) << 2;
+                frequency = Math.min(frequency, (int) (table[index] >>> offset) & 15);
+            }
+            return frequency;
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & HALF_MASK;
+            }
+            additions >>>= 1;
+        }
+
+        private static int spread(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    public static final class Builder<K, V> {
+        private long maximumSize = UNBOUNDED;
+        private long expireAfterWriteNanos = NEVER;
+        private long expireAfterAccessNanos = NEVER;
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder() {
+        }
+
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 0)
+                throw new IllegalArgumentException("maximumSize can't be negative, was " + maximumSize);
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Entries expire once {@code duration} has passed since they were put.
+         */
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            this.expireAfterWriteNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * Entries expire once {@code duration} has passed since they were put or last read.
+         */
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            this.expireAfterAccessNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * @param ticker the current time in nanoseconds, {@link System#nanoTime()} by default
+         */
+        public Builder<K, V> ticker(LongSupplier ticker) {
+            this.ticker = Objects.requireNonNull(ticker);
+            return this;
+        }
+
+        public CopyOnWriteCache<K, V> build() {
+            return new CopyOnWriteCache<>(this);
+        }
+
+        private static long toNanos(long duration, TimeUnit unit) {
+            if (duration < 0)
+                throw new IllegalArgumentException("duration can't be negative, was " + duration);
+            return unit.toNanos(duration);
+        }
+    }
+}
@@ -1,35 +1,363 @@
 package com.logicalpractice.kindafasthash;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
-import java.util.ConcurrentModificationException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- *
+ * A thread safe {@link ConcurrentMap} that publishes a new persistent {@link Hash} on every
+ * change.
+ * <p>
+ * Reads are a single volatile read of the current Hash. Each write, including the compound
+ * {@code putIfAbsent}, {@code replace}, {@code compute} and {@code merge} operations, reads the
+ * current Hash, derives the new one and publishes it with one compare and set, retrying from the
+ * start if another writer got there first. A write that would not change the map doesn't publish
+ * anything. Functions passed to the compound operations may be applied more than once when
+ * writers contend, so they should be free of side effects.
+ * <p>
+ * Rather than polling the map, a component can {@link #subscribe} to the changes made to it.
  */
-public class CopyOnWriteHashMap<K,V> extends AbstractMap<K,V> {
+public class CopyOnWriteHashMap<K,V> extends AbstractMap<K,V> implements ConcurrentMap<K,V> {
+
+    /**
+     * How the snapshots a map publishes are laid out for readers.
+     */
+    public enum SnapshotLayout {
+        /** lookups walk the Hash's trie, the default */
+        TRIE,
+        /**
+         * every published snapshot is {@link Hash#compact() compacted} first, making lookups a
+         * probe of a flat array at the cost of an O(n) copy on each write
+         */
+        COMPACT
+    }
+
+    /**
+     * How {@code put} and {@code remove} publish their changes. The other writes always use
+     * their own compare and set loop.
+     */
+    public enum WriteMode {
+        /** each write derives its own Hash and retries from the start when it loses the race, the default */
+        CAS,
+        /**
+         * writes are queued and whichever writer gets the combiner's lock applies everything
+         * queued so far to one builder and publishes them with a single compare and set, so under
+         * contention a Hash is rebuilt once per batch rather than once per attempt per writer
+         */
+        COMBINING,
+        /**
+         * starts out as {@code CAS} and moves to combining while writes keep having to retry,
+         * then back once the batches it combines are down to single writes again
+         */
+        ADAPTIVE
+    }
 
-    private final AtomicReference<Hash<K,V>> reference = new AtomicReference<>(Hash.<K,V>emptyHash());
+    private final AtomicReference<Hash<K,V>> reference;
+    private final Hash<K,V> empty;
+    private final SnapshotLayout layout;
+    private final MapStatsRecorder recorder; // null when stats are off
+    private final WriteMode writeMode;
+    private final WriteCombiner combiner; // null in CAS mode
+    private final AtomicReference<ChangeSubscription<K, V>[]> subscriptions = new AtomicReference<>(noSubscriptions());
+    private EntrySetView entrySet; // created on first use, it holds no state of its own
+
+    public CopyOnWriteHashMap() {
+        this(SnapshotLayout.TRIE);
+    }
+
+    public CopyOnWriteHashMap(SnapshotLayout layout) {
+        this(layout, HashingStrategies.DEFAULT);
+    }
+
+    /**
+     * @param strategy how keys are hashed and compared, in place of their own {@code hashCode}
+     *                 and {@code equals}
+     */
+    public CopyOnWriteHashMap(HashingStrategy<? super K> strategy) {
+        this(SnapshotLayout.TRIE, strategy);
+    }
+
+    public CopyOnWriteHashMap(SnapshotLayout layout, HashingStrategy<? super K> strategy) {
+        this(layout, strategy, null);
+    }
+
+    /**
+     * @param recorder receives an event for each CAS retry, write and compaction, see
+     *                 {@link #stats()}. When null, as with the other constructors, nothing is
+     *                 recorded and writes don't pay for the recording.
+     */
+    public CopyOnWriteHashMap(SnapshotLayout layout, HashingStrategy<? super K> strategy, MapStatsRecorder recorder) {
+        this(layout, strategy, recorder, WriteMode.CAS);
+    }
+
+    /**
+     * @param recorder  see {@link #CopyOnWriteHashMap(SnapshotLayout, HashingStrategy, MapStatsRecorder)}, may be null
+     * @param writeMode how {@code put} and {@code remove} publish, see {@link WriteMode}
+     */
+    public CopyOnWriteHashMap(SnapshotLayout layout, HashingStrategy<? super K> strategy, MapStatsRecorder recorder,
+                              WriteMode writeMode) {
+        this.layout = Objects.requireNonNull(layout);
+        this.empty = Hash.emptyHash(strategy);
+        this.reference = new AtomicReference<>(empty);
+        this.recorder = recorder;
+        this.writeMode = Objects.requireNonNull(writeMode);
+        this.combiner = writeMode == WriteMode.CAS ? null : new WriteCombiner();
+    }
+
+    /**
+     * Publishes {@code updated} as the version after {@code expected}, if {@code expected} is
+     * still current.
+     */
+    private boolean publish(Hash<K,V> expected, Hash<K,V> updated) {
+        updated = updated.withVersion(expected.version() + 1); // already so unless it came from elsewhere
+        boolean published = recorder != null
+                ? publishRecorded(expected, updated)
+                : reference.compareAndSet(expected, laidOut(updated));
+        if (combiner != null) {
+            combiner.published(published);
+        }
+        if (published) {
+            published(expected, updated);
+        }
+        return published;
+    }
+
+    /**
+     * Called by the writer after each snapshot it publishes, {@code current} being the one
+     * straight after {@code previous}. Calls for different writers may overlap or arrive out of
+     * version order.
+     */
+    void published(Hash<K,V> previous, Hash<K,V> current) {
+        for (ChangeSubscription<K, V> subscription : subscriptions.get()) {
+            subscription.signal();
+        }
+    }
+
+    /**
+     * Installs {@code hash}, version and all, as the map's contents without publishing it. Only
+     * for use before the map is shared.
+     */
+    void initialise(Hash<K,V> hash) {
+        if (hash.hashingStrategy() != empty.hashingStrategy()) {
+            throw new IllegalArgumentException("the Hash hashes keys with " + hash.hashingStrategy()
+                    + ", the map with " + empty.hashingStrategy());
+        }
+        reference.set(hash);
+    }
+
+    private boolean publishRecorded(Hash<K,V> expected, Hash<K,V> updated) {
+        if (layout == SnapshotLayout.COMPACT) {
+            long start = System.nanoTime();
+            updated = updated.compact();
+            recorder.recordCompaction(System.nanoTime() - start);
+        }
+        if (!reference.compareAndSet(expected, updated)) {
+            recorder.recordCasRetry();
+            return false;
+        }
+        recorder.recordWrite(Hash.bytesCopied(expected, updated));
+        return true;
+    }
+
+    /**
+     * @return the counts from the map's {@link MapStatsRecorder}, all zero when it has none,
+     *         along with the shape of the current snapshot. Finding the shape walks the whole
+     *         trie.
+     */
+    public MapStats stats() {
+        return reference.get().shape(recorder == null ? MapStats.NONE : recorder.snapshot());
+    }
+
+    private Hash<K,V> laidOut(Hash<K,V> hash) {
+        return layout == SnapshotLayout.COMPACT ? hash.compact() : hash;
+    }
+
+    /**
+     * @return the current contents in O(1), as an immutable Hash that later changes to the map
+     *         don't affect. Reading several keys from one snapshot gives a consistent view of
+     *         them without copying the map. Its {@link Hash#version() version} is one more than
+     *         that of the snapshot it replaced.
+     */
+    public Hash<K, V> snapshot() {
+        return reference.get();
+    }
+
+    /**
+     * Publishes {@code newHash} if the map's current snapshot is still {@code expected}, which
+     * should be a Hash returned by {@link #snapshot()}. A reader-writer can take a snapshot, read
+     * what it needs, derive {@code newHash} from it and retry the lot if this returns false,
+     * making an optimistic transaction over any number of keys without a lock.
+     *
+     * @throws IllegalArgumentException if {@code newHash} hashes its keys with a different
+     *         strategy to the map
+     */
+    public boolean compareAndSetSnapshot(Hash<K, V> expected, Hash<K, V> newHash) {
+        if (newHash.hashingStrategy() != empty.hashingStrategy()) {
+            throw new IllegalArgumentException("the snapshot hashes keys with " + newHash.hashingStrategy()
+                    + ", the map with " + empty.hashingStrategy());
+        }
+        if (reference.get() != expected) {
+            return false;
+        }
+        return newHash == expected || publish(expected, newHash);
+    }
+
+    /**
+     * Sends the changes made to the map from now on to {@code subscriber}, on {@code executor}.
+     * <p>
+     * Writers never wait for a subscriber, they only note that there is something new for it
+     * and, if it isn't already being sent something, hand it to the executor. Each change sent
+     * covers everything from the snapshot the subscriber was last sent to the current one, see
+     * {@link MapChange}, so a subscriber that is slow or hasn't requested any more is sent fewer,
+     * larger changes rather than having them queue up. Until it catches up it holds on to the
+     * last snapshot it was sent, which shares all that hasn't changed since with the map.
+     * <p>
+     * {@link MapChange.Subscriber#onSubscribe} is called first, on the executor. Should the
+     * executor reject a task the subscription is cancelled.
+     */
+    public MapChange.Subscription subscribe(Executor executor, MapChange.Subscriber<K, V> subscriber) {
+        ChangeSubscription<K, V> subscription = new ChangeSubscription<>(this,
+                Objects.requireNonNull(executor), Objects.requireNonNull(subscriber));
+        ChangeSubscription<K, V>[] current, updated;
+        do {
+            current = subscriptions.get();
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+        } while ( ! subscriptions.compareAndSet(current, updated));
+        subscription.signal();
+        return subscription;
+    }
+
+    /**
+     * As {@link #subscribe}, for a listener that takes every change as soon as it can. Changes
+     * made while the listener is running are still coalesced in to the next one it is passed.
+     */
+    public MapChange.Subscription listen(Executor executor, Consumer<? super MapChange<K, V>> listener) {
+        Objects.requireNonNull(listener);
+        return subscribe(executor, new MapChange.Subscriber<K, V>() {
+            @Override
+            public void onSubscribe(MapChange.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(MapChange<K, V> change) {
+                listener.accept(change);
+            }
+        });
+    }
+
+    private void unsubscribe(ChangeSubscription<K, V> subscription) {
+        ChangeSubscription<K, V>[] current, updated;
+        do {
+            current = subscriptions.get();
+            int index = Arrays.asList(current).indexOf(subscription);
+            if (index < 0)
+                return;
+            updated = Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        } while ( ! subscriptions.compareAndSet(current, updated));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> ChangeSubscription<K, V>[] noSubscriptions() {
+        return (ChangeSubscription<K, V>[]) new ChangeSubscription<?, ?>[0];
+    }
 
     @Override
     public Set<Entry<K, V>> entrySet() {
-        return new HashEntrySetView(reference.get());
+        EntrySetView view = entrySet;
+        if (view == null) {
+            entrySet = view = new EntrySetView();
+        }
+        return view;
     }
 
     @Override
     public V put(K key, V value) {
-
+        check(key, value);
+        if (combiner != null && combiner.combining) {
+            return combiner.apply(key, value);
+        }
         Hash<K, V> current;
+        V previous;
         do {
             current = reference.get();
-        } while ( ! reference.compareAndSet(current, current.with(key, value)));
+            previous = current.get(key);
+            if (previous == value)
+                return previous; // nothing would change
+        } while ( ! publish(current, current.with(key, value)));
+        return previous;
+    }
 
-        return current.get(key); // will be the old reference
+    /**
+     * Copies all of the mappings from {@code map} in to this map. The new entries are published
+     * together, readers either see all of them or none of them.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (map.isEmpty()) return;
+        update(builder -> builder.putAll(map));
+    }
+
+    /**
+     * Removes the mappings for all of {@code keys}, the removals are published together.
+     *
+     * @return true if the map changed as a result
+     */
+    public boolean removeAll(Collection<?> keys) {
+        Hash<K, V> current, updated;
+        do {
+            current = reference.get();
+            updated = current.toBuilder().removeAll(keys).build();
+            if (updated == current)
+                return false;
+        } while ( ! publish(current, updated));
+        return true;
+    }
+
+    /**
+     * Applies {@code mutation} to a builder holding the current contents of the map and publishes
+     * the result with a single compare and set. If another thread changes the map first the
+     * mutation is applied again to a fresh builder, so it should be free of side effects.
+     */
+    public void update(Consumer<? super Hash.Builder<K, V>> mutation) {
+        Hash<K, V> current, updated;
+        do {
+            current = reference.get();
+            Hash.Builder<K, V> builder = current.toBuilder();
+            mutation.accept(builder);
+            updated = builder.build();
+        } while (updated != current && ! publish(current, updated));
     }
 
     @Override
@@ -50,18 +378,159 @@ public class CopyOnWriteHashMap<K,V> extends AbstractMap<K,V> {
 
     @Override
     public V remove(Object key) {
-        if (key == null) return null; //
+        if (key == null) return null;
+        if (combiner != null && combiner.combining) {
+            return combiner.apply(key, null);
+        }
         Hash<K, V> current;
+        V previous;
         do {
             current = reference.get();
-        } while ( ! reference.compareAndSet(current, current.without(key)));
+            previous = current.get(key);
+            if (previous == null)
+                return null;
+        } while ( ! publish(current, current.without(key)));
+        return previous;
+    }
 
-        return current.get(key);
+    @Override
+    public int size() {
+        return reference.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return reference.get().isEmpty();
     }
 
     /**
-     * @see java.util.concurrent.ConcurrentMap#remove(Object, Object)
+     * Performs {@code action} for each entry of the current snapshot, walking its trie directly.
      */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        reference.get().forEach(action);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        check(key, value);
+        Hash<K, V> current;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing != null)
+                return existing;
+        } while ( ! publish(current, current.with(key, value)));
+        return null;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        check(key, value);
+        Hash<K, V> current;
+        V existing;
+        do {
+            current = reference.get();
+            existing = current.get(key);
+            if (existing == null)
+                return null;
+        } while ( ! publish(current, current.with(key, value)));
+        return existing;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        check(key, oldValue);
+        checkValue(newValue);
+        Hash<K, V> current;
+        do {
+            current = reference.get();
+            if (!oldValue.equals(current.get(key)))
+                return false;
+        } while ( ! publish(current, current.with(key, newValue)));
+        return true;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        checkKey(key);
+        Objects.requireNonNull(mappingFunction);
+        Hash<K, V> current;
+        V value;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing != null)
+                return existing;
+            value = mappingFunction.apply(key);
+            if (value == null)
+                return null;
+        } while ( ! publish(current, current.with(key, value)));
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkKey(key);
+        Objects.requireNonNull(remappingFunction);
+        Hash<K, V> current, updated;
+        V value;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing == null)
+                return null;
+            value = remappingFunction.apply(key, existing);
+            updated = value == null ? current.without(key) : current.with(key, value);
+        } while (updated != current && ! publish(current, updated));
+        return value;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkKey(key);
+        Objects.requireNonNull(remappingFunction);
+        Hash<K, V> current, updated;
+        V value;
+        do {
+            current = reference.get();
+            value = remappingFunction.apply(key, current.get(key));
+            updated = value == null ? current.without(key) : current.with(key, value);
+        } while (updated != current && ! publish(current, updated));
+        return value;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        check(key, value);
+        Objects.requireNonNull(remappingFunction);
+        Hash<K, V> current, updated;
+        V newValue;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            newValue = existing == null ? value : remappingFunction.apply(existing, value);
+            updated = newValue == null ? current.without(key) : current.with(key, newValue);
+        } while (updated != current && ! publish(current, updated));
+        return newValue;
+    }
+
+    /**
+     * Replaces every value in one step, the new values are published together.
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        update(builder -> {
+            for (Entry<K, V> entry : builder.build()) {
+                V value = function.apply(entry.getKey(), entry.getValue());
+                checkValue(value);
+                builder.put(entry.getKey(), value);
+            }
+        });
+    }
+
+    @Override
     public boolean remove(Object key, Object value) {
         Hash<K, V> current;
         check(key, value);
@@ -70,10 +539,63 @@ public class CopyOnWriteHashMap<K,V> extends AbstractMap<K,V> {
             Object mapValue = current.get(key);
             if (!Objects.equals(value, mapValue))
                 return false;
-        } while ( ! reference.compareAndSet(current, current.without(key)));
+        } while ( ! publish(current, current.without(key)));
         return true; //only gets here if a removal has happened
     }
 
+    /**
+     * Performs {@code action} for each entry of the current snapshot, see
+     * {@link Hash#forEach(long, BiConsumer)}. Changes made while it runs are not seen.
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        reference.get().forEach(parallelismThreshold, action);
+    }
+
+    /**
+     * @see Hash#reduce(long, BiFunction, BiFunction)
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return reference.get().reduce(parallelismThreshold, transformer, reducer);
+    }
+
+    /**
+     * @see Hash#search(long, BiFunction)
+     */
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        return reference.get().search(parallelismThreshold, searchFunction);
+    }
+
+    /**
+     * Writes the map's current contents to {@code path} with {@link Hash#writeTo}. The snapshot
+     * being written is immutable, so writers carry on publishing changes while it is saved and
+     * none of them are included. The file is written alongside and moved in to place when
+     * complete.
+     */
+    public void snapshotTo(Path path, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        Hash<K, V> snapshot = reference.get();
+        Path written = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(written, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            snapshot.writeTo(channel, keyCodec, valueCodec);
+            channel.force(false);
+        }
+        Files.move(written, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * Replaces the contents of the map with a snapshot written by {@link #snapshotTo}.
+     */
+    public void restoreFrom(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            Hash<K, V> restored = HashFormat.read(channel, keyCodec, valueCodec, empty.toBuilder());
+            Hash<K, V> current;
+            do {
+                current = reference.get();
+            } while ( ! publish(current, restored));
+        }
+    }
+
     private void check(Object key, Object value) {
         checkKey(key);
         checkValue(value);
@@ -94,72 +616,317 @@ public class CopyOnWriteHashMap<K,V> extends AbstractMap<K,V> {
 
     @Override
     public void clear() {
-        reference.set(Hash.<K,V>emptyHash());
+        Hash<K, V> current;
+        do {
+            current = reference.get();
+            if (current.isEmpty())
+                return;
+        } while ( ! publish(current, empty));
     }
 
-    private class HashEntrySetView extends AbstractSet<Entry<K, V>> {
-        private Hash<K,V> hash;
+    /**
+     * A live view, each iterator walks the snapshot that was current when it was created.
+     * Removing through the view or its iterators removes the mapping from the map if it is
+     * still present.
+     */
+    private final class EntrySetView extends AbstractSet<Entry<K, V>> {
 
-        private HashEntrySetView(Hash<K, V> hash) {
-            this.hash = hash;
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntrySetIterator(reference.get());
         }
 
         @Override
-        public Iterator<Entry<K, V>> iterator() {
-            return new Iterator<Entry<K, V>>() {
-                private Iterator<Entry<K,V>> delegate = hash.iterator();
-                private Entry<K,V> last;
+        public int size() {
+            return CopyOnWriteHashMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            Object value = entry.getKey() == null ? null : get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return entry.getKey() != null && entry.getValue() != null
+                    && CopyOnWriteHashMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            CopyOnWriteHashMap.this.clear();
+        }
 
-                @Override
-                public boolean hasNext() {
-                    return delegate.hasNext();
+        @Override
+        public Spliterator<Entry<K, V>> spliterator() {
+            return reference.get().spliterator();
+        }
+    }
+
+    /**
+     * Flat combining for {@code put} and {@code remove}. A writer pushes its write on to a lock
+     * free stack then, until the write is done, either takes the lock and combines or waits,
+     * yielding a few times before it parks. The combiner takes the whole stack, applies the writes oldest first to one builder and
+     * publishes the result, working out again from a fresh snapshot if a write outside the
+     * combiner got in first. Each write's previous value is the one it would have seen had the
+     * writes been made one at a time in that order. If publishing throws, say from
+     * {@link #published}, every write in the batch is failed with the exception rather than left
+     * waiting.
+     * <p>
+     * While a combiner runs every other writer waits for it, so a combiner that is descheduled
+     * holds them all up, which the plain compare and set loop never does. That is the price of
+     * not rebuilding the Hash once per writer.
+     */
+    private final class WriteCombiner {
+        private static final int SWITCH_TO_COMBINING = 64;
+        private static final int RETRY_WEIGHT = 8; // so one retry outweighs several clean writes
+        private static final int SPINS = 16; // yields before a waiting writer parks
+
+        private final AtomicReference<Write<K, V>> pending = new AtomicReference<>();
+        private final AtomicBoolean lock = new AtomicBoolean();
+        volatile boolean combining = writeMode == WriteMode.COMBINING;
+        private int contention; // updated racily, it only steers the ADAPTIVE switch
+
+        /**
+         * @param value the value to put, or null to remove
+         * @return the previous value
+         */
+        V apply(Object key, V value) {
+            Write<K, V> write = new Write<>(key, value);
+            Write<K, V> head;
+            do {
+                head = pending.get();
+                write.next = head;
+            } while ( ! pending.compareAndSet(head, write));
+
+            int spins = 0;
+            while ( ! write.done) {
+                if ( ! lock.get() && lock.compareAndSet(false, true)) {
+                    try {
+                        combine();
+                    } finally {
+                        lock.set(false);
+                    }
+                    wakeNextCombiner();
+                } else if (spins < SPINS) {
+                    spins++;
+                    Thread.yield(); // let the combiner run
+                } else {
+                    LockSupport.park(this);
                 }
+            }
+            if (write.failure instanceof RuntimeException) {
+                throw (RuntimeException) write.failure;
+            }
+            if (write.failure != null) {
+                throw (Error) write.failure;
+            }
+            return write.previous;
+        }
 
-                @Override
-                public Entry<K, V> next() {
-                    return last = delegate.next();
+        /**
+         * A writer that pushed while the lock was held may have parked with its write still on the
+         * stack, unpark the newest so it takes the lock and combines the lot.
+         */
+        private void wakeNextCombiner() {
+            Write<K, V> head = pending.get();
+            if (head != null) {
+                LockSupport.unpark(head.writer);
+            }
+        }
+
+        private void combine() {
+            Write<K, V> newest = pending.getAndSet(null);
+            if (newest == null) {
+                return; // another combiner took them
+            }
+            Write<K, V> batch = null;
+            int count = 0;
+            while (newest != null) { // reverse, so the writes are applied in the order they were made
+                Write<K, V> next = newest.next;
+                newest.next = batch;
+                batch = newest;
+                newest = next;
+                count++;
+            }
+            try {
+                Hash<K, V> current, updated;
+                do {
+                    current = reference.get();
+                    Hash.Builder<K, V> builder = current.toBuilder();
+                    for (Write<K, V> write = batch; write != null; write = write.next) {
+                        write.applyTo(builder);
+                    }
+                    updated = builder.build();
+                } while (updated != current && ! publish(current, updated));
+                combined(count);
+            } catch (RuntimeException | Error e) {
+                for (Write<K, V> write = batch; write != null; write = write.next) {
+                    write.failure = e;
+                }
+            } finally {
+                for (Write<K, V> write = batch; write != null; write = write.next) {
+                    write.done = true;
+                    LockSupport.unpark(write.writer);
                 }
+            }
+        }
 
-                @Override
-                public void remove() {
-                    if (last == null)
-                        throw new IllegalStateException("remove() cannot be called before next() has been");
-                    HashEntrySetView.this.remove(last);
-                    last = null;
+        void published(boolean published) {
+            if (writeMode != WriteMode.ADAPTIVE || combining) {
+                return;
+            }
+            if ( ! published) {
+                contention = Math.min(contention + RETRY_WEIGHT, SWITCH_TO_COMBINING);
+                if (contention >= SWITCH_TO_COMBINING) {
+                    combining = true;
                 }
-            };
+            } else if (contention > 0) {
+                contention--;
+            }
         }
 
-        @Override
-        public int size() {
-            return hash.size();
+        private void combined(int count) {
+            if (writeMode != WriteMode.ADAPTIVE) {
+                return;
+            }
+            if (count > 1) {
+                contention = SWITCH_TO_COMBINING;
+            } else if (--contention <= 0) {
+                contention = 0;
+                combining = false; // writes have stopped overlapping
+            }
+        }
+    }
+
+    private static final class Write<K, V> {
+        final Object key;
+        final V value; // null for a remove
+        final Thread writer = Thread.currentThread(); // unparked once done
+        Write<K, V> next;
+        V previous;
+        Throwable failure; // from the key's hashCode or equals, or from publishing, rethrown by the writer
+        volatile boolean done;
+
+        Write(Object key, V value) {
+            this.key = key;
+            this.value = value;
         }
 
         @SuppressWarnings("unchecked")
+        void applyTo(Hash.Builder<K, V> builder) {
+            try {
+                previous = builder.get(key);
+                if (value == null) {
+                    builder.remove(key);
+                } else if (previous != value) {
+                    builder.put((K) key, value);
+                }
+                failure = null;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Delivers to one subscriber. Any number of signals, from writers or requests, while a
+     * delivery is pending or running collapse in to one more pass of {@link #run()}, which sends
+     * the difference between the last snapshot sent and the current one if there is demand.
+     */
+    private static final class ChangeSubscription<K, V> implements MapChange.Subscription, Runnable {
+        private final CopyOnWriteHashMap<K, V> map;
+        private final Executor executor;
+        private final MapChange.Subscriber<K, V> subscriber;
+        private final AtomicInteger signals = new AtomicInteger(); // run() is pending or running while above zero
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+        private boolean subscribed; // only touched in run()
+        private Hash<K, V> sent;    // likewise
+
+        ChangeSubscription(CopyOnWriteHashMap<K, V> map, Executor executor, MapChange.Subscriber<K, V> subscriber) {
+            this.map = map;
+            this.executor = executor;
+            this.subscriber = subscriber;
+            this.sent = map.reference.get();
+        }
+
+        void signal() {
+            if (signals.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancel(); // the write has been made, failing it now would help no one
+                }
+            }
+        }
+
         @Override
-        public boolean remove(Object o) {
-            if (o instanceof Entry) {
-                Entry<K,V> entry = (Entry<K, V>) o;
-                if (Objects.equals(hash.get(entry.getKey()), entry.getValue())){
-                    // if the entry is in the current Hash then
-                    Hash<K, V> hashWithout = hash.without(entry.getKey());
-                    if (!reference.compareAndSet(hash, hashWithout)) {
-                        throw new ConcurrentModificationException();
+        public void request(long n) {
+            if (n <= 0)
+                throw new IllegalArgumentException("n must be positive, was " + n);
+            demand.getAndAccumulate(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            map.unsubscribe(this);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (cancelled)
+                    return; // leaves signals above zero, so nothing is scheduled again
+                try {
+                    if ( ! subscribed) {
+                        subscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    Hash<K, V> current = map.reference.get();
+                    if (current != sent && demand.get() > 0) {
+                        if (demand.get() != Long.MAX_VALUE) {
+                            demand.decrementAndGet();
+                        }
+                        MapChange<K, V> change = new MapChange<>(sent, current);
+                        sent = current;
+                        subscriber.onNext(change);
                     }
-                    this.hash = hashWithout;
-                    return true;
+                } catch (RuntimeException | Error e) {
+                    cancel();
+                    throw e;
                 }
-            }
-            return false;
+                missed = signals.addAndGet(-missed);
+            } while (missed != 0);
         }
+    }
+
+    private final class EntrySetIterator extends Hash.EntryIterator<K, V> {
+        private Entry<K, V> last;
 
+        private EntrySetIterator(Hash<K, V> snapshot) {
+            super(snapshot);
+        }
 
         @Override
-        public void clear() {
-            if (!reference.compareAndSet(hash, Hash.<K,V>emptyHash())) {
-                throw new ConcurrentModificationException();
-            }
-            hash = Hash.emptyHash();
+        public Entry<K, V> next() {
+            return last = super.next();
+        }
+
+        @Override
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException("remove() cannot be called before next() has been");
+            CopyOnWriteHashMap.this.remove(last.getKey(), last.getValue());
+            last = null;
         }
     }
 }
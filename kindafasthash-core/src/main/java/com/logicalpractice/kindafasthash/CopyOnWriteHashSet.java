@@ -0,0 +1,172 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread safe set that publishes a new {@link PersistentHashSet} on every change, as
+ * {@link CopyOnWriteHashMap} does with a {@link Hash}. Reads are a single volatile read, writes
+ * derive the new set and publish it with one compare and set, retrying if another writer got
+ * there first. The bulk operations publish all of their changes at once.
+ * <p>
+ * Iterators walk the set that was current when they were created, removing through one
+ * removes the element from this set.
+ */
+public class CopyOnWriteHashSet<E> extends AbstractSet<E> {
+
+    private final AtomicReference<PersistentHashSet<E>> reference;
+    private final PersistentHashSet<E> empty;
+
+    public CopyOnWriteHashSet() {
+        this(HashingStrategies.DEFAULT);
+    }
+
+    /**
+     * @param strategy how elements are hashed and compared, in place of their own
+     *                 {@code hashCode} and {@code equals}
+     */
+    public CopyOnWriteHashSet(HashingStrategy<? super E> strategy) {
+        this.empty = PersistentHashSet.emptySet(strategy);
+        this.reference = new AtomicReference<>(empty);
+    }
+
+    /**
+     * @return the current elements in O(1), as an immutable set that later changes don't affect
+     */
+    public PersistentHashSet<E> snapshot() {
+        return reference.get();
+    }
+
+    @Override
+    public boolean add(E element) {
+        if (element == null)
+            throw new NullPointerException("null elements are not allowed");
+        PersistentHashSet<E> current;
+        do {
+            current = reference.get();
+            if (current.contains(element))
+                return false;
+        } while ( ! reference.compareAndSet(current, current.with(element)));
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        if (element == null) return false;
+        PersistentHashSet<E> current;
+        do {
+            current = reference.get();
+            if ( ! current.contains(element))
+                return false;
+        } while ( ! reference.compareAndSet(current, current.without(element)));
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return reference.get().contains(element);
+    }
+
+    @Override
+    public int size() {
+        return reference.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return reference.get().isEmpty();
+    }
+
+    /**
+     * Adds all of {@code elements}, readers either see all of them or none of them.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> elements) {
+        PersistentHashSet<E> current, updated;
+        do {
+            current = reference.get();
+            updated = current.withAll(elements);
+            if (updated == current)
+                return false;
+        } while ( ! reference.compareAndSet(current, updated));
+        return true;
+    }
+
+    /**
+     * Removes all of {@code elements}, the removals are published together.
+     */
+    @Override
+    public boolean removeAll(Collection<?> elements) {
+        Objects.requireNonNull(elements);
+        PersistentHashSet<E> current, updated;
+        do {
+            current = reference.get();
+            updated = current.withoutAll(elements);
+            if (updated == current)
+                return false;
+        } while ( ! reference.compareAndSet(current, updated));
+        return true;
+    }
+
+    /**
+     * Removes every element not in {@code elements}, the removals are published together.
+     */
+    @Override
+    public boolean retainAll(Collection<?> elements) {
+        Objects.requireNonNull(elements);
+        PersistentHashSet<E> current, updated;
+        do {
+            current = reference.get();
+            Hash.Builder<E, Boolean> builder = current.asHash().toBuilder();
+            for (E element : current) {
+                if ( ! elements.contains(element)) {
+                    builder.remove(element);
+                }
+            }
+            updated = PersistentHashSet.of(builder.build());
+            if (updated.size() == current.size())
+                return false;
+        } while ( ! reference.compareAndSet(current, updated));
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        reference.set(empty);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> elements = reference.get().iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return elements.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = elements.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException("remove() cannot be called before next() has been");
+                CopyOnWriteHashSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return reference.get().spliterator();
+    }
+}
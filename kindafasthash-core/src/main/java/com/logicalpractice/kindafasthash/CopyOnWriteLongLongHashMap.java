@@ -0,0 +1,84 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@code long} to {@code long} map publishing a new {@link LongLongHash} on every change,
+ * neither keys nor values are ever boxed.
+ */
+public class CopyOnWriteLongLongHashMap {
+
+    private final AtomicReference<LongLongHash> reference = new AtomicReference<>(LongLongHash.emptyHash());
+
+    public long get(long key, long defaultValue) {
+        return reference.get().get(key, defaultValue);
+    }
+
+    public boolean containsKey(long key) {
+        return reference.get().containsKey(key);
+    }
+
+    public void put(long key, long value) {
+        LongLongHash current, updated;
+        do {
+            current = reference.get();
+            updated = current.with(key, value);
+        } while (updated != current && ! reference.compareAndSet(current, updated));
+    }
+
+    /**
+     * Adds {@code delta} to the value for {@code key}, a missing key counts as zero.
+     *
+     * @return the new value
+     */
+    public long addAndGet(long key, long delta) {
+        LongLongHash current;
+        long value;
+        do {
+            current = reference.get();
+            value = current.get(key, 0L) + delta;
+        } while ( ! reference.compareAndSet(current, current.with(key, value)));
+        return value;
+    }
+
+    /**
+     * @return true if there was a value to remove
+     */
+    public boolean remove(long key) {
+        LongLongHash current;
+        do {
+            current = reference.get();
+            if (!current.containsKey(key))
+                return false;
+        } while ( ! reference.compareAndSet(current, current.without(key)));
+        return true;
+    }
+
+    public int size() {
+        return reference.get().size();
+    }
+
+    public boolean isEmpty() {
+        return reference.get().isEmpty();
+    }
+
+    public void clear() {
+        reference.set(LongLongHash.emptyHash());
+    }
+
+    public void forEach(LongLongHash.EntryConsumer consumer) {
+        reference.get().forEach(consumer);
+    }
+
+    /**
+     * @return the current contents of the map, unaffected by later changes
+     */
+    public LongLongHash snapshot() {
+        return reference.get();
+    }
+
+    @Override
+    public String toString() {
+        return reference.get().toString();
+    }
+}
@@ -0,0 +1,92 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@code long} keyed counterpart of {@link CopyOnWriteHashMap}, publishing a new
+ * {@link LongObjHash} on every change. It deliberately doesn't implement {@link java.util.Map}
+ * so that no operation has to box a key.
+ */
+public class CopyOnWriteLongObjHashMap<V> {
+
+    private final AtomicReference<LongObjHash<V>> reference = new AtomicReference<>(LongObjHash.<V>emptyHash());
+
+    public V get(long key) {
+        return reference.get().get(key);
+    }
+
+    public boolean containsKey(long key) {
+        return reference.get().containsKey(key);
+    }
+
+    /**
+     * @return the previous value for {@code key} or null if there wasn't one
+     */
+    public V put(long key, V value) {
+        LongObjHash<V> current, updated;
+        V previous;
+        do {
+            current = reference.get();
+            previous = current.get(key);
+            updated = current.with(key, value);
+        } while (updated != current && ! reference.compareAndSet(current, updated));
+        return previous;
+    }
+
+    /**
+     * @see java.util.concurrent.ConcurrentMap#putIfAbsent(Object, Object)
+     */
+    public V putIfAbsent(long key, V value) {
+        LongObjHash<V> current;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing != null)
+                return existing;
+        } while ( ! reference.compareAndSet(current, current.with(key, value)));
+        return null;
+    }
+
+    /**
+     * @return the value that was removed or null if there wasn't one
+     */
+    public V remove(long key) {
+        LongObjHash<V> current;
+        V previous;
+        do {
+            current = reference.get();
+            previous = current.get(key);
+            if (previous == null)
+                return null;
+        } while ( ! reference.compareAndSet(current, current.without(key)));
+        return previous;
+    }
+
+    public int size() {
+        return reference.get().size();
+    }
+
+    public boolean isEmpty() {
+        return reference.get().isEmpty();
+    }
+
+    public void clear() {
+        reference.set(LongObjHash.<V>emptyHash());
+    }
+
+    public void forEach(LongObjHash.EntryConsumer<? super V> consumer) {
+        reference.get().forEach(consumer);
+    }
+
+    /**
+     * @return the current contents of the map, unaffected by later changes
+     */
+    public LongObjHash<V> snapshot() {
+        return reference.get();
+    }
+
+    @Override
+    public String toString() {
+        return reference.get().toString();
+    }
+}
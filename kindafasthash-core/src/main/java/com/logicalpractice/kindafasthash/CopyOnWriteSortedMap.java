@@ -0,0 +1,762 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread safe {@link ConcurrentNavigableMap} that publishes a new persistent {@link BTree} on
+ * every change, as {@link CopyOnWriteHashMap} does with a {@link Hash}.
+ * <p>
+ * Reads are a single volatile read of the current tree, writes derive the new tree and publish
+ * it with one compare and set, retrying if another writer got there first. Iterators, including
+ * those of every range view, walk the tree that was current when they were created, so a range
+ * scan takes no lock and sees one consistent version of the map however long it runs.
+ * {@link #snapshot()} hands out that tree directly.
+ * <p>
+ * The sub map, head map, tail map and descending map views are instances of this class sharing
+ * the one tree, each with its own range of keys and direction.
+ */
+public class CopyOnWriteSortedMap<K, V> extends AbstractMap<K, V> implements ConcurrentNavigableMap<K, V> {
+
+    private final AtomicReference<BTree<K, V>> reference;
+    // the range of this view, in the tree's order, a null bound leaves that end open
+    private final K lo;
+    private final boolean loInclusive;
+    private final K hi;
+    private final boolean hiInclusive;
+    private final boolean descending;
+    private final boolean whole; // no bounds and not descending, so the view is the whole tree
+    private final Comparator<Object> order; // the tree's, which never changes
+    private EntrySetView entrySet; // created on first use, it holds no state of its own
+    private KeySetView<K> keySet;
+
+    /**
+     * An empty map ordered by the keys' natural order.
+     */
+    public CopyOnWriteSortedMap() {
+        this((Comparator<? super K>) null);
+    }
+
+    /**
+     * An empty map ordered by {@code comparator}, or by the keys' natural order if that is null.
+     */
+    public CopyOnWriteSortedMap(Comparator<? super K> comparator) {
+        this(new AtomicReference<>(BTree.<K, V>emptyTree(comparator)), null, false, null, false, false);
+    }
+
+    /**
+     * A map with the entries of {@code map}, ordered as it is.
+     */
+    public CopyOnWriteSortedMap(SortedMap<K, ? extends V> map) {
+        this(map.comparator());
+        putAll(map);
+    }
+
+    private CopyOnWriteSortedMap(AtomicReference<BTree<K, V>> reference, K lo, boolean loInclusive,
+                                 K hi, boolean hiInclusive, boolean descending) {
+        this.reference = reference;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+        this.whole = lo == null && hi == null && !descending;
+        this.order = reference.get().order();
+    }
+
+    /**
+     * @return the whole map's current contents in O(1), as an immutable tree that later changes
+     *         don't affect, whichever view this is
+     */
+    public BTree<K, V> snapshot() {
+        return reference.get();
+    }
+
+    private boolean publish(BTree<K, V> expected, BTree<K, V> updated) {
+        return reference.compareAndSet(expected, updated.withVersion(expected.version() + 1));
+    }
+
+    // --- ranges
+
+    private int compare(Object left, Object right) {
+        return order.compare(left, right);
+    }
+
+    private boolean tooLow(Object key) {
+        if (lo == null) return false;
+        int c = compare(key, lo);
+        return c < 0 || c == 0 && !loInclusive;
+    }
+
+    private boolean tooHigh(Object key) {
+        if (hi == null) return false;
+        int c = compare(key, hi);
+        return c > 0 || c == 0 && !hiInclusive;
+    }
+
+    private boolean inRange(Object key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null)
+            throw new NullPointerException("null keys are not allowed");
+    }
+
+    private void checkInRange(Object key) {
+        checkKey(key);
+        if (!inRange(key))
+            throw new IllegalArgumentException("key out of range: " + key);
+    }
+
+    private Entry<K, V> lowest(BTree<K, V> tree) {
+        Entry<K, V> entry = lo == null ? tree.firstEntry()
+                : loInclusive ? tree.ceilingEntry(lo) : tree.higherEntry(lo);
+        return entry == null || tooHigh(entry.getKey()) ? null : entry;
+    }
+
+    private Entry<K, V> highest(BTree<K, V> tree) {
+        Entry<K, V> entry = hi == null ? tree.lastEntry()
+                : hiInclusive ? tree.floorEntry(hi) : tree.lowerEntry(hi);
+        return entry == null || tooLow(entry.getKey()) ? null : entry;
+    }
+
+    /** @return the entry with the least key in range above {@code key}, or equal to it if {@code inclusive} */
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> above(Object key, boolean inclusive) {
+        checkKey(key);
+        BTree<K, V> tree = reference.get();
+        if (tooLow(key)) {
+            return lowest(tree);
+        }
+        Entry<K, V> entry = inclusive ? tree.ceilingEntry((K) key) : tree.higherEntry((K) key);
+        return entry == null || tooHigh(entry.getKey()) ? null : entry;
+    }
+
+    /** @return the entry with the greatest key in range below {@code key}, or equal to it if {@code inclusive} */
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> below(Object key, boolean inclusive) {
+        checkKey(key);
+        BTree<K, V> tree = reference.get();
+        if (tooHigh(key)) {
+            return highest(tree);
+        }
+        Entry<K, V> entry = inclusive ? tree.floorEntry((K) key) : tree.lowerEntry((K) key);
+        return entry == null || tooLow(entry.getKey()) ? null : entry;
+    }
+
+    private Iterator<Entry<K, V>> entryIterator() {
+        BTree<K, V> tree = reference.get();
+        Iterator<Entry<K, V>> entries = tree.iterator(lo, loInclusive, hi, hiInclusive, descending);
+        return new Iterator<Entry<K, V>>() {
+            private Entry<K, V> last;
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Entry<K, V> next() {
+                return last = entries.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException("remove() cannot be called before next() has been");
+                CopyOnWriteSortedMap.this.remove(last.getKey(), last.getValue());
+                last = null;
+            }
+        };
+    }
+
+    // --- reads
+
+    @Override
+    public V get(Object key) {
+        checkKey(key);
+        return inRange(key) ? reference.get().get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        BTree<K, V> tree = reference.get();
+        return whole ? tree.size() : tree.count(lo, loInclusive, hi, hiInclusive);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return whole ? reference.get().isEmpty() : lowest(reference.get()) == null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (whole) {
+            reference.get().forEach(action);
+        } else {
+            super.forEach(action);
+        }
+    }
+
+    // --- writes
+
+    @Override
+    public V put(K key, V value) {
+        checkInRange(key);
+        checkValue(value);
+        BTree<K, V> current;
+        V previous;
+        do {
+            current = reference.get();
+            previous = current.get(key);
+            if (previous == value)
+                return previous;
+        } while ( ! publish(current, current.with(key, value)));
+        return previous;
+    }
+
+    /**
+     * Puts all of {@code map}, readers either see all of them or none of them. The entries are
+     * sorted once and then merged in to the tree in a single pass, each leaf they land in copied
+     * once rather than once per entry.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        TreeMap<Object, Object> sorted = new TreeMap<>(reference.get().order());
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            checkInRange(entry.getKey());
+            checkValue(entry.getValue());
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        Object[] keys = sorted.keySet().toArray();
+        Object[] values = sorted.values().toArray();
+        BTree<K, V> current, updated;
+        do {
+            current = reference.get();
+            updated = current.withAll(keys, values);
+        } while (updated != current && ! publish(current, updated));
+    }
+
+    @Override
+    public V remove(Object key) {
+        checkKey(key);
+        if (!inRange(key))
+            return null;
+        BTree<K, V> current;
+        V previous;
+        do {
+            current = reference.get();
+            previous = current.get(key);
+            if (previous == null)
+                return null;
+        } while ( ! publish(current, current.without(key)));
+        return previous;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        checkInRange(key);
+        checkValue(value);
+        BTree<K, V> current;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing != null)
+                return existing;
+        } while ( ! publish(current, current.with(key, value)));
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        checkKey(key);
+        if (value == null || !inRange(key))
+            return false;
+        BTree<K, V> current;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing == null || !existing.equals(value))
+                return false;
+        } while ( ! publish(current, current.without(key)));
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        checkInRange(key);
+        checkValue(oldValue);
+        checkValue(newValue);
+        BTree<K, V> current;
+        do {
+            current = reference.get();
+            V existing = current.get(key);
+            if (existing == null || !existing.equals(oldValue))
+                return false;
+        } while ( ! publish(current, current.with(key, newValue)));
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        checkInRange(key);
+        checkValue(value);
+        BTree<K, V> current;
+        V existing;
+        do {
+            current = reference.get();
+            existing = current.get(key);
+            if (existing == null)
+                return null;
+        } while ( ! publish(current, current.with(key, value)));
+        return existing;
+    }
+
+    /**
+     * Removes every entry in this view's range, the removals are published together.
+     */
+    @Override
+    public void clear() {
+        BTree<K, V> current, updated;
+        do {
+            current = reference.get();
+            if (whole) {
+                if (current.isEmpty())
+                    return;
+                updated = current.cleared();
+            } else {
+                updated = current;
+                Iterator<Entry<K, V>> entries = current.iterator(lo, loInclusive, hi, hiInclusive, false);
+                while (entries.hasNext()) {
+                    updated = updated.without(entries.next().getKey());
+                }
+                if (updated == current)
+                    return;
+            }
+        } while ( ! publish(current, updated));
+    }
+
+    private static void checkValue(Object value) {
+        if (value == null)
+            throw new NullPointerException("null values are not allowed");
+    }
+
+    // --- navigation
+
+    @Override
+    public Comparator<? super K> comparator() {
+        Comparator<? super K> comparator = reference.get().comparator();
+        if (!descending) {
+            return comparator;
+        }
+        return comparator == null ? Collections.<K>reverseOrder() : Collections.reverseOrder(comparator);
+    }
+
+    @Override
+    public Entry<K, V> lowerEntry(K key) {
+        return descending ? above(key, false) : below(key, false);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return keyOf(lowerEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K key) {
+        return descending ? above(key, true) : below(key, true);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return keyOf(floorEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K key) {
+        return descending ? below(key, true) : above(key, true);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return keyOf(ceilingEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> higherEntry(K key) {
+        return descending ? below(key, false) : above(key, false);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return keyOf(higherEntry(key));
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        BTree<K, V> tree = reference.get();
+        return descending ? highest(tree) : lowest(tree);
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        BTree<K, V> tree = reference.get();
+        return descending ? lowest(tree) : highest(tree);
+    }
+
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return poll(true);
+    }
+
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return poll(false);
+    }
+
+    private Entry<K, V> poll(boolean first) {
+        BTree<K, V> current;
+        Entry<K, V> entry;
+        do {
+            current = reference.get();
+            entry = first != descending ? lowest(current) : highest(current);
+            if (entry == null)
+                return null;
+        } while ( ! publish(current, current.without(entry.getKey())));
+        return entry;
+    }
+
+    @Override
+    public K firstKey() {
+        Entry<K, V> entry = firstEntry();
+        if (entry == null)
+            throw new NoSuchElementException();
+        return entry.getKey();
+    }
+
+    @Override
+    public K lastKey() {
+        Entry<K, V> entry = lastEntry();
+        if (entry == null)
+            throw new NoSuchElementException();
+        return entry.getKey();
+    }
+
+    private static <K> K keyOf(Entry<K, ?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    // --- views
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        checkKey(fromKey);
+        checkKey(toKey);
+        return descending
+                ? view(toKey, toInclusive, fromKey, fromInclusive, true)
+                : view(fromKey, fromInclusive, toKey, toInclusive, false);
+    }
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> headMap(K toKey, boolean inclusive) {
+        checkKey(toKey);
+        return descending
+                ? view(toKey, inclusive, null, false, true)
+                : view(null, false, toKey, inclusive, false);
+    }
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        checkKey(fromKey);
+        return descending
+                ? view(null, false, fromKey, inclusive, true)
+                : view(fromKey, inclusive, null, false, false);
+    }
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public CopyOnWriteSortedMap<K, V> descendingMap() {
+        return new CopyOnWriteSortedMap<>(reference, lo, loInclusive, hi, hiInclusive, !descending);
+    }
+
+    /**
+     * @return a view of the keys from {@code from} to {@code to} in the tree's order, within this
+     *         view's own range. A null bound is left as this view has it.
+     * @throws IllegalArgumentException if the range goes beyond this view's or is inverted
+     */
+    private CopyOnWriteSortedMap<K, V> view(K from, boolean fromInclusive, K to, boolean toInclusive,
+                                            boolean descending) {
+        if (lo != null) {
+            if (from == null) {
+                from = lo;
+                fromInclusive = loInclusive;
+            } else {
+                int c = compare(from, lo);
+                if (c < 0 || c == 0 && !loInclusive && fromInclusive)
+                    throw new IllegalArgumentException("key out of range: " + from);
+            }
+        }
+        if (hi != null) {
+            if (to == null) {
+                to = hi;
+                toInclusive = hiInclusive;
+            } else {
+                int c = compare(to, hi);
+                if (c > 0 || c == 0 && !hiInclusive && toInclusive)
+                    throw new IllegalArgumentException("key out of range: " + to);
+            }
+        }
+        if (from != null && to != null && compare(from, to) > 0)
+            throw new IllegalArgumentException("inconsistent range");
+        return new CopyOnWriteSortedMap<>(reference, from, fromInclusive, to, toInclusive, descending);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        EntrySetView result = entrySet;
+        return result != null ? result : (entrySet = new EntrySetView());
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+        KeySetView<K> result = keySet;
+        return result != null ? result : (keySet = new KeySetView<>(this));
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return keySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    /**
+     * A live view, each iterator walks the tree that was current when it was created.
+     */
+    private final class EntrySetView extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return entryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CopyOnWriteSortedMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return CopyOnWriteSortedMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            try {
+                Object value = entry.getKey() == null ? null : get(entry.getKey());
+                return value != null && value.equals(entry.getValue());
+            } catch (ClassCastException e) {
+                return false; // a key that can't be compared with ours can't be in the set
+            }
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return entry.getKey() != null && CopyOnWriteSortedMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            CopyOnWriteSortedMap.this.clear();
+        }
+    }
+
+    private static final class KeySetView<K> extends AbstractSet<K> implements NavigableSet<K> {
+        private final CopyOnWriteSortedMap<K, ?> map;
+
+        KeySetView(CopyOnWriteSortedMap<K, ?> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            Iterator<? extends Entry<K, ?>> entries = map.entryIterator();
+            return new Iterator<K>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return entries.next().getKey();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return map.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            boolean changed = false;
+            for (Object o : c) {
+                changed |= remove(o);
+            }
+            return changed;
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public K lower(K k) {
+            return map.lowerKey(k);
+        }
+
+        @Override
+        public K floor(K k) {
+            return map.floorKey(k);
+        }
+
+        @Override
+        public K ceiling(K k) {
+            return map.ceilingKey(k);
+        }
+
+        @Override
+        public K higher(K k) {
+            return map.higherKey(k);
+        }
+
+        @Override
+        public K first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public K last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public K pollFirst() {
+            return keyOf(map.pollFirstEntry());
+        }
+
+        @Override
+        public K pollLast() {
+            return keyOf(map.pollLastEntry());
+        }
+
+        @Override
+        public NavigableSet<K> descendingSet() {
+            return map.descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public Iterator<K> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return map.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return map.headMap(toElement, inclusive).navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return map.tailMap(fromElement, inclusive).navigableKeySet();
+        }
+
+        @Override
+        public SortedSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
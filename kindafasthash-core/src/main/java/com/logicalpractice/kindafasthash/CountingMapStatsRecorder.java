@@ -0,0 +1,36 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the events in {@link LongAdder}s, so writers recording at once don't contend on them.
+ */
+public class CountingMapStatsRecorder implements MapStatsRecorder {
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder casRetries = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder compactionNanos = new LongAdder();
+
+    @Override
+    public void recordCasRetry() {
+        casRetries.increment();
+    }
+
+    @Override
+    public void recordWrite(long bytesCopied) {
+        writes.increment();
+        this.bytesCopied.add(bytesCopied);
+    }
+
+    @Override
+    public void recordCompaction(long nanos) {
+        compactions.increment();
+        compactionNanos.add(nanos);
+    }
+
+    @Override
+    public MapStats snapshot() {
+        return new MapStats(writes.sum(), casRetries.sum(), bytesCopied.sum(), compactions.sum(), compactionNanos.sum());
+    }
+}
@@ -0,0 +1,91 @@
+package com.logicalpractice.kindafasthash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * A {@link CopyOnWriteHashMap} that logs every change to disk, so its contents survive a crash.
+ * <p>
+ * Each published snapshot is appended to a write-ahead log in a directory of its own as the
+ * keys that changed since the one before, encoded with the codecs given to {@link #open}. The
+ * write returns once its record is as durable as the {@link Durability} asked for. Reads are
+ * unaffected, they are still a single volatile read.
+ * <p>
+ * The snapshot is published before it is logged, so other threads can see a write that is not
+ * yet durable, and that would be lost to a crash before the write returns. If appending fails
+ * the write throws {@link UncheckedIOException} having already changed the map, and so does every
+ * write after it, as the map is now ahead of the log. Reopening recovers what was logged.
+ * <p>
+ * The log grows with every write until {@link #checkpoint()} writes the whole map out as a
+ * snapshot and drops the log before it.
+ */
+public class DurableCopyOnWriteHashMap<K, V> extends CopyOnWriteHashMap<K, V> implements Closeable {
+
+    public enum Durability {
+        /**
+         * Records are written to the file but not forced, they survive the process crashing but
+         * not the machine.
+         */
+        NONE,
+        /**
+         * Group commit, a write waits for its record to be forced to disk, but writers that
+         * arrive while one is forcing are covered by one force between them.
+         */
+        SYNC_PER_BATCH,
+        /**
+         * Every record is forced to disk before the next is appended.
+         */
+        SYNC_PER_WRITE
+    }
+
+    private final WriteAheadLog<K, V> log;
+
+    private DurableCopyOnWriteHashMap(WriteAheadLog<K, V> log) {
+        this.log = log;
+        initialise(log.recovered());
+    }
+
+    /**
+     * Opens the map kept in {@code directory}, recovering the contents it had when last written
+     * to, or creating an empty one.
+     *
+     * @throws IOException if the files in {@code directory} can't be read, or the log is damaged
+     *         anywhere other than at its very end, where a write that never completed is ignored
+     */
+    public static <K, V> DurableCopyOnWriteHashMap<K, V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+                                                              Durability durability) throws IOException {
+        return new DurableCopyOnWriteHashMap<>(WriteAheadLog.open(
+                directory, Objects.requireNonNull(keyCodec), Objects.requireNonNull(valueCodec),
+                Objects.requireNonNull(durability)));
+    }
+
+    @Override
+    void published(Hash<K, V> previous, Hash<K, V> current) {
+        try {
+            log.append(previous, current);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        super.published(previous, current);
+    }
+
+    /**
+     * Writes the current contents as a snapshot and deletes the log records it covers, bounding
+     * the space used and the time the next {@link #open} spends replaying. Writers carry on while
+     * the snapshot is written, checkpoints called from several threads run one at a time.
+     */
+    public void checkpoint() throws IOException {
+        log.checkpoint(this::snapshot);
+    }
+
+    /**
+     * Forces what has been logged to disk and closes the log, writes made after this throw.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
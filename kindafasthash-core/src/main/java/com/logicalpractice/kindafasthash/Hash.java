@@ -1,34 +1,80 @@
 package com.logicalpractice.kindafasthash;
 
-import com.google.common.collect.AbstractIterator;
-
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Simple implementation of a persistent Hash.
+ * <p>
+ * Entries live in a hash array mapped trie: each level consumes 5 bits of the key's hash and
+ * a {@link BitmapNode} only holds the slots that are actually in use. An update copies the
+ * nodes on the path from the root to the entry, O(log32 n) small arrays, and shares the rest
+ * of the trie with the previous version.
  */
 public class Hash<K, V> implements Iterable<Map.Entry<K, V>> {
-    private static int INITIAL_TABLE_SIZE = 16; // must be power of 2 or indexFor will assumes this
-    private static EntryNode[] EMPTY_TABLE = new EntryNode[INITIAL_TABLE_SIZE];
-    private static Hash EMPTY_HASH = new Hash(EMPTY_TABLE, 0);
+    private static final int BITS = 5; // bits of the hash consumed at each level of the trie
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS;
+    private static final int TREEIFY_THRESHOLD = 8; // a longer collision becomes a TreeBucket
+    private static final int UNTREEIFY_THRESHOLD = 6; // a TreeBucket this small goes back to a collision
+    private static final double DEFAULT_LOAD_FACTOR = 0.5; // of the compact table
+
+    // estimated object sizes for a 64 bit JVM with compressed oops
+    private static final int HASH_BYTES = 32;
+    private static final int NODE_BYTES = 24;
+    private static final int ARRAY_BYTES = 16; // plus 4 per reference or int
+    private static final int ENTRY_BYTES = 24; // with or without a value, which fits in the padding
+    private static final int COLLISION_BYTES = 24;
+    private static final int TREE_NODE_BYTES = 40;
+    private static final int TREE_BUCKET_BYTES = 32;
 
-    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * Entries with this value are stored without one, so a set, or a map used as one, doesn't
+     * pay for a value per entry. With compressed oops the value fits in the padding of an entry
+     * anyway, without them it saves 8 bytes.
+     */
+    static final Boolean PRESENT = Boolean.TRUE;
 
-    private final EntryNode<K, V>[] entries;
+    private static BitmapNode EMPTY_NODE = new BitmapNode(0, new Object[0], null);
+    private static Hash EMPTY_HASH = new Hash(EMPTY_NODE, 0, HashingStrategies.DEFAULT, 0);
+
+    private final BitmapNode<K, V> root;
     private final int size;
-    private final int threshold;
+    private final CompactTable table; // only present once compact() has been called
+    private final HashingStrategy<Object> strategy;
+    private final long version;
 
-    private Hash(EntryNode<K, V>[] entries, int size) {
-        this.entries = entries;
+    private Hash(BitmapNode<K, V> root, int size, HashingStrategy<Object> strategy, long version) {
+        this(root, size, null, strategy, version);
+    }
+
+    private Hash(BitmapNode<K, V> root, int size, CompactTable table, HashingStrategy<Object> strategy, long version) {
+        this.root = root;
         this.size = size;
-        this.threshold = (int) (entries.length * LOAD_FACTOR);
+        this.table = table;
+        this.strategy = strategy;
+        this.version = version;
     }
 
     @SuppressWarnings("unchecked")
@@ -36,21 +82,81 @@ public class Hash<K, V> implements Iterable<Map.Entry<K, V>> {
         return EMPTY_HASH;
     }
 
+    /**
+     * @return an empty Hash that hashes and compares its keys with {@code strategy}, as do all
+     *         the Hashes derived from it
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Hash<K, V> emptyHash(HashingStrategy<? super K> strategy) {
+        if (strategy == HashingStrategies.DEFAULT) {
+            return EMPTY_HASH;
+        }
+        return new Hash<>(EMPTY_NODE, 0, (HashingStrategy<Object>) Objects.requireNonNull(strategy), 0);
+    }
+
+    /**
+     * @return a builder that starts out with no entries
+     */
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>(Hash.<K, V>emptyHash());
+    }
+
+    /**
+     * @return a builder that starts out with no entries and hashes keys with {@code strategy}
+     */
+    public static <K, V> Builder<K, V> newBuilder(HashingStrategy<? super K> strategy) {
+        return new Builder<>(Hash.<K, V>emptyHash(strategy));
+    }
+
+    public HashingStrategy<? super K> hashingStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return 0 for an empty Hash, and for any other one more than the version of the Hash it was
+     *         derived from by {@code with}, {@code without} or a {@link Builder}. A
+     *         {@link CopyOnWriteHashMap} numbers the snapshots it publishes the same way, so they
+     *         only go up.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return this Hash, sharing its trie, with {@code version} in place of its own
+     */
+    Hash<K, V> withVersion(long version) {
+        return version == this.version ? this : new Hash<>(root, size, table, strategy, version);
+    }
+
+    /**
+     * @return a builder that starts out with the entries of this Hash, this Hash is not affected
+     *         by changes made through the builder
+     */
+    public Builder<K, V> toBuilder() {
+        return new Builder<>(this);
+    }
+
     public boolean isEmpty() {
         return size() == 0;
     }
 
+    /**
+     * An entry whose value is {@code PRESENT}, which needs no field to hold it. Every other value
+     * is held by a {@link ValueNode}, see {@link #entry}.
+     */
     private static class EntryNode<K, V> implements Map.Entry<K, V> {
         final K key;
-        final V value;
         final int hash;
-        final EntryNode<K, V> next;
 
-        private EntryNode(K key, V value, int hash, EntryNode<K, V> next) {
+        private EntryNode(K key, int hash) {
             this.key = key;
-            this.value = value;
             this.hash = hash;
-            this.next = next;
+        }
+
+        @SuppressWarnings("unchecked")
+        final V value() {
+            return this instanceof ValueNode ? ((ValueNode<K, V>) this).value : (V) PRESENT;
         }
 
         @Override
@@ -60,7 +166,7 @@ public class Hash<K, V> implements Iterable<Map.Entry<K, V>> {
 
         @Override
         public V getValue() {
-            return value;
+            return value();
         }
 
         @Override
@@ -75,41 +181,396 @@ public class Hash<K, V> implements Iterable<Map.Entry<K, V>> {
             if (!(o instanceof Map.Entry)) return false;
 
             Map.Entry mapEntry = (Map.Entry) o;
-            return key.equals(mapEntry.getKey()) && value.equals(mapEntry.getValue());
+            return key.equals(mapEntry.getKey()) && value().equals(mapEntry.getValue());
         }
 
         @Override
         public int hashCode() {
             // from the spec of Map.Entry
-            return (key.hashCode()) ^ (value.hashCode());
+            return (key.hashCode()) ^ (value().hashCode());
         }
 
         @Override
         public String toString() {
-            return key + "=" + value;
+            return key + "=" + value();
         }
     }
 
-    public V get(Object key) {
-        if (size == 0) {
-            return null;
+    private static class ValueNode<K, V> extends EntryNode<K, V> {
+        final V value;
+
+        private ValueNode(K key, V value, int hash) {
+            super(key, hash);
+            this.value = value;
+        }
+    }
+
+    /**
+     * @return an entry node, without a value field when the value is {@code PRESENT}
+     */
+    private static <K, V> EntryNode<K, V> entry(K key, V value, int hash) {
+        return value == PRESENT ? new EntryNode<>(key, hash) : new ValueNode<>(key, value, hash);
+    }
+
+    /**
+     * Two or more entries whose keys have exactly the same hash. They are kept in an array, which
+     * the iterators walk like the slots of a node, so that an entry needs no link to the next.
+     */
+    @SuppressWarnings("unchecked")
+    private static final class CollisionNode<K, V> {
+        final int hash;
+        final Object[] entries;
+
+        private CollisionNode(int hash, Object[] entries) {
+            this.hash = hash;
+            this.entries = entries;
         }
 
-        int hashCode = hash(key);
-        int index = indexFor(hashCode, entries.length);
+        EntryNode<K, V> find(Object key, HashingStrategy<Object> strategy) {
+            int index = indexOf(key, strategy);
+            return index < 0 ? null : (EntryNode<K, V>) entries[index];
+        }
+
+        private int indexOf(Object key, HashingStrategy<Object> strategy) {
+            for (int i = 0; i < entries.length; i++) {
+                if (strategy.equals(((EntryNode<?, ?>) entries[i]).key, key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the collision with {@code key}, or a TreeBucket if it has got too long
+         */
+        Object with(K key, V value, HashingStrategy<Object> strategy) {
+            int index = indexOf(key, strategy);
+            if (index >= 0) {
+                Object[] newEntries = entries.clone();
+                newEntries[index] = entry(key, value, hash);
+                return new CollisionNode<K, V>(hash, newEntries);
+            }
+            Object[] newEntries = Arrays.copyOf(entries, entries.length + 1);
+            newEntries[entries.length] = entry(key, value, hash);
+            return treeifyIfLong(new CollisionNode<K, V>(hash, newEntries), strategy);
+        }
+
+        /**
+         * @return the collision without {@code key}, which must be present, or the one entry left
+         */
+        Object without(Object key, HashingStrategy<Object> strategy) {
+            int index = indexOf(key, strategy);
+            if (entries.length == 2) {
+                return entries[index ^ 1];
+            }
+            Object[] newEntries = new Object[entries.length - 1];
+            System.arraycopy(entries, 0, newEntries, 0, index);
+            System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+            return new CollisionNode<K, V>(hash, newEntries);
+        }
+    }
+
+    /**
+     * An entry that is also a node of the AVL tree in a {@link TreeBucket}.
+     */
+    private static final class TreeNode<K, V> extends ValueNode<K, V> {
+        final TreeNode<K, V> left;
+        final TreeNode<K, V> right;
+        final int height;
 
-        EntryNode<K, V> current = entries[index];
-        if (current == null) {
+        private TreeNode(K key, V value, int hash, TreeNode<K, V> left, TreeNode<K, V> right) {
+            super(key, value, hash);
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    /**
+     * The entries of a long collision held in a persistent AVL tree ordered by {@code compareTo}, so
+     * a set of keys crafted to share one hash costs O(log n) per lookup and update rather than
+     * O(n). Every key in the tree is of the one class {@code keyClass}, which implements
+     * {@link Comparable}. Buckets are only made for the strategies that compare keys with
+     * {@code equals}, as otherwise the ordering needn't agree with the strategy about which keys
+     * are the same.
+     * <p>
+     * A key that can't be ordered among the others, being of another class or comparing as 0
+     * to a key it isn't equal to, turns the bucket back in to a {@link CollisionNode}.
+     */
+    @SuppressWarnings("unchecked")
+    private static final class TreeBucket<K, V> {
+        final TreeNode<K, V> root;
+        final int hash;
+        final int size;
+        final Class<?> keyClass;
+        private volatile Object[] entries; // in order, created on first iteration
+
+        private TreeBucket(TreeNode<K, V> root, int hash, int size, Class<?> keyClass) {
+            this.root = root;
+            this.hash = hash;
+            this.size = size;
+            this.keyClass = keyClass;
+        }
+
+        EntryNode<K, V> find(Object key, HashingStrategy<Object> strategy) {
+            if (key.getClass() != keyClass) {
+                for (Object entry : entries()) { // only an odd equals would find anything
+                    if (strategy.equals(((TreeNode<?, ?>) entry).key, key)) {
+                        return (TreeNode<K, V>) entry;
+                    }
+                }
+                return null;
+            }
+            TreeNode<K, V> node = root;
+            while (node != null) {
+                int cmp = compare(key, node.key);
+                if (cmp == 0) {
+                    return strategy.equals(node.key, key) ? node : null;
+                }
+                node = cmp < 0 ? node.left : node.right;
+            }
             return null;
         }
 
-        do {
-            if (eq(current.key, key)) {
-                return current.value;
+        /**
+         * @return a TreeBucket, or a CollisionNode when {@code key} can't go in the tree
+         */
+        Object with(K key, V value, HashingStrategy<Object> strategy) {
+            if (key.getClass() == keyClass) {
+                boolean present = find(key, strategy) != null;
+                TreeNode<K, V> newRoot = insert(root, key, value, hash, strategy);
+                if (newRoot != null) {
+                    return new TreeBucket<>(newRoot, hash, present ? size : size + 1, keyClass);
+                }
+            }
+            return toCollision().with(key, value, strategy);
+        }
+
+        /**
+         * @return a TreeBucket, or a CollisionNode once it has shrunk to {@code UNTREEIFY_THRESHOLD}
+         */
+        Object without(Object key, HashingStrategy<Object> strategy) {
+            if (key.getClass() != keyClass) {
+                return toCollision().without(key, strategy);
+            }
+            TreeNode<K, V> newRoot = remove(root, key, hash);
+            if (size - 1 <= UNTREEIFY_THRESHOLD) {
+                return new TreeBucket<>(newRoot, hash, size - 1, keyClass).toCollision();
+            }
+            return new TreeBucket<>(newRoot, hash, size - 1, keyClass);
+        }
+
+        /**
+         * @return the entries in order, which the iterators walk like the slots of a node
+         */
+        Object[] entries() {
+            Object[] result = entries;
+            if (result == null) {
+                result = new Object[size];
+                addInOrder(root, result, 0);
+                entries = result;
+            }
+            return result;
+        }
+
+        private static int addInOrder(TreeNode<?, ?> node, Object[] result, int index) {
+            while (node != null) {
+                index = addInOrder(node.left, result, index);
+                result[index++] = node;
+                node = node.right;
+            }
+            return index;
+        }
+
+        /**
+         * @return the entries in plain nodes, the tree's nodes would keep their subtrees alive
+         */
+        CollisionNode<K, V> toCollision() {
+            Object[] entries = entries();
+            Object[] plain = new Object[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                TreeNode<K, V> entry = (TreeNode<K, V>) entries[i];
+                plain[i] = entry(entry.key, entry.value, hash);
+            }
+            return new CollisionNode<>(hash, plain);
+        }
+    }
+
+    /**
+     * @return {@code collision} or, when it has grown past {@code TREEIFY_THRESHOLD} entries of
+     *         one Comparable class, a TreeBucket holding them
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Object treeifyIfLong(CollisionNode<K, V> collision, HashingStrategy<Object> strategy) {
+        Object[] entries = collision.entries;
+        Object first = ((EntryNode<?, ?>) entries[0]).key;
+        if ((strategy != HashingStrategies.DEFAULT && strategy != HashingStrategies.MURMUR3)
+                || entries.length <= TREEIFY_THRESHOLD || !(first instanceof Comparable)) {
+            return collision;
+        }
+        Class<?> keyClass = first.getClass();
+        TreeNode<K, V> root = null;
+        for (Object e : entries) {
+            EntryNode<K, V> entry = (EntryNode<K, V>) e;
+            if (entry.key.getClass() != keyClass) {
+                return collision;
+            }
+            root = insert(root, entry.key, entry.value(), collision.hash, strategy);
+            if (root == null) {
+                return collision; // compareTo isn't consistent with equals for these keys
+            }
+        }
+        return new TreeBucket<>(root, collision.hash, entries.length, keyClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object key, Object other) {
+        return ((Comparable<Object>) key).compareTo(other);
+    }
+
+    private static int height(TreeNode<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * @return the new root of the subtree, or null if {@code key} compares as 0 to a key it
+     *         isn't equal to
+     */
+    private static <K, V> TreeNode<K, V> insert(TreeNode<K, V> node, K key, V value, int hash, HashingStrategy<Object> strategy) {
+        if (node == null) {
+            return new TreeNode<>(key, value, hash, null, null);
+        }
+        int cmp = compare(key, node.key);
+        if (cmp == 0) {
+            return strategy.equals(node.key, key) ? new TreeNode<>(key, value, hash, node.left, node.right) : null;
+        }
+        if (cmp < 0) {
+            TreeNode<K, V> left = insert(node.left, key, value, hash, strategy);
+            return left == null ? null : balance(node.key, node.value, hash, left, node.right);
+        }
+        TreeNode<K, V> right = insert(node.right, key, value, hash, strategy);
+        return right == null ? null : balance(node.key, node.value, hash, node.left, right);
+    }
+
+    /**
+     * Removes {@code key}, which must be present.
+     */
+    private static <K, V> TreeNode<K, V> remove(TreeNode<K, V> node, Object key, int hash) {
+        int cmp = compare(key, node.key);
+        if (cmp < 0) {
+            return balance(node.key, node.value, hash, remove(node.left, key, hash), node.right);
+        }
+        if (cmp > 0) {
+            return balance(node.key, node.value, hash, node.left, remove(node.right, key, hash));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        TreeNode<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, hash, node.left, removeFirst(node.right, hash));
+    }
+
+    private static <K, V> TreeNode<K, V> removeFirst(TreeNode<K, V> node, int hash) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, hash, removeFirst(node.left, hash), node.right);
+    }
+
+    /**
+     * @return a node for {@code key} over {@code left} and {@code right}, whose heights differ by
+     *         at most 2, rotated so that they differ by at most 1
+     */
+    private static <K, V> TreeNode<K, V> balance(K key, V value, int hash, TreeNode<K, V> left, TreeNode<K, V> right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new TreeNode<>(left.key, left.value, hash,
+                        left.left, new TreeNode<>(key, value, hash, left.right, right));
+            }
+            TreeNode<K, V> middle = left.right;
+            return new TreeNode<>(middle.key, middle.value, hash,
+                    new TreeNode<>(left.key, left.value, hash, left.left, middle.left),
+                    new TreeNode<>(key, value, hash, middle.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new TreeNode<>(right.key, right.value, hash,
+                        new TreeNode<>(key, value, hash, left, right.left), right.right);
+            }
+            TreeNode<K, V> middle = right.left;
+            return new TreeNode<>(middle.key, middle.value, hash,
+                    new TreeNode<>(key, value, hash, left, middle.left),
+                    new TreeNode<>(right.key, right.value, hash, middle.right, right.right));
+        }
+        return new TreeNode<>(key, value, hash, left, right);
+    }
+
+    /**
+     * A node of the trie. Bit {@code i} of the bitmap is set when the slot for the 5 bit
+     * fragment {@code i} is in use, the slot itself lives at the population count of the lower
+     * bits. A slot holds either a child {@code BitmapNode}, a single {@link EntryNode}, a
+     * {@link CollisionNode} of entries that all share exactly the same hash or, once a collision
+     * gets long, a {@link TreeBucket}.
+     * <p>
+     * A node created by a {@link Builder} remembers the builder's owner token, while that token
+     * is current the builder may replace slots in place rather than copying the node.
+     */
+    private static final class BitmapNode<K, V> {
+        final int bitmap;
+        final Object[] slots;
+        final Object owner;
+
+        private BitmapNode(int bitmap, Object[] slots, Object owner) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+            this.owner = owner;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        BitmapNode<K, V> withSlot(int index, Object slot, Object owner) {
+            if (owner != null && owner == this.owner) {
+                slots[index] = slot;
+                return this;
             }
-            current = current.next;
-        } while (current != null);
-        return null;
+            Object[] newSlots = Arrays.copyOf(slots, slots.length);
+            newSlots[index] = slot;
+            return new BitmapNode<>(bitmap, newSlots, owner);
+        }
+
+        BitmapNode<K, V> insertSlot(int bit, int index, Object slot, Object owner) {
+            Object[] newSlots = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            newSlots[index] = slot;
+            System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+            return new BitmapNode<>(bitmap | bit, newSlots, owner);
+        }
+
+        BitmapNode<K, V> removeSlot(int bit, int index, Object owner) {
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new BitmapNode<>(bitmap & ~bit, newSlots, owner);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (table != null) {
+            return (V) table.get(key, strategy.hashCode(key), strategy);
+        }
+        EntryNode<K, V> found = size == 0 ? null : findEntry(root, key, strategy.hashCode(key), strategy);
+        return found == null ? null : found.value();
     }
 
     public boolean containsKey(Object key) {
@@ -122,143 +583,1064 @@ public class Hash<K, V> implements Iterable<Map.Entry<K, V>> {
         if (value == null)
             throw new NullPointerException("null values are not allowed");
 
-        int hashCode = hash(key);
-        int index = indexFor(hashCode, entries.length);
-        int size = this.size;
-        EntryNode[] newTable = Arrays.copyOf(entries, entries.length);
-        EntryNode<K, V> current = entries[index];
-        EntryNode<K, V> found = find(current, key);
-
-        if (found != null) {
-            // E1 -> E2 -> E3 -> E4
-            Deque<EntryNode<K, V>> deque = headUpTo(current, found);
-            EntryNode<K, V> replacement = new EntryNode<>(key, value, hashCode, found.next);
-            newTable[index] = prependEntries(deque, replacement);
-        } else {
-            // new head
-            newTable[index] = new EntryNode<>(key, value, hashCode, current);
-            size += 1;
+        int hashCode = strategy.hashCode(key);
+        EntryNode<K, V> found = findEntry(root, key, hashCode, strategy);
+        if (found != null && found.value() == value) {
+            return this; // nothing would change
         }
-        if (size > threshold) {
-            newTable = resize(newTable);
-        }
-        return new Hash<K, V>(newTable, size);
+        BitmapNode<K, V> newRoot = with(root, key, value, hashCode, 0, null, strategy);
+        return new Hash<K, V>(newRoot, found == null ? size + 1 : size, strategy, version + 1);
     }
 
     public Hash<K,V> without(Object key) {
         if (key == null)
             throw new NullPointerException("null keys are not allowed");
-        int hashCode = hash(key);
-        int index = indexFor(hashCode, entries.length);
-        EntryNode<K,V> current = entries[index];
-        EntryNode<K,V> found = find(current, key);
-
-        if (found != null) {
-            EntryNode[] newTable = Arrays.copyOf(entries, entries.length);
-            Deque<EntryNode<K, V>> deque = headUpTo(current, found);
-            newTable[index] = prependEntries(deque, found.next);
-            return new Hash<K,V>(newTable, size - 1);
+        int hashCode = strategy.hashCode(key);
+        if (findEntry(root, key, hashCode, strategy) == null) {
+            return this; // remove is a noop if not present
         }
-        return this; // remove is a noop if not present
+        Object newRoot = without(root, key, hashCode, 0, null, strategy);
+        return new Hash<K,V>(Hash.<K, V>asRoot(newRoot), size - 1, strategy, version + 1);
     }
 
-    private EntryNode<K, V> prependEntries(Deque<EntryNode<K, V>> deque, EntryNode<K, V> tail) {
-        EntryNode<K, V> current;EntryNode<K, V> newHead = tail, lastTail = tail;
-        while ((current = deque.pollLast()) != null) {
-            newHead = new EntryNode<>(current.key, current.value, current.hash, lastTail);
-            lastTail = newHead;
+    /**
+     * Returns a Hash with the same entries that also carries a flat, open addressed copy of them
+     * for {@link #get} to search. A lookup then reads a run of cached hash codes and at most a
+     * few keys, it never touches the trie's nodes. The copy costs O(n) to build and, at the
+     * default load factor of one half, 24 to 48 extra bytes per entry. Hashes derived through
+     * {@code with} or {@code without} don't inherit it, so it suits snapshots that are read many
+     * times between rare writes.
+     */
+    public Hash<K, V> compact() {
+        return compact(DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * As {@link #compact()}, with a table sized so that no more than {@code loadFactor} of it is
+     * in use. A higher load factor takes less memory but makes for longer probes, lookups of
+     * missing keys especially slow down past about 0.75.
+     *
+     * @throws IllegalArgumentException unless {@code 0 < loadFactor < 1}
+     */
+    public Hash<K, V> compact(double loadFactor) {
+        if (!(loadFactor > 0 && loadFactor < 1))
+            throw new IllegalArgumentException("loadFactor must be between 0 and 1, was " + loadFactor);
+        if (table != null && table.loadFactor == loadFactor) {
+            return this;
         }
-        return newHead;
+        return new Hash<>(root, size, new CompactTable(this, loadFactor), strategy, version);
+    }
+
+    public boolean isCompact() {
+        return table != null;
     }
 
-    private Deque<EntryNode<K, V>> headUpTo(EntryNode<K, V> current, EntryNode<K, V> found) {
-        Deque<EntryNode<K, V>> deque = new ArrayDeque<>();
-        while (current != found) {
-            deque.add(current);
-            current = current.next;
+    /**
+     * @return {@code counts} with the shape of this Hash filled in, found by walking the whole
+     *         trie
+     */
+    MapStats shape(MapStats counts) {
+        int[] totals = new int[4]; // nodes, slots in use, slots holding entries, longest collision
+        shape(root, totals);
+        double loadFactor = table != null
+                ? (double) size / table.hashes.length
+                : totals[0] == 0 ? 0 : (double) totals[1] / (totals[0] << BITS);
+        return counts.withShape(size, totals[0], loadFactor, totals[3], totals[2] == 0 ? 0 : (double) size / totals[2]);
+    }
+
+    private static void shape(Object slot, int[] totals) {
+        if (slot instanceof BitmapNode) {
+            Object[] slots = ((BitmapNode<?, ?>) slot).slots;
+            totals[0] += 1;
+            totals[1] += slots.length;
+            for (Object child : slots) {
+                shape(child, totals);
+            }
+            return;
         }
-        return deque;
+        int length = slot instanceof TreeBucket ? ((TreeBucket<?, ?>) slot).size
+                : slot instanceof CollisionNode ? ((CollisionNode<?, ?>) slot).entries.length
+                : 1;
+        totals[2] += 1;
+        totals[3] = Math.max(totals[3], length);
     }
 
-    private EntryNode[] resize(EntryNode[] table) {
-        EntryNode[] newTable = new EntryNode[table.length * 2];
+    /**
+     * @return an estimate of the bytes taken by the objects in {@code after} that it doesn't
+     *         share with {@code before}, which is what deriving it from {@code before} allocated
+     */
+    static long bytesCopied(Hash<?, ?> before, Hash<?, ?> after) {
+        if (after == before) {
+            return 0;
+        }
+        long bytes = HASH_BYTES + bytesCopied(before.root, after.root);
+        if (after.table != null && after.table != before.table) {
+            bytes += 2 * ARRAY_BYTES + 16 + 12L * after.table.hashes.length;
+        }
+        return bytes;
+    }
 
-        for (EntryNode<K, V> entry : entries) {
-            if (entry != null) {
-                EntryNode<K, V> current = entry;
-                do {
-                    int hashCode = current.hash;
-                    int index = indexFor(hashCode, newTable.length);
-                    newTable[index] = new EntryNode<K, V>(current.key, current.value, current.hash, newTable[index]);
-                } while ((current = current.next) != null);
+    private static long bytesCopied(Object before, Object after) {
+        if (after == before || after == null) {
+            return 0;
+        }
+        if (after instanceof BitmapNode) {
+            BitmapNode<?, ?> node = (BitmapNode<?, ?>) after;
+            BitmapNode<?, ?> previous = before instanceof BitmapNode ? (BitmapNode<?, ?>) before : null;
+            long bytes = NODE_BYTES + ARRAY_BYTES + 4 * node.slots.length;
+            if (previous != null && previous.bitmap == node.bitmap) { // the usual case, the slots line up
+                for (int i = 0; i < node.slots.length; i++) {
+                    if (node.slots[i] != previous.slots[i]) {
+                        bytes += bytesCopied(previous.slots[i], node.slots[i]);
+                    }
+                }
+                return bytes;
+            }
+            for (int remaining = node.bitmap; remaining != 0; remaining &= remaining - 1) {
+                int bit = Integer.lowestOneBit(remaining);
+                Object previousSlot = previous == null || (previous.bitmap & bit) == 0 ? null : previous.slots[previous.index(bit)];
+                bytes += bytesCopied(previousSlot, node.slots[node.index(bit)]);
             }
+            return bytes;
         }
-        return newTable;
+        if (after instanceof TreeBucket) {
+            TreeNode<?, ?> previousRoot = before instanceof TreeBucket ? ((TreeBucket<?, ?>) before).root : null;
+            return TREE_BUCKET_BYTES + treeBytesCopied(previousRoot, ((TreeBucket<?, ?>) after).root);
+        }
+        if (after instanceof CollisionNode) {
+            // the entries it shares with the previous collision, or the entry it grew from, aren't copied
+            Object[] entries = ((CollisionNode<?, ?>) after).entries;
+            List<Object> previous = before instanceof CollisionNode
+                    ? Arrays.asList(((CollisionNode<?, ?>) before).entries)
+                    : Collections.singletonList(before);
+            long bytes = COLLISION_BYTES + ARRAY_BYTES + 4 * entries.length;
+            for (Object entry : entries) {
+                if (!previous.contains(entry)) { // entries don't override equals, so this is by identity
+                    bytes += ENTRY_BYTES;
+                }
+            }
+            return bytes;
+        }
+        return ENTRY_BYTES;
     }
 
-    private EntryNode<K,V> find(EntryNode head, Object key) {
-        if (head == null) {
+    /**
+     * A tree node found by key in the previous tree is shared along with its whole subtree.
+     */
+    private static long treeBytesCopied(TreeNode<?, ?> before, TreeNode<?, ?> after) {
+        if (after == null) {
+            return 0;
+        }
+        TreeNode<?, ?> previous = before;
+        while (previous != null && previous != after) {
+            int cmp = compare(after.key, previous.key);
+            previous = cmp < 0 ? previous.left : cmp > 0 ? previous.right : null;
+        }
+        if (previous == after) {
+            return 0;
+        }
+        return TREE_NODE_BYTES + treeBytesCopied(before, after.left) + treeBytesCopied(before, after.right);
+    }
+
+    /**
+     * Entries laid out for linear probing at a load factor of at most {@code loadFactor}, in the
+     * smallest power of two capacity that allows it. Each slot's hash code is cached in
+     * {@code hashes}, with zero marking an empty slot, so a probe only reads a key when the hash
+     * codes already match.
+     */
+    private static final class CompactTable {
+        final int[] hashes;
+        final Object[] keysAndValues;
+        final double loadFactor;
+
+        CompactTable(Hash<?, ?> hash, double loadFactor) {
+            this.loadFactor = loadFactor;
+            long minimum = Math.max((long) Math.ceil(Math.max(hash.size, 1) / loadFactor), hash.size + 1L); // always an empty slot
+            int capacity = Integer.highestOneBit((int) Math.min(minimum - 1, 1 << 29)) << 1;
+            hashes = new int[capacity];
+            keysAndValues = new Object[capacity * 2];
+            int mask = capacity - 1;
+            for (Map.Entry<?, ?> entry : hash) {
+                EntryNode<?, ?> node = (EntryNode<?, ?>) entry;
+                int stored = stored(node.hash);
+                int index = stored & mask;
+                while (hashes[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                hashes[index] = stored;
+                keysAndValues[index << 1] = node.key;
+                keysAndValues[(index << 1) + 1] = node.value();
+            }
+        }
+
+        Object get(Object key, int hashCode, HashingStrategy<Object> strategy) {
+            int stored = stored(hashCode);
+            int mask = hashes.length - 1;
+            int index = stored & mask;
+            int current;
+            while ((current = hashes[index]) != 0) {
+                if (current == stored && strategy.equals(keysAndValues[index << 1], key)) {
+                    return keysAndValues[(index << 1) + 1];
+                }
+                index = (index + 1) & mask;
+            }
             return null;
         }
-        do {
-            if (eq(head.key, key)) {
-                return head;
+
+        private static int stored(int hashCode) {
+            return hashCode == 0 ? 1 : hashCode; // zero is kept for empty slots
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> EntryNode<K, V> findEntry(BitmapNode<K, V> root, Object key, int hashCode, HashingStrategy<Object> strategy) {
+        BitmapNode<K, V> node = root;
+        int shift = 0;
+        for (;;) {
+            int bit = bitFor(hashCode, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[node.index(bit)];
+            if (slot instanceof BitmapNode) {
+                node = (BitmapNode<K, V>) slot;
+                shift += BITS;
+            } else if (slot instanceof EntryNode) {
+                EntryNode<K, V> entry = (EntryNode<K, V>) slot;
+                return entry.hash == hashCode && strategy.equals(entry.key, key) ? entry : null;
+            } else if (slot instanceof CollisionNode) {
+                CollisionNode<K, V> collision = (CollisionNode<K, V>) slot;
+                return collision.hash == hashCode ? collision.find(key, strategy) : null;
+            } else {
+                TreeBucket<K, V> bucket = (TreeBucket<K, V>) slot;
+                return bucket.hash == hashCode ? bucket.find(key, strategy) : null;
+            }
+        }
+    }
+
+    /**
+     * Looks {@code key} up in a slot found at {@code shift}, which may be a node, an entry, a
+     * CollisionNode, a TreeBucket or null.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> EntryNode<K, V> findEntry(Object slot, Object key, int hashCode, int shift, HashingStrategy<Object> strategy) {
+        while (slot instanceof BitmapNode) {
+            BitmapNode<K, V> node = (BitmapNode<K, V>) slot;
+            int bit = bitFor(hashCode, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            slot = node.slots[node.index(bit)];
+            shift += BITS;
+        }
+        if (slot instanceof TreeBucket) {
+            TreeBucket<K, V> bucket = (TreeBucket<K, V>) slot;
+            return bucket.hash == hashCode ? bucket.find(key, strategy) : null;
+        }
+        if (slot instanceof CollisionNode) {
+            CollisionNode<K, V> collision = (CollisionNode<K, V>) slot;
+            return collision.hash == hashCode ? collision.find(key, strategy) : null;
+        }
+        EntryNode<K, V> entry = (EntryNode<K, V>) slot;
+        return entry != null && entry.hash == hashCode && strategy.equals(entry.key, key) ? entry : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void forEachEntry(Object slot, Consumer<? super EntryNode<K, V>> action) {
+        if (slot instanceof BitmapNode) {
+            for (Object child : ((BitmapNode<K, V>) slot).slots) {
+                forEachEntry(child, action);
+            }
+        } else if (slot instanceof CollisionNode || slot instanceof TreeBucket) {
+            for (Object entry : entriesOf(slot)) {
+                action.accept((EntryNode<K, V>) entry);
+            }
+        } else if (slot != null) {
+            action.accept((EntryNode<K, V>) slot);
+        }
+    }
+
+    /**
+     * @return the entries of a CollisionNode or TreeBucket, which are walked like the slots of a node
+     */
+    private static Object[] entriesOf(Object bucket) {
+        return bucket instanceof CollisionNode ? ((CollisionNode<?, ?>) bucket).entries : ((TreeBucket<?, ?>) bucket).entries();
+    }
+
+    /**
+     * @return the hash shared by the entries in a slot that isn't a node
+     */
+    private static int hashOf(Object slot) {
+        return slot instanceof EntryNode ? ((EntryNode<?, ?>) slot).hash
+                : slot instanceof CollisionNode ? ((CollisionNode<?, ?>) slot).hash
+                : ((TreeBucket<?, ?>) slot).hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> BitmapNode<K, V> with(BitmapNode<K, V> node, K key, V value, int hashCode, int shift, Object owner,
+                                                HashingStrategy<Object> strategy) {
+        int bit = bitFor(hashCode, shift);
+        int index = node.index(bit);
+        if ((node.bitmap & bit) == 0) {
+            return node.insertSlot(bit, index, entry(key, value, hashCode), owner);
+        }
+        Object slot = node.slots[index];
+        if (slot instanceof BitmapNode) {
+            BitmapNode<K, V> child = (BitmapNode<K, V>) slot;
+            return node.withSlot(index, with(child, key, value, hashCode, shift + BITS, owner, strategy), owner);
+        }
+        if (slot instanceof TreeBucket) {
+            TreeBucket<K, V> bucket = (TreeBucket<K, V>) slot;
+            if (bucket.hash == hashCode) {
+                return node.withSlot(index, bucket.with(key, value, strategy), owner);
+            }
+        } else if (slot instanceof CollisionNode) {
+            CollisionNode<K, V> collision = (CollisionNode<K, V>) slot;
+            if (collision.hash == hashCode) {
+                return node.withSlot(index, collision.with(key, value, strategy), owner);
+            }
+        } else {
+            EntryNode<K, V> existing = (EntryNode<K, V>) slot;
+            if (existing.hash == hashCode) {
+                Object replacement = strategy.equals(existing.key, key)
+                        ? entry(key, value, hashCode)
+                        : new CollisionNode<K, V>(hashCode, new Object[]{existing, entry(key, value, hashCode)});
+                return node.withSlot(index, replacement, owner);
+            }
+        }
+        // two different hashes share this slot, push them both down a level
+        EntryNode<K, V> entry = entry(key, value, hashCode);
+        return node.withSlot(index, split(slot, entry, shift + BITS, owner), owner);
+    }
+
+    /**
+     * @param first an entry, a CollisionNode or a TreeBucket
+     */
+    private static <K, V> BitmapNode<K, V> split(Object first, EntryNode<K, V> second, int shift, Object owner) {
+        int firstBit = bitFor(hashOf(first), shift);
+        int secondBit = bitFor(second.hash, shift);
+        if (firstBit == secondBit) {
+            return new BitmapNode<>(firstBit, new Object[]{split(first, second, shift + BITS, owner)}, owner);
+        }
+        Object[] slots = Integer.compareUnsigned(firstBit, secondBit) < 0 // bit 31 is negative
+                ? new Object[]{first, second}
+                : new Object[]{second, first};
+        return new BitmapNode<>(firstBit | secondBit, slots, owner);
+    }
+
+    /**
+     * @return the replacement for {@code node}: a {@code BitmapNode}, a single entry, CollisionNode
+     *         or TreeBucket that the parent can hold directly or null when nothing is left
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Object without(BitmapNode<K, V> node, Object key, int hashCode, int shift, Object owner,
+                                         HashingStrategy<Object> strategy) {
+        int bit = bitFor(hashCode, shift);
+        int index = node.index(bit);
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof BitmapNode) {
+            replacement = without((BitmapNode<K, V>) slot, key, hashCode, shift + BITS, owner, strategy);
+        } else if (slot instanceof TreeBucket) {
+            replacement = ((TreeBucket<K, V>) slot).without(key, strategy);
+        } else if (slot instanceof CollisionNode) {
+            replacement = ((CollisionNode<K, V>) slot).without(key, strategy);
+        } else {
+            replacement = null; // the entry being removed
+        }
+
+        if (replacement == null) {
+            if (node.slots.length == 1) {
+                return null;
+            }
+            if (shift > 0 && node.slots.length == 2 && !(node.slots[index ^ 1] instanceof BitmapNode)) {
+                return node.slots[index ^ 1]; // collapse into the parent
             }
-            head = head.next;
-        } while (head != null);
-        return null;
+            return node.removeSlot(bit, index, owner);
+        }
+        if (shift > 0 && node.slots.length == 1 && !(replacement instanceof BitmapNode)) {
+            return replacement;
+        }
+        return node.withSlot(index, replacement, owner);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> BitmapNode<K, V> asRoot(Object node) {
+        if (node == null) {
+            return EMPTY_NODE;
+        }
+        return (BitmapNode<K, V>) node; // the root never collapses
     }
 
     public int size() {
         return size;
     }
 
-    private boolean eq(Object o1, Object o2) {
+    private static boolean eq(Object o1, Object o2) {
         return o1 == o2 || o1.equals(o2);
     }
 
-    private int indexFor(int hashCode, int length) {
-        return hashCode & (length - 1);
+    private static int bitFor(int hashCode, int shift) {
+        return 1 << ((hashCode >>> shift) & MASK);
     }
 
-    private static int hash(Object key) {
+    /**
+     * The spread hash code the trie is indexed by, the trie consumes it from the low bits up.
+     */
+    static int hash(Object key) {
         int h;
         return (h = key.hashCode()) ^ (h >>> 16);
     }
 
+    /**
+     * @return a read only view of the entries
+     */
     Set<Map.Entry<K, V>> entrySet() {
-        LinkedHashSet<Map.Entry<K, V>> entrySet = new LinkedHashSet<>();
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return Hash.this.iterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
 
-        for (EntryNode<K, V> entry : entries) {
-            if (entry != null) {
-                EntryNode<K, V> current = entry;
-                do {
-                    entrySet.add(current);
-                } while ((current = current.next) != null);
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) return false;
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                Object value = entry.getKey() == null ? null : get(entry.getKey());
+                return value != null && value.equals(entry.getValue());
             }
-        }
-        return Collections.unmodifiableSet(entrySet);
+
+            @Override
+            public Spliterator<Map.Entry<K, V>> spliterator() {
+                return Hash.this.spliterator();
+            }
+        };
     }
 
     public Iterator<Map.Entry<K, V>> iterator() {
-        return new AbstractIterator<Map.Entry<K,V>>() {
-            private int index = -1;
-            private EntryNode<K, V> last = null;
+        return new EntryIterator<>(this);
+    }
 
-            @Override
-            protected Map.Entry<K, V> computeNext() {
-                if (last != null && last.next != null) {
-                    return last = last.next; // move next and return it
+    /**
+     * Performs {@code action} for each entry, walking the trie directly.
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        forEach(root, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void forEach(BitmapNode<K, V> node, BiConsumer<? super K, ? super V> action) {
+        for (Object slot : node.slots) {
+            if (slot instanceof BitmapNode) {
+                forEach((BitmapNode<K, V>) slot, action);
+            } else if (slot instanceof EntryNode) {
+                EntryNode<K, V> entry = (EntryNode<K, V>) slot;
+                action.accept(entry.key, entry.value());
+            } else {
+                for (Object entry : entriesOf(slot)) {
+                    action.accept(((EntryNode<K, V>) entry).key, ((EntryNode<K, V>) entry).value());
                 }
-                for (index ++; index < entries.length; index++) {
-                    EntryNode<K, V> entry = entries[index];
-                    if (entry != null) {
-                        return last = entry;
+            }
+        }
+    }
+
+    /**
+     * Walks the trie keeping an explicit stack of the nodes on the path to the current slot.
+     * {@link #remove()} isn't supported, a subclass that owns the Hash may add it.
+     */
+    static class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] nodes = new Object[MAX_DEPTH + 1][];
+        private final int[] indexes = new int[MAX_DEPTH + 1];
+        private int depth = 0;
+        private EntryNode<K, V> next;
+
+        EntryIterator(Hash<K, V> hash) {
+            nodes[0] = hash.root.slots;
+            indexes[0] = -1;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (depth >= 0) {
+                Object[] slots = nodes[depth];
+                int index = ++indexes[depth];
+                if (index >= slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = slots[index];
+                if (slot instanceof BitmapNode) {
+                    depth++;
+                    nodes[depth] = ((BitmapNode<K, V>) slot).slots;
+                    indexes[depth] = -1;
+                } else if (slot instanceof CollisionNode || slot instanceof TreeBucket) {
+                    depth++; // walk its entries as though they were the slots of a node
+                    nodes[depth] = entriesOf(slot);
+                    indexes[depth] = -1;
+                } else {
+                    next = (EntryNode<K, V>) slot;
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            EntryNode<K, V> entry = next;
+            if (entry == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return entry;
+        }
+    }
+
+    /**
+     * @return a spliterator that splits by ranges of the root's slots, and then of the slots of a
+     *         single child when only one is left, so a parallel stream gets an even share of the
+     *         trie per task without the snapshot being copied. It is {@code SIZED} until split,
+     *         the sizes of the parts are estimates.
+     */
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return new EntrySpliterator<>(root.slots, 0, root.slots.length, size, true);
+    }
+
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<Map.Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Performs {@code action} for each entry, in parallel when there are at least
+     * {@code parallelismThreshold} entries. Like {@link java.util.concurrent.ConcurrentHashMap}'s
+     * bulk operations a threshold of {@code Long.MAX_VALUE} keeps it sequential and 1 makes it as
+     * parallel as possible.
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        stream(parallelismThreshold).forEach(entry -> action.accept(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * @return the result of combining the non null {@code transformer} results of every entry
+     *         with {@code reducer}, or null if there weren't any
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        Objects.requireNonNull(transformer);
+        Objects.requireNonNull(reducer);
+        return stream(parallelismThreshold)
+                .<U>map(entry -> transformer.apply(entry.getKey(), entry.getValue()))
+                .filter(Objects::nonNull)
+                .reduce(reducer::apply)
+                .orElse(null);
+    }
+
+    /**
+     * @return a non null result of {@code searchFunction} for some entry, or null if there is
+     *         none. Once a result is found the remaining entries are skipped.
+     */
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        Objects.requireNonNull(searchFunction);
+        return stream(parallelismThreshold)
+                .<U>map(entry -> searchFunction.apply(entry.getKey(), entry.getValue()))
+                .filter(Objects::nonNull)
+                .findAny()
+                .orElse(null);
+    }
+
+    private Stream<Map.Entry<K, V>> stream(long parallelismThreshold) {
+        return StreamSupport.stream(spliterator(), size >= parallelismThreshold);
+    }
+
+    /**
+     * Covers the slots {@code [index, end)} of one node. While walking the subtrees under
+     * those slots it keeps an explicit stack, as the iterator does.
+     */
+    private static final class EntrySpliterator<K, V> implements Spliterator<Map.Entry<K, V>> {
+        private Object[] slots;
+        private int index;
+        private int end;
+        private long estimate;
+        private boolean exact;
+
+        private Object[][] nodes; // the subtree being walked, created on first use
+        private int[] indexes;
+        private int depth = 0;
+
+        EntrySpliterator(Object[] slots, int index, int end, long estimate, boolean exact) {
+            this.slots = slots;
+            this.index = index;
+            this.end = end;
+            this.estimate = estimate;
+            this.exact = exact;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            for (;;) {
+                Object slot;
+                if (depth > 0) {
+                    Object[] current = nodes[depth];
+                    int i = ++indexes[depth];
+                    if (i >= current.length) {
+                        depth--;
+                        continue;
                     }
+                    slot = current[i];
+                } else if (index < end) {
+                    slot = slots[index++];
+                } else {
+                    return false;
                 }
-                return endOfData();
+                if (slot instanceof EntryNode) {
+                    action.accept((EntryNode<K, V>) slot);
+                    return true;
+                }
+                push(slot);
             }
-        };
+        }
+
+        @SuppressWarnings("unchecked")
+        private void push(Object slot) {
+            if (nodes == null) {
+                nodes = new Object[MAX_DEPTH + 1][];
+                indexes = new int[MAX_DEPTH + 1];
+            }
+            depth++;
+            nodes[depth] = slot instanceof BitmapNode
+                    ? ((BitmapNode<K, V>) slot).slots
+                    : entriesOf(slot); // its entries as though they were slots
+            indexes[depth] = -1;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            while (depth > 0) {
+                tryAdvance(action); // finish the subtree in progress
+            }
+            for (; index < end; index++) {
+                Hash.<K, V>forEachEntry(slots[index], action);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            if (depth > 0) {
+                return null;
+            }
+            while (end - index == 1 && slots[index] instanceof BitmapNode) {
+                slots = ((BitmapNode<K, V>) slots[index]).slots; // split the only child instead
+                index = 0;
+                end = slots.length;
+            }
+            if (end - index < 2) {
+                return null;
+            }
+            int middle = (index + end) >>> 1;
+            long half = estimate >>> 1;
+            EntrySpliterator<K, V> prefix = new EntrySpliterator<>(slots, index, middle, half, false);
+            index = middle;
+            estimate -= half;
+            exact = false;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return (exact ? SIZED : 0) | DISTINCT | IMMUTABLE | NONNULL;
+        }
+    }
+
+    /**
+     * Receives the differences between two Hashes, see {@link #diff(Hash, DiffVisitor)}.
+     */
+    public interface DiffVisitor<K, V> {
+        /** {@code key} is only present in the other Hash */
+        void added(K key, V value);
+
+        /** {@code key} is only present in this Hash */
+        void removed(K key, V value);
+
+        /** {@code key} is present in both but with values that are not equal */
+        void changed(K key, V oldValue, V newValue);
+    }
+
+    /**
+     * The differences between two Hashes, as three Hashes of their own.
+     */
+    public static final class Diff<K, V> {
+        private final Hash<K, V> added;
+        private final Hash<K, V> removed;
+        private final Hash<K, V> changed;
+
+        private Diff(Hash<K, V> added, Hash<K, V> removed, Hash<K, V> changed) {
+            this.added = added;
+            this.removed = removed;
+            this.changed = changed;
+        }
+
+        /** @return the entries only present in the other Hash */
+        public Hash<K, V> added() {
+            return added;
+        }
+
+        /** @return the entries only present in this Hash */
+        public Hash<K, V> removed() {
+            return removed;
+        }
+
+        /** @return the keys present in both with a different value, mapped to the other Hash's value */
+        public Hash<K, V> changed() {
+            return changed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Diff{added=" + added.entrySet() + ", removed=" + removed.entrySet() + ", changed=" + changed.entrySet() + "}";
+        }
+    }
+
+    /**
+     * Reports every difference between this Hash and {@code other} to {@code visitor}.
+     * <p>
+     * The two tries are walked side by side and a subtree or collision that both of them share is
+     * skipped without looking inside it. Two versions of a Hash where one was derived from the
+     * other through {@code with}, {@code without} or a {@link Builder} share everything off the
+     * paths to the k keys that differ, so comparing them costs about O(k log n) rather than O(n).
+     */
+    public void diff(Hash<K, V> other, DiffVisitor<? super K, ? super V> visitor) {
+        diff(root, sameStrategy(other).root, 0, visitor, strategy);
+    }
+
+    /**
+     * @return the differences between this Hash and {@code other}, see {@link #diff(Hash, DiffVisitor)}
+     */
+    public Diff<K, V> diff(Hash<K, V> other) {
+        Builder<K, V> added = newBuilder(strategy);
+        Builder<K, V> removed = newBuilder(strategy);
+        Builder<K, V> changed = newBuilder(strategy);
+        diff(other, new DiffVisitor<K, V>() {
+            @Override
+            public void added(K key, V value) {
+                added.put(key, value);
+            }
+
+            @Override
+            public void removed(K key, V value) {
+                removed.put(key, value);
+            }
+
+            @Override
+            public void changed(K key, V oldValue, V newValue) {
+                changed.put(key, newValue);
+            }
+        });
+        return new Diff<>(added.build(), removed.build(), changed.build());
+    }
+
+    /**
+     * @return a Hash with the entries of both this Hash and {@code other}. For a key present in
+     *         both with values that are not equal the value is {@code merge(thisValue, otherValue)},
+     *         when that is null the key is left out. Shared subtrees are skipped as in
+     *         {@link #diff(Hash, DiffVisitor)}.
+     */
+    public Hash<K, V> union(Hash<K, V> other, BiFunction<? super V, ? super V, ? extends V> merge) {
+        if (isEmpty()) {
+            return sameStrategy(other);
+        }
+        Builder<K, V> builder = toBuilder();
+        diff(other, new DiffVisitor<K, V>() {
+            @Override
+            public void added(K key, V value) {
+                builder.put(key, value);
+            }
+
+            @Override
+            public void removed(K key, V value) {
+            }
+
+            @Override
+            public void changed(K key, V oldValue, V newValue) {
+                V merged = merge.apply(oldValue, newValue);
+                if (merged == null) {
+                    builder.remove(key);
+                } else {
+                    builder.put(key, merged);
+                }
+            }
+        });
+        return builder.build();
+    }
+
+    /**
+     * @return the entries of this Hash whose keys are also present in {@code other}
+     */
+    public Hash<K, V> intersect(Hash<K, ?> other) {
+        Builder<K, V> builder = toBuilder();
+        diff(root, sameStrategy(other).root, 0, new DiffVisitor<K, Object>() {
+            @Override
+            public void added(K key, Object value) {
+            }
+
+            @Override
+            public void removed(K key, Object value) {
+                builder.remove(key);
+            }
+
+            @Override
+            public void changed(K key, Object oldValue, Object newValue) {
+            }
+        }, strategy);
+        return builder.build();
+    }
+
+    /**
+     * @return the entries of this Hash whose keys are not present in {@code other}
+     */
+    public Hash<K, V> difference(Hash<K, ?> other) {
+        Builder<K, V> builder = newBuilder(strategy);
+        diff(root, sameStrategy(other).root, 0, new DiffVisitor<K, Object>() {
+            @Override
+            public void added(K key, Object value) {
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public void removed(K key, Object value) {
+                builder.put(key, (V) value);
+            }
+
+            @Override
+            public void changed(K key, Object oldValue, Object newValue) {
+            }
+        }, strategy);
+        return builder.size() == size ? this : builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <H extends Hash<?, ?>> H sameStrategy(H other) {
+        Hash<?, ?> hash = other;
+        if (hash.strategy != strategy) {
+            throw new IllegalArgumentException(
+                    "Hashes using different hashing strategies can't be compared, " + strategy + " and " + hash.strategy);
+        }
+        return other;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void diff(Object left, Object right, int shift, DiffVisitor<? super K, ? super V> visitor,
+                                    HashingStrategy<Object> strategy) {
+        if (left == right) {
+            return; // shared by both, nothing in here can differ
+        }
+        if (left instanceof BitmapNode && right instanceof BitmapNode) {
+            BitmapNode<K, V> leftNode = (BitmapNode<K, V>) left;
+            BitmapNode<K, V> rightNode = (BitmapNode<K, V>) right;
+            int remaining = leftNode.bitmap | rightNode.bitmap;
+            while (remaining != 0) {
+                int bit = Integer.lowestOneBit(remaining);
+                remaining ^= bit;
+                Object leftSlot = (leftNode.bitmap & bit) == 0 ? null : leftNode.slots[leftNode.index(bit)];
+                Object rightSlot = (rightNode.bitmap & bit) == 0 ? null : rightNode.slots[rightNode.index(bit)];
+                diff(leftSlot, rightSlot, shift + BITS, visitor, strategy);
+            }
+            return;
+        }
+        // at least one side is an entry, a collision or empty, look each entry up on the other side
+        Hash.<K, V>forEachEntry(left, entry -> {
+            EntryNode<K, V> match = findEntry(right, entry.key, entry.hash, shift, strategy);
+            if (match == null) {
+                visitor.removed(entry.key, entry.value());
+            } else if (!eq(entry.value(), match.value())) {
+                visitor.changed(entry.key, entry.value(), match.value());
+            }
+        });
+        Hash.<K, V>forEachEntry(right, entry -> {
+            if (findEntry(left, entry.key, entry.hash, shift, strategy) == null) {
+                visitor.added(entry.key, entry.value());
+            }
+        });
+    }
+
+    /**
+     * Accumulates a batch of changes that result in a single new Hash. Nodes the builder creates
+     * are edited in place by later changes, so building a Hash of n entries costs about n
+     * inserts into a mutable trie rather than n persistent copies. {@link #build()} hands those
+     * nodes over to the new Hash in O(1), any further changes through the builder copy them
+     * again.
+     * <p>
+     * A builder is not thread safe, it should be owned by one thread at a time.
+     */
+    public static final class Builder<K, V> {
+        private Object owner = new Object();
+        private BitmapNode<K, V> root;
+        private int size;
+        private Hash<K, V> built;
+        private final HashingStrategy<Object> strategy;
+        private long version; // of the last Hash built
+
+        private Builder(Hash<K, V> hash) {
+            this.root = hash.root;
+            this.size = hash.size;
+            this.built = hash;
+            this.strategy = hash.strategy;
+            this.version = hash.version;
+        }
+
+        public Builder<K, V> put(K key, V value) {
+            if (key == null)
+                throw new NullPointerException("null keys are not allowed");
+            if (value == null)
+                throw new NullPointerException("null values are not allowed");
+
+            int hashCode = strategy.hashCode(key);
+            EntryNode<K, V> found = findEntry(root, key, hashCode, strategy);
+            if (found != null && found.value() == value) {
+                return this;
+            }
+            root = with(root, key, value, hashCode, 0, owner, strategy);
+            if (found == null) {
+                size += 1;
+            }
+            built = null;
+            return this;
+        }
+
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> map) {
+            for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public Builder<K, V> putAll(Hash<? extends K, ? extends V> hash) {
+            for (Map.Entry<? extends K, ? extends V> entry : hash) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public Builder<K, V> remove(Object key) {
+            if (key == null)
+                throw new NullPointerException("null keys are not allowed");
+            int hashCode = strategy.hashCode(key);
+            if (findEntry(root, key, hashCode, strategy) == null) {
+                return this;
+            }
+            root = Hash.<K, V>asRoot(without(root, key, hashCode, 0, owner, strategy));
+            size -= 1;
+            built = null;
+            return this;
+        }
+
+        public Builder<K, V> removeAll(Iterable<?> keys) {
+            for (Object key : keys) {
+                remove(key);
+            }
+            return this;
+        }
+
+        public V get(Object key) {
+            EntryNode<K, V> found = size == 0 ? null : findEntry(root, key, strategy.hashCode(key), strategy);
+            return found == null ? null : found.value();
+        }
+
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the Hash holding every change made so far, this is the Hash the builder was
+         *         created from when none of the changes had any effect
+         */
+        public Hash<K, V> build() {
+            if (built == null) {
+                owner = new Object(); // the nodes now belong to the Hash, stop editing them
+                built = new Hash<>(root, size, strategy, version + 1);
+                version = built.version;
+            }
+            return built;
+        }
+    }
+
+    /**
+     * @return a {@link Collector} that builds a Hash through a single {@link Builder}, when
+     *         several elements map to the same key the last one wins
+     */
+    public static <T, K, V> Collector<T, ?, Hash<K, V>> toHash(
+            Function<? super T, ? extends K> keyMapper,
+            Function<? super T, ? extends V> valueMapper) {
+        return Collector.of(
+                Hash::<K, V>newBuilder,
+                (builder, element) -> builder.put(keyMapper.apply(element), valueMapper.apply(element)),
+                (left, right) -> left.putAll(right.build()),
+                Builder::build);
+    }
+
+    /**
+     * @return a {@link Collector} that gathers map entries in to a Hash
+     */
+    public static <K, V> Collector<Map.Entry<? extends K, ? extends V>, ?, Hash<K, V>> toHash() {
+        return toHash(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Writes the entries out in a compact binary form that {@link #readFrom} reads back, see
+     * {@link HashFormat}. The stream is left open.
+     */
+    public void writeTo(OutputStream out, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        HashFormat.write(this, Channels.newChannel(out), keyCodec, valueCodec);
+    }
+
+    public void writeTo(WritableByteChannel channel, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        HashFormat.write(this, channel, keyCodec, valueCodec);
+    }
+
+    /**
+     * Reads back a Hash written by {@link #writeTo}, in one pass through a single builder. The
+     * stream is read in chunks so it may be consumed beyond the end of the Hash, and the codecs
+     * must copy what they decode, {@link Codecs#BYTE_BUFFER} is not suitable.
+     */
+    public static <K, V> Hash<K, V> readFrom(InputStream in, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return HashFormat.read(Channels.newChannel(in), keyCodec, valueCodec, Hash.<K, V>newBuilder());
+    }
+
+    public static <K, V> Hash<K, V> readFrom(ReadableByteChannel channel, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return HashFormat.read(channel, keyCodec, valueCodec, Hash.<K, V>newBuilder());
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,112 @@
+package com.logicalpractice.kindafasthash;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+/**
+ * The binary form behind {@link Hash#writeTo} and {@link Hash#readFrom}, all ints big endian:
+ * <pre>
+ *   header   magic, version, size
+ *   entries  size records of key length, key bytes, value length, value bytes
+ * </pre>
+ * Both directions go through a single reused buffer. Writing streams the entries straight out
+ * of the trie, reading decodes each key and value from where it landed in the buffer and puts
+ * it in to one {@link Hash.Builder}, so a Hash of n entries is rebuilt in a single O(n) pass.
+ */
+final class HashFormat {
+    private static final int MAGIC = 0x4B464853; // "KFHS"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private HashFormat() {
+    }
+
+    static <K, V> void write(Hash<K, V> hash, WritableByteChannel channel,
+                             Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(hash.size());
+        for (Map.Entry<K, V> entry : hash) {
+            byte[] key = keyCodec.encode(entry.getKey());
+            byte[] value = valueCodec.encode(entry.getValue());
+            int length = 8 + key.length + value.length;
+            if (buffer.remaining() < length) {
+                writeFully(channel, buffer);
+                if (buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(Integer.highestOneBit(length) << 1);
+                }
+            }
+            buffer.putInt(key.length).put(key).putInt(value.length).put(value);
+        }
+        writeFully(channel, buffer);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads the entries in to {@code builder}, in chunks, so it may consume bytes from
+     * {@code channel} beyond the end of the Hash.
+     */
+    static <K, V> Hash<K, V> read(ReadableByteChannel channel, Codec<K> keyCodec, Codec<V> valueCodec,
+                                  Hash.Builder<K, V> builder) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip(); // nothing read yet
+
+        buffer = require(channel, buffer, 12);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a serialised Hash");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported Hash format version " + version);
+        }
+        int size = buffer.getInt();
+
+        for (int i = 0; i < size; i++) {
+            buffer = require(channel, buffer, 4);
+            int keyLength = buffer.getInt();
+            buffer = require(channel, buffer, keyLength + 4);
+            K key = keyCodec.decode(buffer, buffer.position(), keyLength);
+            buffer.position(buffer.position() + keyLength);
+
+            int valueLength = buffer.getInt();
+            buffer = require(channel, buffer, valueLength);
+            V value = valueCodec.decode(buffer, buffer.position(), valueLength);
+            buffer.position(buffer.position() + valueLength);
+
+            builder.put(key, value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a buffer, {@code buffer} itself unless it was too small, with at least
+     *         {@code needed} bytes remaining
+     */
+    private static ByteBuffer require(ReadableByteChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(needed) << 1).put(buffer);
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("serialised Hash ended early");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
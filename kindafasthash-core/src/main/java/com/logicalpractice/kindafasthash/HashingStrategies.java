@@ -0,0 +1,167 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.Arrays;
+
+/**
+ * The built in {@link HashingStrategy}s.
+ */
+public final class HashingStrategies {
+
+    private HashingStrategies() {
+    }
+
+    /**
+     * The keys' own {@code hashCode} with its high half folded in to the low half, and
+     * {@code equals}. Used when no strategy is given.
+     */
+    public static final HashingStrategy<Object> DEFAULT = new HashingStrategy<Object>() {
+        @Override
+        public int hashCode(Object key) {
+            return Hash.hash(key);
+        }
+
+        @Override
+        public boolean equals(Object key, Object other) {
+            return key == other || key.equals(other);
+        }
+
+        @Override
+        public String toString() {
+            return "DEFAULT";
+        }
+    };
+
+    /**
+     * The keys' own {@code hashCode} put through murmur3's finalizer, so every bit of it affects
+     * the low bits the trie uses first. Keys whose hash codes only differ in a few bits, such
+     * as short numbered strings, spread evenly rather than piling up down one branch.
+     */
+    public static final HashingStrategy<Object> MURMUR3 = new HashingStrategy<Object>() {
+        @Override
+        public int hashCode(Object key) {
+            return Mixing.fmix32(key.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object key, Object other) {
+            return key == other || key.equals(other);
+        }
+
+        @Override
+        public String toString() {
+            return "MURMUR3";
+        }
+    };
+
+    /**
+     * Keys are the same only when they are the same object.
+     */
+    public static final HashingStrategy<Object> IDENTITY = new HashingStrategy<Object>() {
+        @Override
+        public int hashCode(Object key) {
+            return Mixing.fmix32(System.identityHashCode(key));
+        }
+
+        @Override
+        public boolean equals(Object key, Object other) {
+            return key == other;
+        }
+
+        @Override
+        public String toString() {
+            return "IDENTITY";
+        }
+    };
+
+    /**
+     * Byte arrays compared by their contents.
+     */
+    public static final HashingStrategy<byte[]> BYTE_ARRAY = new HashingStrategy<byte[]>() {
+        @Override
+        public int hashCode(byte[] key) {
+            return Mixing.fmix32(Arrays.hashCode(key));
+        }
+
+        @Override
+        public boolean equals(byte[] key, byte[] other) {
+            return Arrays.equals(key, other);
+        }
+
+        @Override
+        public String toString() {
+            return "BYTE_ARRAY";
+        }
+    };
+
+    /**
+     * Any {@link CharSequence}s compared by their characters, so a {@code String} and a
+     * {@code StringBuilder} holding the same text are the same key.
+     */
+    public static final HashingStrategy<CharSequence> CHAR_SEQUENCE = new HashingStrategy<CharSequence>() {
+        @Override
+        public int hashCode(CharSequence key) {
+            int h = 0;
+            for (int i = 0, length = key.length(); i < length; i++) {
+                h = 31 * h + key.charAt(i);
+            }
+            return Mixing.fmix32(h);
+        }
+
+        @Override
+        public boolean equals(CharSequence key, CharSequence other) {
+            int length = key.length();
+            if (other.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key.charAt(i) != other.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "CHAR_SEQUENCE";
+        }
+    };
+
+    /**
+     * {@link CharSequence}s compared by their characters ignoring case, in the manner of
+     * {@link String#equalsIgnoreCase}.
+     */
+    public static final HashingStrategy<CharSequence> CASE_INSENSITIVE = new HashingStrategy<CharSequence>() {
+        @Override
+        public int hashCode(CharSequence key) {
+            int h = 0;
+            for (int i = 0, length = key.length(); i < length; i++) {
+                h = 31 * h + fold(key.charAt(i));
+            }
+            return Mixing.fmix32(h);
+        }
+
+        @Override
+        public boolean equals(CharSequence key, CharSequence other) {
+            int length = key.length();
+            if (other.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (fold(key.charAt(i)) != fold(other.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private char fold(char c) {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+
+        @Override
+        public String toString() {
+            return "CASE_INSENSITIVE";
+        }
+    };
+}
@@ -0,0 +1,15 @@
+package com.logicalpractice.kindafasthash;
+
+/**
+ * Decides how a {@link Hash} hashes and compares its keys, in place of the keys' own
+ * {@code hashCode} and {@code equals}. See {@link HashingStrategies} for the common ones.
+ * <p>
+ * The trie consumes the hash code from its low bits up, so a strategy should return a code
+ * whose low bits are well mixed.
+ */
+public interface HashingStrategy<T> {
+
+    int hashCode(T key);
+
+    boolean equals(T key, T other);
+}
@@ -0,0 +1,254 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.Arrays;
+
+/**
+ * A persistent hash from primitive {@code long}s to primitive {@code long}s.
+ * <p>
+ * The layout follows {@link LongObjHash} except that the values get their own {@code long[]}
+ * and the children their own array, so neither keys nor values are ever boxed.
+ */
+public class LongLongHash {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Node EMPTY_NODE = new Node(0, 0, new long[0], new long[0], NO_CHILDREN);
+    private static final LongLongHash EMPTY_HASH = new LongLongHash(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private LongLongHash(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static LongLongHash emptyHash() {
+        return EMPTY_HASH;
+    }
+
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private static final class Node {
+        final int dataMap;
+        final int nodeMap;
+        final long[] keys;
+        final long[] values;
+        final Node[] children;
+
+        Node(int dataMap, int nodeMap, long[] keys, long[] values, Node[] children) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+        }
+
+        int dataIndex(int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        int nodeIndex(int bit) {
+            return Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        Node withValue(int index, long value) {
+            long[] newValues = Arrays.copyOf(values, values.length);
+            newValues[index] = value;
+            return new Node(dataMap, nodeMap, keys, newValues, children);
+        }
+
+        Node withChild(int index, Node child) {
+            Node[] newChildren = Arrays.copyOf(children, children.length);
+            newChildren[index] = child;
+            return new Node(dataMap, nodeMap, keys, values, newChildren);
+        }
+
+        Node insertEntry(int bit, long key, long value) {
+            int index = dataIndex(bit);
+            return new Node(dataMap | bit, nodeMap, insert(keys, index, key), insert(values, index, value), children);
+        }
+
+        Node removeEntry(int bit) {
+            int index = dataIndex(bit);
+            return new Node(dataMap & ~bit, nodeMap, remove(keys, index), remove(values, index), children);
+        }
+
+        /** the entry at {@code bit} moves down in to {@code child} */
+        Node entryToNode(int bit, Node child) {
+            int dataIndex = dataIndex(bit);
+            int nodeIndex = nodeIndex(bit);
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, nodeIndex);
+            newChildren[nodeIndex] = child;
+            System.arraycopy(children, nodeIndex, newChildren, nodeIndex + 1, children.length - nodeIndex);
+            return new Node(dataMap & ~bit, nodeMap | bit,
+                    remove(keys, dataIndex), remove(values, dataIndex), newChildren);
+        }
+
+        /** the child at {@code bit} only holds one entry, which moves up in to this node */
+        Node nodeToEntry(int bit, long key, long value) {
+            int dataIndex = dataIndex(bit);
+            int nodeIndex = nodeIndex(bit);
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(children, 0, newChildren, 0, nodeIndex);
+            System.arraycopy(children, nodeIndex + 1, newChildren, nodeIndex, children.length - nodeIndex - 1);
+            return new Node(dataMap | bit, nodeMap & ~bit,
+                    insert(keys, dataIndex, key), insert(values, dataIndex, value), newChildren);
+        }
+
+        private static long[] insert(long[] array, int index, long element) {
+            long[] newArray = new long[array.length + 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            newArray[index] = element;
+            System.arraycopy(array, index, newArray, index + 1, array.length - index);
+            return newArray;
+        }
+
+        private static long[] remove(long[] array, int index) {
+            long[] newArray = new long[array.length - 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+            return newArray;
+        }
+    }
+
+    public long get(long key, long defaultValue) {
+        long hashCode = Mixing.fmix64(key);
+        Node node = root;
+        int shift = 0;
+        for (;;) {
+            int bit = bitFor(hashCode, shift);
+            if ((node.dataMap & bit) != 0) {
+                int index = node.dataIndex(bit);
+                return node.keys[index] == key ? node.values[index] : defaultValue;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return defaultValue;
+            }
+            node = node.children[node.nodeIndex(bit)];
+            shift += BITS;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        long hashCode = Mixing.fmix64(key);
+        Node node = root;
+        int shift = 0;
+        for (;;) {
+            int bit = bitFor(hashCode, shift);
+            if ((node.dataMap & bit) != 0) {
+                return node.keys[node.dataIndex(bit)] == key;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return false;
+            }
+            node = node.children[node.nodeIndex(bit)];
+            shift += BITS;
+        }
+    }
+
+    public LongLongHash with(long key, long value) {
+        boolean present = containsKey(key);
+        if (present && get(key, ~value) == value) {
+            return this;
+        }
+        Node newRoot = with(root, key, Mixing.fmix64(key), value, 0);
+        return new LongLongHash(newRoot, present ? size : size + 1);
+    }
+
+    public LongLongHash without(long key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        return new LongLongHash(without(root, key, Mixing.fmix64(key), 0), size - 1);
+    }
+
+    private static Node with(Node node, long key, long hashCode, long value, int shift) {
+        int bit = bitFor(hashCode, shift);
+        if ((node.dataMap & bit) != 0) {
+            int index = node.dataIndex(bit);
+            long existingKey = node.keys[index];
+            if (existingKey == key) {
+                return node.withValue(index, value);
+            }
+            Node child = pair(existingKey, node.values[index], key, value, shift + BITS);
+            return node.entryToNode(bit, child);
+        }
+        if ((node.nodeMap & bit) != 0) {
+            int index = node.nodeIndex(bit);
+            return node.withChild(index, with(node.children[index], key, hashCode, value, shift + BITS));
+        }
+        return node.insertEntry(bit, key, value);
+    }
+
+    private static Node pair(long firstKey, long firstValue, long secondKey, long secondValue, int shift) {
+        int first = fragment(Mixing.fmix64(firstKey), shift);
+        int second = fragment(Mixing.fmix64(secondKey), shift);
+        if (first == second) {
+            Node child = pair(firstKey, firstValue, secondKey, secondValue, shift + BITS);
+            return new Node(0, 1 << first, new long[0], new long[0], new Node[]{child});
+        }
+        if (first < second) {
+            return new Node((1 << first) | (1 << second), 0,
+                    new long[]{firstKey, secondKey}, new long[]{firstValue, secondValue}, NO_CHILDREN);
+        }
+        return new Node((1 << first) | (1 << second), 0,
+                new long[]{secondKey, firstKey}, new long[]{secondValue, firstValue}, NO_CHILDREN);
+    }
+
+    private static Node without(Node node, long key, long hashCode, int shift) {
+        int bit = bitFor(hashCode, shift);
+        if ((node.dataMap & bit) != 0) {
+            return node.removeEntry(bit);
+        }
+        int index = node.nodeIndex(bit);
+        Node child = without(node.children[index], key, hashCode, shift + BITS);
+        if (child.nodeMap == 0 && child.keys.length == 1) {
+            return node.nodeToEntry(bit, child.keys[0], child.values[0]);
+        }
+        return node.withChild(index, child);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        forEach(root, consumer);
+    }
+
+    private static void forEach(Node node, EntryConsumer consumer) {
+        for (int i = 0; i < node.keys.length; i++) {
+            consumer.accept(node.keys[i], node.values[i]);
+        }
+        for (Node child : node.children) {
+            forEach(child, consumer);
+        }
+    }
+
+    private static int bitFor(long hashCode, int shift) {
+        return 1 << fragment(hashCode, shift);
+    }
+
+    private static int fragment(long hashCode, int shift) {
+        return (int) (hashCode >>> shift) & MASK;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(key).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,252 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.Arrays;
+
+/**
+ * A persistent hash keyed by primitive {@code long}s.
+ * <p>
+ * Works like {@link Hash} but a trie node keeps its entries inline: the keys in a {@code long[]}
+ * next to an {@code Object[]} holding the values followed by the child nodes. A lookup never
+ * boxes the key or follows a pointer per entry. The key is mixed with the murmur3 64 bit
+ * finalizer, a bijection, so two different keys never share a full hash and there are no
+ * collision chains.
+ */
+public class LongObjHash<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Node EMPTY_NODE = new Node(0, 0, new long[0], new Object[0]);
+    private static final LongObjHash<?> EMPTY_HASH = new LongObjHash<>(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private LongObjHash(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> LongObjHash<V> emptyHash() {
+        return (LongObjHash<V>) EMPTY_HASH;
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    /**
+     * A node of the trie. Bits of {@code dataMap} mark the slots holding an entry inline,
+     * bits of {@code nodeMap} mark the slots holding a child node. Both are indexed by the
+     * population count of the lower bits, the children follow the values in {@code values}.
+     */
+    private static final class Node {
+        final int dataMap;
+        final int nodeMap;
+        final long[] keys;
+        final Object[] values;
+
+        Node(int dataMap, int nodeMap, long[] keys, Object[] values) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        int dataIndex(int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        int nodeIndex(int bit) {
+            return keys.length + Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        Node withValue(int index, Object value) {
+            Object[] newValues = Arrays.copyOf(values, values.length);
+            newValues[index] = value;
+            return new Node(dataMap, nodeMap, keys, newValues);
+        }
+
+        Node insertEntry(int bit, long key, Object value) {
+            int index = dataIndex(bit);
+            long[] newKeys = new long[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            newKeys[index] = key;
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            return new Node(dataMap | bit, nodeMap, newKeys, insert(values, index, value));
+        }
+
+        Node removeEntry(int bit) {
+            int index = dataIndex(bit);
+            long[] newKeys = new long[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+            return new Node(dataMap & ~bit, nodeMap, newKeys, remove(values, index));
+        }
+
+        /** the entry at {@code bit} moves down in to {@code child} */
+        Node entryToNode(int bit, Node child) {
+            int dataIndex = dataIndex(bit);
+            long[] newKeys = new long[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, dataIndex);
+            System.arraycopy(keys, dataIndex + 1, newKeys, dataIndex, keys.length - dataIndex - 1);
+            Object[] newValues = remove(values, dataIndex);
+            int nodeIndex = newKeys.length + Integer.bitCount(nodeMap & (bit - 1));
+            return new Node(dataMap & ~bit, nodeMap | bit, newKeys, insert(newValues, nodeIndex, child));
+        }
+
+        /** the child at {@code bit} only holds one entry, which moves up in to this node */
+        Node nodeToEntry(int bit, long key, Object value) {
+            Object[] newValues = remove(values, nodeIndex(bit));
+            int dataIndex = dataIndex(bit);
+            long[] newKeys = new long[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, dataIndex);
+            newKeys[dataIndex] = key;
+            System.arraycopy(keys, dataIndex, newKeys, dataIndex + 1, keys.length - dataIndex);
+            return new Node(dataMap | bit, nodeMap & ~bit, newKeys, insert(newValues, dataIndex, value));
+        }
+
+        private static Object[] insert(Object[] array, int index, Object element) {
+            Object[] newArray = new Object[array.length + 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            newArray[index] = element;
+            System.arraycopy(array, index, newArray, index + 1, array.length - index);
+            return newArray;
+        }
+
+        private static Object[] remove(Object[] array, int index) {
+            Object[] newArray = new Object[array.length - 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+            return newArray;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hashCode = Mixing.fmix64(key);
+        Node node = root;
+        int shift = 0;
+        for (;;) {
+            int bit = bitFor(hashCode, shift);
+            if ((node.dataMap & bit) != 0) {
+                int index = node.dataIndex(bit);
+                return node.keys[index] == key ? (V) node.values[index] : null;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return null;
+            }
+            node = (Node) node.values[node.nodeIndex(bit)];
+            shift += BITS;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public LongObjHash<V> with(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("null values are not allowed");
+        V existing = get(key);
+        if (existing == value) {
+            return this;
+        }
+        Node newRoot = with(root, key, Mixing.fmix64(key), value, 0);
+        return new LongObjHash<>(newRoot, existing == null ? size + 1 : size);
+    }
+
+    public LongObjHash<V> without(long key) {
+        if (get(key) == null) {
+            return this;
+        }
+        return new LongObjHash<>(without(root, key, Mixing.fmix64(key), 0), size - 1);
+    }
+
+    private static Node with(Node node, long key, long hashCode, Object value, int shift) {
+        int bit = bitFor(hashCode, shift);
+        if ((node.dataMap & bit) != 0) {
+            int index = node.dataIndex(bit);
+            long existingKey = node.keys[index];
+            if (existingKey == key) {
+                return node.withValue(index, value);
+            }
+            Node child = pair(existingKey, node.values[index], key, value, shift + BITS);
+            return node.entryToNode(bit, child);
+        }
+        if ((node.nodeMap & bit) != 0) {
+            int index = node.nodeIndex(bit);
+            return node.withValue(index, with((Node) node.values[index], key, hashCode, value, shift + BITS));
+        }
+        return node.insertEntry(bit, key, value);
+    }
+
+    private static Node pair(long firstKey, Object firstValue, long secondKey, Object secondValue, int shift) {
+        int first = fragment(Mixing.fmix64(firstKey), shift);
+        int second = fragment(Mixing.fmix64(secondKey), shift);
+        if (first == second) {
+            Node child = pair(firstKey, firstValue, secondKey, secondValue, shift + BITS);
+            return new Node(0, 1 << first, new long[0], new Object[]{child});
+        }
+        if (first < second) {
+            return new Node((1 << first) | (1 << second), 0,
+                    new long[]{firstKey, secondKey}, new Object[]{firstValue, secondValue});
+        }
+        return new Node((1 << first) | (1 << second), 0,
+                new long[]{secondKey, firstKey}, new Object[]{secondValue, firstValue});
+    }
+
+    private static Node without(Node node, long key, long hashCode, int shift) {
+        int bit = bitFor(hashCode, shift);
+        if ((node.dataMap & bit) != 0) {
+            return node.removeEntry(bit);
+        }
+        int index = node.nodeIndex(bit);
+        Node child = without((Node) node.values[index], key, hashCode, shift + BITS);
+        if (child.nodeMap == 0 && child.keys.length == 1) {
+            return node.nodeToEntry(bit, child.keys[0], child.values[0]);
+        }
+        return node.withValue(index, child);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(EntryConsumer<? super V> consumer) {
+        forEach(root, consumer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEach(Node node, EntryConsumer<? super V> consumer) {
+        int entries = node.keys.length;
+        for (int i = 0; i < entries; i++) {
+            consumer.accept(node.keys[i], (V) node.values[i]);
+        }
+        for (int i = entries; i < node.values.length; i++) {
+            forEach((Node) node.values[i], consumer);
+        }
+    }
+
+    private static int bitFor(long hashCode, int shift) {
+        return 1 << fragment(hashCode, shift);
+    }
+
+    private static int fragment(long hashCode, int shift) {
+        return (int) (hashCode >>> shift) & MASK;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(key).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.logicalpractice.kindafasthash;
+
+/**
+ * What changed in a {@link CopyOnWriteHashMap} between two of the snapshots it published, as
+ * delivered to a {@link Subscriber}.
+ * <p>
+ * A subscriber that can't keep up isn't sent one change per write, the writes it fell behind on
+ * are coalesced in to a single change from the last snapshot it was sent to the newest. So the
+ * keys reported are the net difference, a key put and then removed again in between doesn't
+ * appear at all, and {@link #writes()} says how many writes were folded together.
+ */
+public final class MapChange<K, V> {
+
+    /**
+     * Receives the changes to a map, see {@link CopyOnWriteHashMap#subscribe}. The methods are
+     * called one at a time, never concurrently, on the executor given when subscribing.
+     */
+    public interface Subscriber<K, V> {
+        /**
+         * Called before anything else with the subscription, nothing is sent until
+         * {@link Subscription#request(long)} is called on it.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called at most once per change requested. Throwing cancels the subscription.
+         */
+        void onNext(MapChange<K, V> change);
+    }
+
+    public interface Subscription {
+        /**
+         * Asks for {@code n} more changes, which are sent as the map is written to.
+         *
+         * @throws IllegalArgumentException unless {@code n} is positive
+         */
+        void request(long n);
+
+        /**
+         * Stops the changes, one that is being delivered may still arrive.
+         */
+        void cancel();
+    }
+
+    private final Hash<K, V> previous;
+    private final Hash<K, V> current;
+
+    MapChange(Hash<K, V> previous, Hash<K, V> current) {
+        this.previous = previous;
+        this.current = current;
+    }
+
+    /** @return the snapshot the subscriber was last sent, or the one current when it subscribed */
+    public Hash<K, V> previous() {
+        return previous;
+    }
+
+    /** @return the snapshot the change goes up to */
+    public Hash<K, V> current() {
+        return current;
+    }
+
+    /** @return the number of writes made between the two snapshots, at least 1 */
+    public long writes() {
+        return current.version() - previous.version();
+    }
+
+    /**
+     * Reports each key that was put, removed or given a new value to {@code visitor}. As with
+     * {@link Hash#diff(Hash, Hash.DiffVisitor)}, this costs about O(k log n) for k changed keys.
+     */
+    public void forEach(Hash.DiffVisitor<? super K, ? super V> visitor) {
+        previous.diff(current, visitor);
+    }
+
+    /**
+     * @return the keys that were put, removed or given a new value, see {@link Hash#diff(Hash)}
+     */
+    public Hash.Diff<K, V> diff() {
+        return previous.diff(current);
+    }
+
+    @Override
+    public String toString() {
+        return "MapChange{version " + previous.version() + " to " + current.version() + "}";
+    }
+}
@@ -0,0 +1,115 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of what a {@link CopyOnWriteHashMap}'s writes have cost and of the shape of its
+ * current Hash, see {@link CopyOnWriteHashMap#stats()}.
+ * <p>
+ * The counts come from the map's {@link MapStatsRecorder} and are zero when it has none. The
+ * trie never resizes, the nearest thing is a {@link CopyOnWriteHashMap.SnapshotLayout#COMPACT}
+ * map rebuilding its table on every write, so that is what the compaction figures count.
+ */
+public final class MapStats {
+    static final MapStats NONE = new MapStats(0, 0, 0, 0, 0);
+
+    private final long writeCount;
+    private final long casRetryCount;
+    private final long bytesCopied;
+    private final long compactionCount;
+    private final long compactionNanos;
+
+    private final int size;
+    private final int nodeCount;
+    private final double loadFactor;
+    private final int maxChainLength;
+    private final double averageChainLength;
+
+    public MapStats(long writeCount, long casRetryCount, long bytesCopied, long compactionCount, long compactionNanos) {
+        this(writeCount, casRetryCount, bytesCopied, compactionCount, compactionNanos, 0, 0, 0, 0, 0);
+    }
+
+    private MapStats(long writeCount, long casRetryCount, long bytesCopied, long compactionCount, long compactionNanos,
+                     int size, int nodeCount, double loadFactor, int maxChainLength, double averageChainLength) {
+        this.writeCount = writeCount;
+        this.casRetryCount = casRetryCount;
+        this.bytesCopied = bytesCopied;
+        this.compactionCount = compactionCount;
+        this.compactionNanos = compactionNanos;
+        this.size = size;
+        this.nodeCount = nodeCount;
+        this.loadFactor = loadFactor;
+        this.maxChainLength = maxChainLength;
+        this.averageChainLength = averageChainLength;
+    }
+
+    MapStats withShape(int size, int nodeCount, double loadFactor, int maxChainLength, double averageChainLength) {
+        return new MapStats(writeCount, casRetryCount, bytesCopied, compactionCount, compactionNanos,
+                size, nodeCount, loadFactor, maxChainLength, averageChainLength);
+    }
+
+    /** the number of writes that published a new snapshot */
+    public long writeCount() {
+        return writeCount;
+    }
+
+    public long casRetryCount() {
+        return casRetryCount;
+    }
+
+    public double casRetriesPerWrite() {
+        return writeCount == 0 ? 0 : (double) casRetryCount / writeCount;
+    }
+
+    /** the estimated bytes allocated by all the writes */
+    public long bytesCopied() {
+        return bytesCopied;
+    }
+
+    public double bytesCopiedPerWrite() {
+        return writeCount == 0 ? 0 : (double) bytesCopied / writeCount;
+    }
+
+    public long compactionCount() {
+        return compactionCount;
+    }
+
+    public long totalCompactionTime(TimeUnit unit) {
+        return unit.convert(compactionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** the number of nodes in the trie */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the fraction of the compact table in use, or when there is no table the mean
+     *         fraction of the 32 slots in use per node
+     */
+    public double loadFactor() {
+        return loadFactor;
+    }
+
+    /** the most entries sharing one full hash code */
+    public int maxChainLength() {
+        return maxChainLength;
+    }
+
+    /** the mean number of entries per slot that holds entries, 1 when nothing collides */
+    public double averageChainLength() {
+        return averageChainLength;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MapStats{writes=%d, casRetries=%d, bytesCopied=%d, compactions=%d, compactionTime=%dms, "
+                        + "size=%d, nodes=%d, loadFactor=%.3f, maxChainLength=%d, averageChainLength=%.3f}",
+                writeCount, casRetryCount, bytesCopied, compactionCount, totalCompactionTime(TimeUnit.MILLISECONDS),
+                size, nodeCount, loadFactor, maxChainLength, averageChainLength);
+    }
+}
@@ -0,0 +1,32 @@
+package com.logicalpractice.kindafasthash;
+
+/**
+ * Receives the events of a {@link CopyOnWriteHashMap}'s writes, see
+ * {@link CopyOnWriteHashMap#CopyOnWriteHashMap(CopyOnWriteHashMap.SnapshotLayout, HashingStrategy, MapStatsRecorder)}.
+ * {@link CountingMapStatsRecorder} keeps simple counts, an implementation can just as well
+ * forward the events to a metrics library.
+ * <p>
+ * The methods are called by the writing threads, inside their compare and set loops, so they
+ * should be thread safe and quick.
+ */
+public interface MapStatsRecorder {
+
+    /** a write lost the race to publish its snapshot and will start again */
+    void recordCasRetry();
+
+    /**
+     * A write published a new snapshot.
+     *
+     * @param bytesCopied an estimate of the memory taken by the objects the write created, the
+     *                    copied path of the trie and the compact table when there is one
+     */
+    void recordWrite(long bytesCopied);
+
+    /** a snapshot was compacted before being published, which took {@code nanos} */
+    void recordCompaction(long nanos);
+
+    /**
+     * @return the counts recorded so far, the map adds the figures about its shape
+     */
+    MapStats snapshot();
+}
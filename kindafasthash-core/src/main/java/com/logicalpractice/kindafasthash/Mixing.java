@@ -0,0 +1,36 @@
+package com.logicalpractice.kindafasthash;
+
+/**
+ * The finalisers from murmur3, which the primitive keyed hashes, the built in
+ * {@link HashingStrategies} and the {@link OffHeapHash} file layout all spread their hashes
+ * with. The off heap layout stores the result, so changing either function changes the format.
+ */
+final class Mixing {
+
+    private Mixing() {
+    }
+
+    /**
+     * murmur3's fmix32, every bit of the key affects every bit of the result
+     */
+    static int fmix32(int key) {
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key;
+    }
+
+    /**
+     * murmur3's fmix64, every bit of the key affects every bit of the result
+     */
+    static long fmix64(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,257 @@
+package com.logicalpractice.kindafasthash;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An immutable snapshot of a {@link Hash} held outside the java heap, usually in a memory mapped
+ * file written by {@link #write}.
+ * <p>
+ * The file is an open addressed table that {@link #get} searches where it lies, {@link #open}
+ * only maps it and checks the header so there is nothing to deserialise, and the entries cost
+ * the garbage collector nothing. A lookup encodes the key with the key {@link Codec}, probes the
+ * table and compares the encoded bytes in place, only the value found is decoded.
+ * <p>
+ * Layout, all ints big endian:
+ * <pre>
+ *   header   magic, version, size, capacity
+ *   table    capacity slots of (hash, record offset), a hash of 0 marks an empty slot
+ *   records  key length, key bytes, value length, value bytes
+ * </pre>
+ * Offsets are ints and a {@link MappedByteBuffer} can't address more than 2GB, so that is the
+ * limit on the size of a file.
+ */
+public class OffHeapHash<K, V> {
+    private static final int MAGIC = 0x4B464831; // "KFH1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 8;
+
+    private final ByteBuffer buffer;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int size;
+    private final int mask;
+
+    private OffHeapHash(ByteBuffer buffer, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not an OffHeapHash snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported OffHeapHash version " + buffer.getInt(4));
+        }
+        int capacity = buffer.getInt(12);
+        if (Integer.bitCount(capacity) != 1 || buffer.limit() < HEADER_BYTES + (long) capacity * SLOT_BYTES) {
+            throw new IOException("truncated OffHeapHash snapshot");
+        }
+        this.buffer = buffer;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.size = buffer.getInt(8);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return a snapshot with no entries that doesn't need a file
+     */
+    public static <K, V> OffHeapHash<K, V> empty(Codec<K> keyCodec, Codec<V> valueCodec) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + SLOT_BYTES)
+                .putInt(0, MAGIC).putInt(4, VERSION).putInt(8, 0).putInt(12, 1);
+        try {
+            return new OffHeapHash<>(buffer, keyCodec, valueCodec);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #write} read only. The mapping lasts until the returned
+     * snapshot is garbage collected.
+     */
+    public static <K, V> OffHeapHash<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(path + " is larger than the 2GB a mapped buffer can address");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new OffHeapHash<>(buffer, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+     * Writes the entries of {@code hash} to {@code path} in the layout {@link #open} maps. The
+     * file is written alongside and moved in to place once complete, so a reader never sees a
+     * partial file and a snapshot already open on the old file carries on working.
+     */
+    public static <K, V> void write(Hash<K, V> hash, Path path, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        // a load factor of at most 3/4, and always at least one empty slot to end a probe
+        int capacity = Integer.highestOneBit((hash.size() + hash.size() / 3 + 1) * 2 - 1);
+        int[] hashes = new int[capacity];
+        int[] offsets = new int[capacity];
+        long position = HEADER_BYTES + (long) capacity * SLOT_BYTES;
+
+        Path written = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(written, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            channel.position(position);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (Map.Entry<K, V> entry : hash) {
+                byte[] key = keyCodec.encode(entry.getKey());
+                byte[] value = valueCodec.encode(entry.getValue());
+                if (position + 8 + key.length + value.length > Integer.MAX_VALUE) {
+                    throw new IOException("a snapshot of " + hash.size() + " entries is larger than the 2GB a mapped buffer can address");
+                }
+                int stored = stored(hash(key));
+                int index = stored & (capacity - 1);
+                while (hashes[index] != 0) {
+                    index = (index + 1) & (capacity - 1);
+                }
+                hashes[index] = stored;
+                offsets[index] = (int) position;
+
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(value.length);
+                out.write(value);
+                position += 8 + key.length + value.length;
+            }
+            out.flush();
+
+            ByteBuffer table = ByteBuffer.allocate(1 << 16);
+            table.putInt(MAGIC).putInt(VERSION).putInt(hash.size()).putInt(capacity);
+            long tablePosition = 0;
+            for (int i = 0; i < capacity; i++) {
+                if (table.remaining() < SLOT_BYTES) {
+                    tablePosition += writeFully(channel, table, tablePosition);
+                }
+                table.putInt(hashes[i]).putInt(offsets[i]);
+            }
+            writeFully(channel, table, tablePosition);
+            channel.force(false);
+        }
+        Files.move(written, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    public V get(K key) {
+        byte[] encoded = keyCodec.encode(key);
+        int stored = stored(hash(encoded));
+        int index = stored & mask;
+        int current;
+        while ((current = buffer.getInt(slot(index))) != 0) {
+            if (current == stored) {
+                int offset = buffer.getInt(slot(index) + 4);
+                if (keyEquals(offset, encoded)) {
+                    int valueOffset = offset + 4 + encoded.length;
+                    return valueCodec.decode(buffer, valueOffset + 4, buffer.getInt(valueOffset));
+                }
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Decodes every entry in turn, in no particular order.
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int index = 0; index <= mask; index++) {
+            if (buffer.getInt(slot(index)) != 0) {
+                int offset = buffer.getInt(slot(index) + 4);
+                int keyLength = buffer.getInt(offset);
+                int valueOffset = offset + 4 + keyLength;
+                action.accept(
+                        keyCodec.decode(buffer, offset + 4, keyLength),
+                        valueCodec.decode(buffer, valueOffset + 4, buffer.getInt(valueOffset)));
+            }
+        }
+    }
+
+    /**
+     * @return the entries decoded back in to a Hash on the heap
+     */
+    public Hash<K, V> toHash() {
+        Hash.Builder<K, V> builder = Hash.newBuilder();
+        forEach(builder::put);
+        return builder.build();
+    }
+
+    private static int slot(int index) {
+        return HEADER_BYTES + index * SLOT_BYTES;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset) != key.length) {
+            return false;
+        }
+        int start = offset + 4;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keys are hashed by their encoded bytes, the same key has the same hash in every JVM.
+     */
+    private static int hash(byte[] bytes) {
+        int h = 0;
+        for (byte b : bytes) {
+            h = 31 * h + b;
+        }
+        return Mixing.fmix32(h);
+    }
+
+    private static int stored(int hashCode) {
+        return hashCode == 0 ? 1 : hashCode; // zero is kept for empty slots
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(key).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+}
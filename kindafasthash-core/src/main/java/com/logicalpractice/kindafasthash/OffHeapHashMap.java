@@ -0,0 +1,75 @@
+package com.logicalpractice.kindafasthash;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * A read only map over the current {@link OffHeapHash}, where a whole new snapshot is swapped in
+ * atomically, typically by {@link #load}ing a freshly written file. Readers see either the old
+ * snapshot or the new one, never a mix, and a reader still using the old one can carry on as its
+ * mapping stays valid until it is garbage collected.
+ */
+public class OffHeapHashMap<K, V> {
+
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final AtomicReference<OffHeapHash<K, V>> reference;
+
+    public OffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.reference = new AtomicReference<>(OffHeapHash.empty(keyCodec, valueCodec));
+    }
+
+    public V get(K key) {
+        return reference.get().get(key);
+    }
+
+    public boolean containsKey(K key) {
+        return reference.get().containsKey(key);
+    }
+
+    public int size() {
+        return reference.get().size();
+    }
+
+    public boolean isEmpty() {
+        return reference.get().isEmpty();
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        reference.get().forEach(action);
+    }
+
+    /**
+     * @return the snapshot that was replaced
+     */
+    public OffHeapHash<K, V> publish(OffHeapHash<K, V> snapshot) {
+        if (snapshot == null)
+            throw new NullPointerException("null snapshots are not allowed");
+        return reference.getAndSet(snapshot);
+    }
+
+    /**
+     * Maps the file at {@code path} with this map's codecs and publishes it.
+     *
+     * @return the snapshot that was replaced
+     */
+    public OffHeapHash<K, V> load(Path path) throws IOException {
+        return publish(OffHeapHash.open(path, keyCodec, valueCodec));
+    }
+
+    /**
+     * @return the current snapshot, unaffected by later swaps
+     */
+    public OffHeapHash<K, V> snapshot() {
+        return reference.get();
+    }
+
+    @Override
+    public String toString() {
+        return reference.get().toString();
+    }
+}
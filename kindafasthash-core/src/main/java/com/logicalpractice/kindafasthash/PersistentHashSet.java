@@ -0,0 +1,202 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A persistent set, kept in the same trie as {@link Hash}. Each element is held by an entry
+ * node with no value field, which saves 8 bytes an element on a heap without compressed oops.
+ * <p>
+ * Like a Hash it is immutable, {@link #with} and {@link #without} return a new set sharing all
+ * but the path to the changed element. The mutators inherited from {@link java.util.Set} throw
+ * {@code UnsupportedOperationException}. {@link #union}, {@link #intersect} and
+ * {@link #difference} walk the two tries together and skip any subtree the sets share, so they
+ * are cheap for sets derived from one another.
+ */
+public final class PersistentHashSet<E> extends AbstractSet<E> {
+    private static final PersistentHashSet<?> EMPTY = new PersistentHashSet<>(Hash.<Object, Boolean>emptyHash());
+
+    private final Hash<E, Boolean> hash;
+
+    private PersistentHashSet(Hash<E, Boolean> hash) {
+        this.hash = hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentHashSet<E> emptySet() {
+        return (PersistentHashSet<E>) EMPTY;
+    }
+
+    /**
+     * @return an empty set that hashes and compares its elements with {@code strategy}, as do
+     *         all the sets derived from it
+     */
+    public static <E> PersistentHashSet<E> emptySet(HashingStrategy<? super E> strategy) {
+        if (strategy == HashingStrategies.DEFAULT) {
+            return emptySet();
+        }
+        return new PersistentHashSet<>(Hash.<E, Boolean>emptyHash(strategy));
+    }
+
+    /**
+     * @return a set of {@code elements}, built in one pass
+     */
+    public static <E> PersistentHashSet<E> copyOf(Iterable<? extends E> elements) {
+        return PersistentHashSet.<E>emptySet().withAll(elements);
+    }
+
+    /**
+     * @return the set as a Hash mapping each element to {@code Boolean.TRUE}, sharing its trie
+     */
+    public Hash<E, Boolean> asHash() {
+        return hash;
+    }
+
+    static <E> PersistentHashSet<E> of(Hash<E, Boolean> hash) {
+        return hash.isEmpty() && hash.hashingStrategy() == HashingStrategies.DEFAULT
+                ? PersistentHashSet.<E>emptySet()
+                : new PersistentHashSet<>(hash);
+    }
+
+    private PersistentHashSet<E> derived(Hash<E, Boolean> updated) {
+        return updated == hash ? this : of(updated);
+    }
+
+    public PersistentHashSet<E> with(E element) {
+        if (element == null)
+            throw new NullPointerException("null elements are not allowed");
+        return derived(hash.with(element, Hash.PRESENT));
+    }
+
+    public PersistentHashSet<E> without(Object element) {
+        if (element == null)
+            throw new NullPointerException("null elements are not allowed");
+        return derived(hash.without(element));
+    }
+
+    public PersistentHashSet<E> withAll(Iterable<? extends E> elements) {
+        Hash.Builder<E, Boolean> builder = hash.toBuilder();
+        for (E element : elements) {
+            if (element == null)
+                throw new NullPointerException("null elements are not allowed");
+            builder.put(element, Hash.PRESENT);
+        }
+        return derived(builder.build());
+    }
+
+    public PersistentHashSet<E> withoutAll(Iterable<?> elements) {
+        Hash.Builder<E, Boolean> builder = hash.toBuilder();
+        for (Object element : elements) {
+            if (element != null) { // can't be in the set
+                builder.remove(element);
+            }
+        }
+        return derived(builder.build());
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && hash.containsKey(o);
+    }
+
+    @Override
+    public int size() {
+        return hash.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return hash.isEmpty();
+    }
+
+    /**
+     * @return the elements in this set, {@code other} or both
+     * @throws IllegalArgumentException if the sets use different hashing strategies
+     */
+    public PersistentHashSet<E> union(PersistentHashSet<E> other) {
+        Hash<E, Boolean> union = hash.union(other.hash, (value, otherValue) -> value);
+        return union == other.hash ? other : derived(union);
+    }
+
+    /**
+     * @return the elements in both this set and {@code other}
+     * @throws IllegalArgumentException if the sets use different hashing strategies
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentHashSet<E> intersect(PersistentHashSet<?> other) {
+        return derived(hash.intersect((Hash<E, ?>) other.hash));
+    }
+
+    /**
+     * @return the elements of this set that are not in {@code other}
+     * @throws IllegalArgumentException if the sets use different hashing strategies
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentHashSet<E> difference(PersistentHashSet<?> other) {
+        return derived(hash.difference((Hash<E, ?>) other.hash));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<Map.Entry<E, Boolean>> entries = hash.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    /**
+     * @return a spliterator that splits the trie as {@link Hash#spliterator()} does
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new ElementSpliterator<>(hash.spliterator());
+    }
+
+    private static final class ElementSpliterator<E> implements Spliterator<E> {
+        private final Spliterator<Map.Entry<E, Boolean>> entries;
+
+        ElementSpliterator(Spliterator<Map.Entry<E, Boolean>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            return entries.tryAdvance(entry -> action.accept(entry.getKey()));
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            entries.forEachRemaining(entry -> action.accept(entry.getKey()));
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            Spliterator<Map.Entry<E, Boolean>> prefix = entries.trySplit();
+            return prefix == null ? null : new ElementSpliterator<>(prefix);
+        }
+
+        @Override
+        public long estimateSize() {
+            return entries.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return entries.characteristics();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.logicalpractice.kindafasthash;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link CopyOnWriteHashMap} split across a fixed number of independent {@link Hash} roots.
+ * <p>
+ * Each key belongs to exactly one stripe, picked from the same spread hash the trie is indexed
+ * by, so writers to different stripes never contend on a compare and set while a get is still
+ * a single volatile read plus a lookup. The price is that operations spanning the whole map,
+ * {@code size()}, iteration and {@code putAll}, are only consistent per stripe.
+ */
+public class StripedCopyOnWriteHashMap<K,V> extends AbstractMap<K,V> {
+
+    private static final int DEFAULT_STRIPES = 16;
+    private static final int MAX_STRIPES = 1 << 16;
+
+    private final AtomicReferenceArray<Hash<K,V>> stripes;
+    private final int stripeShift;
+
+    public StripedCopyOnWriteHashMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param concurrencyLevel the expected number of concurrent writers, rounded up to a power
+     *                         of two to give the number of stripes
+     */
+    public StripedCopyOnWriteHashMap(int concurrencyLevel) {
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        int level = Math.min(concurrencyLevel, MAX_STRIPES); // before rounding up, which overflows past 2^30
+        int count = Math.max(Integer.highestOneBit(level - 1) << 1, 1);
+        stripes = new AtomicReferenceArray<>(count);
+        for (int i = 0; i < count; i++) {
+            stripes.set(i, Hash.<K,V>emptyHash());
+        }
+        stripeShift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * The trie consumes the spread hash from the low bits, so the stripe comes from a fibonacci
+     * mix of all of them, otherwise every stripe's root would only use a fraction of its slots.
+     */
+    private int stripeFor(Object key) {
+        return stripeShift == 32 ? 0 : (Hash.hash(key) * 0x9E3779B9) >>> stripeShift;
+    }
+
+    int stripeCount() {
+        return stripes.length();
+    }
+
+    @Override
+    public V get(Object key) {
+        return stripes.get(stripeFor(key)).get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) return false; // null aren't allowed as values either
+        return super.containsValue(value);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        check(key, value);
+        int stripe = stripeFor(key);
+        Hash<K, V> current;
+        V previous;
+        do {
+            current = stripes.get(stripe);
+            previous = current.get(key);
+            if (previous == value)
+                return previous; // nothing would change
+        } while ( ! stripes.compareAndSet(stripe, current, current.with(key, value)));
+        return previous;
+    }
+
+    /**
+     * Copies all of the mappings from {@code map} in to this map, the new entries for each
+     * stripe are published together but other stripes may already, or not yet, show theirs.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (map.isEmpty()) return;
+        @SuppressWarnings("unchecked")
+        Hash.Builder<K,V>[] batches = new Hash.Builder[stripes.length()];
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            check(entry.getKey(), entry.getValue());
+            int stripe = stripeFor(entry.getKey());
+            if (batches[stripe] == null) {
+                batches[stripe] = Hash.newBuilder();
+            }
+            batches[stripe].put(entry.getKey(), entry.getValue());
+        }
+        for (int stripe = 0; stripe < batches.length; stripe++) {
+            if (batches[stripe] != null) {
+                Hash<K,V> batch = batches[stripe].build();
+                Hash<K,V> current, updated;
+                do {
+                    current = stripes.get(stripe);
+                    updated = current.toBuilder().putAll(batch).build();
+                } while (updated != current && ! stripes.compareAndSet(stripe, current, updated));
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key == null) return null; //
+        int stripe = stripeFor(key);
+        Hash<K, V> current;
+        V previous;
+        do {
+            current = stripes.get(stripe);
+            previous = current.get(key);
+            if (previous == null)
+                return null;
+        } while ( ! stripes.compareAndSet(stripe, current, current.without(key)));
+        return previous;
+    }
+
+    /**
+     * @see java.util.concurrent.ConcurrentMap#remove(Object, Object)
+     */
+    public boolean remove(Object key, Object value) {
+        check(key, value);
+        int stripe = stripeFor(key);
+        Hash<K, V> current;
+        do {
+            current = stripes.get(stripe);
+            Object mapValue = current.get(key);
+            if (!Objects.equals(value, mapValue))
+                return false;
+        } while ( ! stripes.compareAndSet(stripe, current, current.without(key)));
+        return true; //only gets here if a removal has happened
+    }
+
+    /**
+     * Sum of the sizes of the stripes, each read at a slightly different moment.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            size += stripes.get(i).size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int i = 0; i < stripes.length(); i++) {
+            if (!stripes.get(i).isEmpty()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < stripes.length(); i++) {
+            stripes.set(i, Hash.<K,V>emptyHash());
+        }
+    }
+
+    private void check(Object key, Object value) {
+        if (key == null) {
+            throw new NullPointerException("null keys are not allowed");
+        }
+        if (value == null) {
+            throw new NullPointerException("null values are not allowed");
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySetView();
+    }
+
+    private class EntrySetView extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new Iterator<Entry<K, V>>() {
+                private int stripe = 0;
+                private Iterator<Entry<K,V>> delegate = stripes.get(0).iterator();
+                private Entry<K,V> last;
+
+                @Override
+                public boolean hasNext() {
+                    while (!delegate.hasNext()) {
+                        if (++stripe >= stripes.length()) {
+                            return false;
+                        }
+                        delegate = stripes.get(stripe).iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return last = delegate.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null)
+                        throw new IllegalStateException("remove() cannot be called before next() has been");
+                    StripedCopyOnWriteHashMap.this.remove(last.getKey(), last.getValue());
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return StripedCopyOnWriteHashMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (o instanceof Entry) {
+                Entry<?,?> entry = (Entry<?, ?>) o;
+                Object value = entry.getKey() == null ? null : get(entry.getKey());
+                return value != null && value.equals(entry.getValue());
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o instanceof Entry) {
+                Entry<?,?> entry = (Entry<?, ?>) o;
+                return entry.getKey() != null && entry.getValue() != null
+                        && StripedCopyOnWriteHashMap.this.remove(entry.getKey(), entry.getValue());
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            StripedCopyOnWriteHashMap.this.clear();
+        }
+    }
+}
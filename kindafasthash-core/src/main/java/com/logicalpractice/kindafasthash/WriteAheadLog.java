@@ -0,0 +1,483 @@
+package com.logicalpractice.kindafasthash;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The files behind a {@link DurableCopyOnWriteHashMap}: snapshots written with
+ * {@link HashFormat}, named for the version of the Hash they hold, and log segments named for
+ * the first version they hold. Each published version is one record, all ints big endian:
+ * <pre>
+ *   segment  magic, format version, records
+ *   record   payload length, CRC32 of the payload, payload
+ *   payload  version (a long), count, count changes
+ *   change   PUT, key length, key bytes, value length, value bytes
+ *            or REMOVE, key length, key bytes
+ * </pre>
+ * Records are appended strictly in version order, a writer that gets ahead waits for the ones
+ * before it. Recovery loads the newest snapshot and replays the records after its version. A
+ * record cut short or failing its CRC at the end of the last segment is a write that never
+ * completed, it is truncated away.
+ */
+final class WriteAheadLog<K, V> implements Closeable {
+    private static final int MAGIC = 0x4B46484C; // "KFHL"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".kfh";
+
+    private final Path directory;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final DurableCopyOnWriteHashMap.Durability durability;
+    private final Hash<K, V> recovered;
+
+    // lock order is checkpointLock, syncLock then appendLock
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition appended = appendLock.newCondition();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private FileChannel channel; // the current segment, guarded by appendLock
+    private long lastVersion;    // of the last record appended, guarded by appendLock
+    private long written;        // bytes appended since opening, across segments, guarded by appendLock
+    private volatile long synced; // bytes known to be on disk
+    private Throwable failure;   // once set nothing more is appended, guarded by appendLock
+
+    private WriteAheadLog(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+                          DurableCopyOnWriteHashMap.Durability durability) throws IOException {
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.durability = durability;
+        this.recovered = recover();
+        this.lastVersion = recovered.version();
+        this.channel = openSegment(lastVersion + 1);
+    }
+
+    /**
+     * Recovers the newest state from the files in {@code directory}, creating it if need be, and
+     * starts a new segment for the records to come.
+     */
+    static <K, V> WriteAheadLog<K, V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+                                           DurableCopyOnWriteHashMap.Durability durability) throws IOException {
+        Files.createDirectories(directory);
+        return new WriteAheadLog<>(directory, keyCodec, valueCodec, durability);
+    }
+
+    /**
+     * @return the state found when the log was opened, its version that of the last record
+     */
+    Hash<K, V> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Appends the changes from {@code previous} to {@code current}, once every earlier version
+     * has been appended, and returns when they are as durable as the log was opened to make
+     * them.
+     */
+    void append(Hash<K, V> previous, Hash<K, V> current) throws IOException {
+        ByteBuffer record;
+        try {
+            record = encode(previous, current);
+        } catch (RuntimeException | Error e) {
+            fail(e); // the version can never be appended, so neither can any after it
+            throw e;
+        }
+        long end;
+        appendLock.lock();
+        try {
+            while (lastVersion != current.version() - 1) {
+                checkNotFailed();
+                appended.awaitUninterruptibly();
+            }
+            checkNotFailed();
+            try {
+                writeFully(channel, record);
+                if (durability == DurableCopyOnWriteHashMap.Durability.SYNC_PER_WRITE) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                appended.signalAll();
+            }
+            lastVersion = current.version();
+            written += record.limit();
+            end = written;
+            if (durability == DurableCopyOnWriteHashMap.Durability.SYNC_PER_WRITE) {
+                synced = end;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        if (durability == DurableCopyOnWriteHashMap.Durability.SYNC_PER_BATCH) {
+            sync(end);
+        }
+    }
+
+    /**
+     * Group commit. Writers queue on the sync lock and the first through it forces everything
+     * appended so far, so those behind it usually find their records already covered.
+     */
+    private void sync(long end) throws IOException {
+        if (synced >= end) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (synced >= end) {
+                return;
+            }
+            FileChannel current;
+            long upTo;
+            appendLock.lock();
+            try {
+                checkNotFailed();
+                current = channel;
+                upTo = written;
+            } finally {
+                appendLock.unlock();
+            }
+            current.force(false); // segments only roll under the sync lock, so this is still open
+            synced = upTo;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void fail(Throwable cause) {
+        appendLock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            appended.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("the log failed earlier, reopen the map to recover", failure);
+        }
+    }
+
+    /**
+     * Writes {@code snapshot}, which must be current or newer than every record appended, then
+     * drops the segments and snapshots it makes redundant. The records after it go to a new
+     * segment, started before the snapshot is written so writers carry on meanwhile. One
+     * checkpoint runs at a time, another would delete the segment this one just started.
+     */
+    void checkpoint(Supplier<Hash<K, V>> snapshot) throws IOException {
+        checkpointLock.lock();
+        try {
+            checkpointLocked(snapshot);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void checkpointLocked(Supplier<Hash<K, V>> snapshot) throws IOException {
+        Hash<K, V> hash;
+        long first;
+        syncLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                checkNotFailed();
+                channel.force(false);
+                channel.close();
+                synced = written;
+                first = lastVersion + 1;
+                channel = openSegment(first);
+                hash = snapshot.get(); // at least as new as lastVersion
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+
+        Path path = directory.resolve(name(SNAPSHOT_PREFIX, hash.version(), SNAPSHOT_SUFFIX));
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            hash.writeTo(out, keyCodec, valueCodec);
+            out.force(false);
+        }
+        Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        syncDirectory(); // the snapshot's name must be on disk before the files it replaces are gone
+
+        for (Path segment : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (versionOf(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX) < first) {
+                Files.delete(segment); // every record in it is older than the new segment's first
+            }
+        }
+        for (Path old : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (versionOf(old, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < hash.version()) {
+                Files.delete(old);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncLock.lock();
+        appendLock.lock();
+        try {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+            if (failure == null) {
+                failure = new IllegalStateException("the log has been closed");
+            }
+            appended.signalAll();
+        } finally {
+            appendLock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    private ByteBuffer encode(Hash<K, V> previous, Hash<K, V> current) {
+        List<byte[]> parts = new ArrayList<>();
+        int[] bytes = {20}; // length, crc, version and count
+        previous.diff(current, new Hash.DiffVisitor<K, V>() {
+            @Override
+            public void added(K key, V value) {
+                put(key, value);
+            }
+
+            @Override
+            public void removed(K key, V value) {
+                byte[] encoded = keyCodec.encode(key);
+                parts.add(null);
+                parts.add(encoded);
+                bytes[0] += 5 + encoded.length;
+            }
+
+            @Override
+            public void changed(K key, V oldValue, V newValue) {
+                put(key, newValue);
+            }
+
+            private void put(K key, V value) {
+                byte[] encodedKey = keyCodec.encode(key);
+                byte[] encodedValue = valueCodec.encode(value);
+                parts.add(encodedKey);
+                parts.add(encodedValue);
+                bytes[0] += 9 + encodedKey.length + encodedValue.length;
+            }
+        });
+        ByteBuffer record = ByteBuffer.allocate(bytes[0]);
+        record.position(8);
+        record.putLong(current.version()).putInt(parts.size() / 2);
+        for (int i = 0; i < parts.size(); i += 2) {
+            if (parts.get(i) == null) {
+                record.put(REMOVE).putInt(parts.get(i + 1).length).put(parts.get(i + 1));
+            } else {
+                record.put(PUT).putInt(parts.get(i).length).put(parts.get(i))
+                        .putInt(parts.get(i + 1).length).put(parts.get(i + 1));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.position() - 8);
+        record.putInt(0, record.position() - 8).putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    // --- recovery
+
+    private Hash<K, V> recover() throws IOException {
+        Hash.Builder<K, V> builder = Hash.newBuilder();
+        long version = 0;
+        List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (!snapshots.isEmpty()) {
+            Path newest = snapshots.get(snapshots.size() - 1);
+            version = versionOf(newest, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            try (FileChannel in = FileChannel.open(newest, READ)) {
+                HashFormat.read(in, keyCodec, valueCodec, builder);
+            }
+        }
+        List<Path> segments = list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        for (int i = 0; i < segments.size(); i++) {
+            version = replay(segments.get(i), version, builder, i == segments.size() - 1);
+        }
+        return builder.build().withVersion(version);
+    }
+
+    /**
+     * @return the version of the last record applied
+     */
+    private long replay(Path segment, long version, Hash.Builder<K, V> builder, boolean last) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, READ, WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+            long size = in.size();
+            long position = 0; // of the start of the next record
+            try {
+                buffer = require(in, buffer, HEADER_BYTES);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                    throw new IOException(segment + " is not a log segment");
+                }
+                position = HEADER_BYTES;
+                CRC32 crc = new CRC32();
+                while (true) {
+                    if (position == size) {
+                        return version;
+                    }
+                    buffer = require(in, buffer, 8);
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length < 12 || length > size - position - 8) {
+                        throw new EOFException("record cut short");
+                    }
+                    buffer = require(in, buffer, length);
+                    crc.reset();
+                    crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new EOFException("record fails its checksum");
+                    }
+                    int end = buffer.position() + length;
+                    long recordVersion = buffer.getLong();
+                    if (recordVersion <= version) {
+                        buffer.position(end); // already in the snapshot
+                    } else if (recordVersion != version + 1) {
+                        throw new IOException(segment + " skips from version " + version + " to " + recordVersion);
+                    } else {
+                        apply(buffer, builder);
+                        version = recordVersion;
+                    }
+                    position += 8 + length;
+                }
+            } catch (EOFException e) {
+                if (!last) {
+                    throw new IOException(segment + " is damaged at byte " + position, e);
+                }
+                in.truncate(position); // a write that never completed
+                in.force(false);
+                return version;
+            }
+        }
+    }
+
+    private void apply(ByteBuffer buffer, Hash.Builder<K, V> builder) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte type = buffer.get();
+            int keyLength = buffer.getInt();
+            K key = keyCodec.decode(buffer, buffer.position(), keyLength);
+            buffer.position(buffer.position() + keyLength);
+            if (type == REMOVE) {
+                builder.remove(key);
+            } else {
+                int valueLength = buffer.getInt();
+                builder.put(key, valueCodec.decode(buffer, buffer.position(), valueLength));
+                buffer.position(buffer.position() + valueLength);
+            }
+        }
+    }
+
+    /**
+     * @return a buffer, {@code buffer} itself unless it was too small, with at least
+     *         {@code needed} bytes remaining
+     */
+    private static ByteBuffer require(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(needed) << 1).put(buffer);
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("log segment ended early");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // --- files
+
+    private FileChannel openSegment(long firstVersion) throws IOException {
+        // an existing segment of this name holds no records, or the recovered version would be past it
+        FileChannel segment = FileChannel.open(segment(firstVersion), CREATE, TRUNCATE_EXISTING, WRITE);
+        writeFully(segment, (ByteBuffer) ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(FORMAT_VERSION).flip());
+        segment.force(false);
+        syncDirectory(); // forcing the file doesn't persist its directory entry, a crash could lose the segment
+        return segment;
+    }
+
+    /**
+     * Forces the directory itself, so files created or renamed in it survive a crash.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(directory, READ)) {
+            dir.force(true);
+        }
+    }
+
+    private Path segment(long firstVersion) {
+        return directory.resolve(name(SEGMENT_PREFIX, firstVersion, SEGMENT_SUFFIX));
+    }
+
+    private static String name(String prefix, long version, String suffix) {
+        return String.format("%s%019d%s", prefix, version, suffix); // padded so they sort by version
+    }
+
+    private static long versionOf(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * @return the files with the given prefix and suffix, oldest version first
+     */
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : paths) {
+                result.add(path);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
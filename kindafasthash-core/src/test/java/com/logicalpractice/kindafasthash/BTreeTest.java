@@ -0,0 +1,165 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class BTreeTest {
+
+    @Test
+    public void with_ShouldNotModifyThePreviousVersion() throws Exception {
+        BTree<String, Integer> first = BTree.<String, Integer>emptyTree().with("Wibble", 1);
+        BTree<String, Integer> second = first.with("Wobble", 2).with("Wibble", 3);
+
+        assertThat(first.get("Wibble"), equalTo(1));
+        assertThat(first.containsKey("Wobble"), equalTo(false));
+        assertThat(second.get("Wibble"), equalTo(3));
+        assertThat(second.size(), equalTo(2));
+        assertThat(second.version(), equalTo(3L));
+    }
+
+    @Test
+    public void with_sameValue_ShouldReturnSameTree() throws Exception {
+        Integer value = 1;
+        BTree<String, Integer> testObject = BTree.<String, Integer>emptyTree().with("Wibble", value);
+
+        assertThat(testObject.with("Wibble", value), sameInstance(testObject));
+        assertThat(testObject.without("Wobble"), sameInstance(testObject));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void get_null_ShouldThrow() throws Exception {
+        BTree.<String, Integer>emptyTree().get(null);
+    }
+
+    @Test
+    public void comparator_ShouldOrderTheKeys() throws Exception {
+        BTree<String, Integer> testObject = BTree.emptyTree(Collections.<String>reverseOrder());
+        for (int i = 0; i < 100; i++) {
+            testObject = testObject.with(String.format("%03d", i), i);
+        }
+
+        assertThat(testObject.firstEntry().getKey(), equalTo("099"));
+        assertThat(testObject.lastEntry().getKey(), equalTo("000"));
+        assertThat(testObject.ceilingEntry("050x").getKey(), equalTo("050"));
+        assertThat(testObject.count("060", true, "050", false), equalTo(10));
+    }
+
+    @Test
+    public void randomUpdates_ShouldMatchATreeMap() throws Exception {
+        Random random = new Random(42);
+        BTree<Integer, Integer> testObject = BTree.emptyTree();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        List<BTree<Integer, Integer>> versions = new ArrayList<>();
+        List<TreeMap<Integer, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) { // grows to a few thousand, enough for three levels
+                testObject = testObject.without(key);
+                expected.remove(key);
+            } else {
+                testObject = testObject.with(key, i);
+                expected.put(key, i);
+            }
+            if (i % 2_000 == 0) {
+                versions.add(testObject);
+                expectedVersions.add(new TreeMap<>(expected));
+            }
+        }
+        for (int i = 0; i < 20_000; i++) { // and shrinks back to nothing
+            testObject = testObject.without(random.nextInt(5_000));
+            if (i % 2_000 == 0) {
+                versions.add(testObject);
+                TreeMap<Integer, Integer> remaining = new TreeMap<>();
+                testObject.forEach(remaining::put);
+                expectedVersions.add(remaining);
+            }
+        }
+        for (Integer key : new ArrayList<>(expected.keySet())) {
+            testObject = testObject.without(key);
+        }
+        versions.add(testObject);
+        expectedVersions.add(new TreeMap<Integer, Integer>());
+
+        for (int v = 0; v < versions.size(); v++) {
+            assertMatches(versions.get(v), expectedVersions.get(v), random);
+        }
+    }
+
+    @Test
+    public void withAll_ShouldMatchATreeMap() throws Exception {
+        Random random = new Random(42);
+        BTree<Integer, Integer> testObject = BTree.emptyTree();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+
+        for (int round = 0; round < 200; round++) {
+            TreeMap<Integer, Integer> batch = new TreeMap<>();
+            int size = round == 0 ? 5_000 : random.nextInt(round % 10 == 0 ? 3_000 : 40); // the first grows an empty tree three levels at once
+            for (int i = 0; i < size; i++) {
+                batch.put(random.nextInt(5_000), round);
+            }
+            BTree<Integer, Integer> previous = testObject;
+            testObject = testObject.withAll(batch.keySet().toArray(), batch.values().toArray());
+            expected.putAll(batch);
+            for (int i = 0; i < 20; i++) { // removes exercise the merging of whatever widths the batch left
+                int key = random.nextInt(5_000);
+                testObject = testObject.without(key);
+                expected.remove(key);
+            }
+            if (round % 20 == 0) {
+                assertMatches(testObject, expected, random);
+            }
+            if (batch.isEmpty()) {
+                assertThat(previous.withAll(new Object[0], new Object[0]), sameInstance(previous));
+            }
+        }
+        assertMatches(testObject, expected, random);
+
+        Object[] keys = expected.keySet().toArray();
+        assertThat(testObject.withAll(keys, expected.values().toArray()), sameInstance(testObject)); // every value the same
+    }
+
+    private static void assertMatches(BTree<Integer, Integer> tree, NavigableMap<Integer, Integer> expected, Random random) {
+        assertThat(tree.size(), equalTo(expected.size()));
+        assertThat(list(tree.iterator()), equalTo(new ArrayList<>(expected.entrySet())));
+        assertThat(tree.firstEntry(), equalTo(expected.firstEntry()));
+        assertThat(tree.lastEntry(), equalTo(expected.lastEntry()));
+        for (int i = 0; i < 200; i++) {
+            int key = random.nextInt(5_200) - 100;
+            assertThat(tree.get(key), equalTo(expected.get(key)));
+            assertThat(tree.floorEntry(key), equalTo(expected.floorEntry(key)));
+            assertThat(tree.lowerEntry(key), equalTo(expected.lowerEntry(key)));
+            assertThat(tree.ceilingEntry(key), equalTo(expected.ceilingEntry(key)));
+            assertThat(tree.higherEntry(key), equalTo(expected.higherEntry(key)));
+
+            int to = key + random.nextInt(500);
+            boolean fromInclusive = random.nextBoolean(), toInclusive = random.nextBoolean();
+            NavigableMap<Integer, Integer> range = expected.subMap(key, fromInclusive, to, toInclusive);
+            assertThat(tree.count(key, fromInclusive, to, toInclusive), equalTo(range.size()));
+            assertThat(list(tree.iterator(key, fromInclusive, to, toInclusive)), equalTo(new ArrayList<>(range.entrySet())));
+            assertThat(list(tree.iterator(key, fromInclusive, to, toInclusive, true)),
+                    equalTo(new ArrayList<>(range.descendingMap().entrySet())));
+        }
+    }
+
+    private static List<Map.Entry<Integer, Integer>> list(Iterator<Map.Entry<Integer, Integer>> entries) {
+        List<Map.Entry<Integer, Integer>> result = new ArrayList<>();
+        entries.forEachRemaining(result::add);
+        return result;
+    }
+}
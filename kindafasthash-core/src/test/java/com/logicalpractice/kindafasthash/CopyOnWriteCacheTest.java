@@ -0,0 +1,168 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class CopyOnWriteCacheTest {
+
+    @Test
+    public void get_ShouldReturnWhatWasPut() throws Exception {
+        CopyOnWriteCache<String, Integer> testObject = CopyOnWriteCache.<String, Integer>newBuilder().build();
+
+        assertThat(testObject.put("Wibble", 1), nullValue());
+        assertThat(testObject.put("Wibble", 2), equalTo(1));
+        assertThat(testObject.putIfAbsent("Wibble", 3), equalTo(2));
+        assertThat(testObject.get("Wibble"), equalTo(2));
+        assertThat(testObject.get("Wobble"), nullValue());
+        assertThat(testObject.remove("Wibble"), equalTo(2));
+        assertThat(testObject.get("Wibble"), nullValue());
+        assertThat(testObject.hitCount(), equalTo(1L));
+        assertThat(testObject.missCount(), equalTo(2L));
+    }
+
+    @Test
+    public void get_withLoader_ShouldOnlyLoadWhenAbsent() throws Exception {
+        CopyOnWriteCache<String, Integer> testObject = CopyOnWriteCache.<String, Integer>newBuilder().build();
+        AtomicLong loads = new AtomicLong();
+
+        assertThat(testObject.get("Wibble", key -> (int) loads.incrementAndGet()), equalTo(1));
+        assertThat(testObject.get("Wibble", key -> (int) loads.incrementAndGet()), equalTo(1));
+        assertThat(loads.get(), equalTo(1L));
+    }
+
+    @Test
+    public void maximumSize_ShouldBoundTheNumberOfEntries() throws Exception {
+        CopyOnWriteCache<Integer, Integer> testObject = CopyOnWriteCache.<Integer, Integer>newBuilder()
+                .maximumSize(100)
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            testObject.put(i, i);
+            assertThat(testObject.size() <= 100, equalTo(true));
+        }
+        assertThat(testObject.evictionCount(), equalTo(900L));
+    }
+
+    @Test
+    public void maximumSize_ShouldKeepFrequentKeysThroughAScan() throws Exception {
+        CopyOnWriteCache<Integer, Integer> testObject = CopyOnWriteCache.<Integer, Integer>newBuilder()
+                .maximumSize(100)
+                .build();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                testObject.get(i, key -> key);
+            }
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            testObject.get(1000 + i, key -> key); // each asked for once
+            if (i % 4 == 0) {
+                testObject.get(i / 4 % 50, key -> key); // too seldom for an LRU cache of 100 to keep
+            }
+        }
+
+        testObject.cleanUp();
+        int kept = 0;
+        for (int i = 0; i < 50; i++) {
+            if (testObject.get(i) != null) kept++;
+        }
+        assertThat(kept, equalTo(50));
+    }
+
+    @Test
+    public void expireAfterWrite_ShouldHideAndThenRemoveOldEntries() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        CopyOnWriteCache<String, Integer> testObject = CopyOnWriteCache.<String, Integer>newBuilder()
+                .expireAfterWrite(10, TimeUnit.SECONDS)
+                .ticker(nanos::get)
+                .build();
+        testObject.put("Wibble", 1);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        testObject.put("Wobble", 2);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertThat(testObject.get("Wibble"), nullValue());
+        assertThat(testObject.get("Wobble"), equalTo(2));
+
+        testObject.cleanUp();
+        assertThat(testObject.size(), equalTo(1));
+    }
+
+    @Test
+    public void expireAfterAccess_readsShouldKeepAnEntry() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        CopyOnWriteCache<String, Integer> testObject = CopyOnWriteCache.<String, Integer>newBuilder()
+                .expireAfterAccess(10, TimeUnit.SECONDS)
+                .ticker(nanos::get)
+                .build();
+        testObject.put("Wibble", 1);
+        testObject.put("Wobble", 2);
+
+        for (int i = 0; i < 5; i++) {
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(4));
+            assertThat(testObject.get("Wibble"), equalTo(1));
+        }
+
+        assertThat(testObject.get("Wobble"), nullValue());
+        testObject.cleanUp();
+        assertThat(testObject.size(), equalTo(1));
+    }
+
+    @Test
+    public void frequencySketch_ShouldCountAndThenAge() throws Exception {
+        CopyOnWriteCache.FrequencySketch sketch = new CopyOnWriteCache.FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(Hash.hash("Wibble"));
+        }
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(Hash.hash("Wobble"));
+        }
+
+        assertThat(sketch.frequency(Hash.hash("Wibble")), equalTo(5));
+        assertThat(sketch.frequency(Hash.hash("Wobble")), equalTo(15)); // counters saturate
+        assertThat(sketch.frequency(Hash.hash("Foo")), equalTo(0));
+
+        for (int i = 0; i < 640; i++) { // enough other keys to trigger a halving
+            sketch.increment(Hash.hash(i));
+        }
+        assertThat(sketch.frequency(Hash.hash("Wibble")) <= 3, equalTo(true));
+    }
+
+    @Test
+    public void concurrentReadsAndWrites_ShouldStayBounded() throws Exception {
+        CopyOnWriteCache<Integer, Integer> testObject = CopyOnWriteCache.<Integer, Integer>newBuilder()
+                .maximumSize(500)
+                .build();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int key = (i * 31 + seed) % 2000;
+                    Integer value = testObject.get(key, k -> k * 2);
+                    if (value != key * 2) failed.set(true);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(failed.get(), equalTo(false));
+        assertThat(testObject.size() <= 500, equalTo(true));
+    }
+}
@@ -1,5 +1,6 @@
 package com.logicalpractice.kindafasthash;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.testing.MapTestSuiteBuilder;
 import com.google.common.collect.testing.features.CollectionFeature;
 import com.google.common.collect.testing.features.CollectionSize;
@@ -8,11 +9,28 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class CopyOnWriteHashMapTest extends TestCase {
@@ -33,6 +51,36 @@ public class CopyOnWriteHashMapTest extends TestCase {
                 .named("CopyOnWriteHashMap")
                 .createTestSuite());
 
+        suite.addTest(MapTestSuiteBuilder.using(new MapGenerators.CompactCopyOnWriteHashMapGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        MapFeature.SUPPORTS_PUT,
+                        MapFeature.SUPPORTS_REMOVE,
+                        CollectionFeature.SUPPORTS_ITERATOR_REMOVE,
+                        CollectionFeature.ALLOWS_NULL_QUERIES)
+                .named("CopyOnWriteHashMap[COMPACT]")
+                .createTestSuite());
+
+        suite.addTest(MapTestSuiteBuilder.using(new MapGenerators.Murmur3CopyOnWriteHashMapGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        MapFeature.SUPPORTS_PUT,
+                        MapFeature.SUPPORTS_REMOVE,
+                        CollectionFeature.SUPPORTS_ITERATOR_REMOVE,
+                        CollectionFeature.ALLOWS_NULL_QUERIES)
+                .named("CopyOnWriteHashMap[MURMUR3]")
+                .createTestSuite());
+
+        suite.addTest(MapTestSuiteBuilder.using(new MapGenerators.CombiningCopyOnWriteHashMapGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        MapFeature.SUPPORTS_PUT,
+                        MapFeature.SUPPORTS_REMOVE,
+                        CollectionFeature.SUPPORTS_ITERATOR_REMOVE,
+                        CollectionFeature.ALLOWS_NULL_QUERIES)
+                .named("CopyOnWriteHashMap[COMBINING]")
+                .createTestSuite());
+
         return suite;
     }
 
@@ -79,4 +127,648 @@ public class CopyOnWriteHashMapTest extends TestCase {
     }
 
 
-}
\ No newline at end of file
+    public void testPutAllPublishesAllEntries() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put(1, 1);
+
+        Map<Integer,Integer> batch = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.put(i, i * 2);
+        }
+        testObject.putAll(batch);
+
+        assertThat(testObject, equalTo(batch));
+    }
+
+    public void testPutAllWithNullValueLeavesMapUnchanged() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put(1, 1);
+
+        Map<Integer,Integer> batch = new LinkedHashMap<>();
+        batch.put(2, 2);
+        batch.put(3, null);
+        try {
+            testObject.putAll(batch);
+            fail("expected NullPointerException");
+        } catch (NullPointerException expected) {
+        }
+
+        assertThat(testObject.size(), equalTo(1));
+        assertThat(testObject.containsKey(2), equalTo(false));
+    }
+
+    public void testRemoveAll() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put(1, 2);
+        testObject.put(2, 4);
+        testObject.put(3, 6);
+
+        assertThat(testObject.removeAll(Arrays.asList(1, 3, 5)), equalTo(true));
+        assertThat(testObject.keySet(), equalTo(Collections.singleton(2)));
+        assertThat(testObject.removeAll(Arrays.asList(1, 3, 5)), equalTo(false));
+    }
+
+    public void testUpdateSeesCurrentContents() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put("a", 1);
+
+        testObject.update(new Consumer<Hash.Builder<String, Integer>>() {
+            @Override
+            public void accept(Hash.Builder<String, Integer> builder) {
+                builder.put("b", builder.get("a") + 1).remove("a");
+            }
+        });
+
+        assertThat(testObject, equalTo(Collections.singletonMap("b", 2)));
+    }
+
+    public void testReadersSeeWholeBatches() throws Exception {
+        final CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Map<Integer,Integer> batch = new HashMap<>();
+                for (int round = 0; round < 2000; round++) {
+                    for (int key = 0; key < 50; key++) {
+                        batch.put(key, round);
+                    }
+                    testObject.putAll(batch);
+                }
+                done.set(true);
+            }
+        });
+        writer.start();
+        while (!done.get()) {
+            Set<Integer> values = new HashSet<>(testObject.values());
+            assertThat("values seen together " + values, values.size() <= 1, equalTo(true));
+        }
+        writer.join();
+    }
+
+    public void testPutIfAbsent() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+
+        assertThat(testObject.putIfAbsent("a", 1), nullValue());
+        assertThat(testObject.putIfAbsent("a", 2), equalTo(1));
+        assertThat(testObject.get("a"), equalTo(1));
+    }
+
+    public void testReplace() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+
+        assertThat(testObject.replace("a", 1), nullValue());
+        assertThat(testObject.containsKey("a"), equalTo(false));
+
+        testObject.put("a", 1);
+        assertThat(testObject.replace("a", 2), equalTo(1));
+        assertThat(testObject.replace("a", 1, 3), equalTo(false));
+        assertThat(testObject.replace("a", 2, 3), equalTo(true));
+        assertThat(testObject.get("a"), equalTo(3));
+    }
+
+    public void testComputeIfAbsent() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+
+        assertThat(testObject.computeIfAbsent("abc", String::length), equalTo(3));
+        assertThat(testObject.computeIfAbsent("abc", k -> 10), equalTo(3));
+        assertThat(testObject.computeIfAbsent("de", k -> null), nullValue());
+        assertThat(testObject.containsKey("de"), equalTo(false));
+    }
+
+    public void testComputeIfPresent() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+
+        assertThat(testObject.computeIfPresent("a", (k, v) -> v + 1), nullValue());
+        testObject.put("a", 1);
+        assertThat(testObject.computeIfPresent("a", (k, v) -> v + 1), equalTo(2));
+        assertThat(testObject.computeIfPresent("a", (k, v) -> null), nullValue());
+        assertThat(testObject.isEmpty(), equalTo(true));
+    }
+
+    public void testCompute() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+
+        assertThat(testObject.compute("a", (k, v) -> v == null ? 1 : v + 1), equalTo(1));
+        assertThat(testObject.compute("a", (k, v) -> v == null ? 1 : v + 1), equalTo(2));
+        assertThat(testObject.compute("a", (k, v) -> null), nullValue());
+        assertThat(testObject.containsKey("a"), equalTo(false));
+    }
+
+    public void testMerge() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+
+        assertThat(testObject.merge("a", 5, Integer::sum), equalTo(5));
+        assertThat(testObject.merge("a", 5, Integer::sum), equalTo(10));
+        assertThat(testObject.merge("a", 5, (a, b) -> null), nullValue());
+        assertThat(testObject.containsKey("a"), equalTo(false));
+    }
+
+    public void testReplaceAll() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            testObject.put(i, i);
+        }
+        testObject.replaceAll((k, v) -> v * 2);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(testObject.get(i), equalTo(i * 2));
+        }
+    }
+
+    public void testConcurrentMergeDoesNotLoseUpdates() throws Exception {
+        final CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        final int increments = 20_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < increments; i++) {
+                        testObject.merge(i % 10, 1, Integer::sum);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        int total = 0;
+        for (Integer count : testObject.values()) {
+            total += count;
+        }
+        assertThat(total, equalTo(4 * increments));
+    }
+
+    public void testEntrySetIsALiveView() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        Set<Map.Entry<String,Integer>> entrySet = testObject.entrySet();
+
+        testObject.put("Wibble", 1);
+
+        assertThat(testObject.entrySet() == entrySet, equalTo(true));
+        assertThat(entrySet.size(), equalTo(1));
+    }
+
+    public void testIteratorRemoveAfterAConcurrentChange() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put("Wibble", 1);
+        testObject.put("Wobble", 2);
+
+        Iterator<String> iterator = testObject.keySet().iterator();
+        String first = iterator.next();
+        testObject.put("Foo", 3); // the iterator carries on over the older snapshot
+        iterator.remove();
+
+        assertThat(testObject.containsKey(first), equalTo(false));
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.get("Foo"), equalTo(3));
+    }
+
+    public void testForEach() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put("Wibble", 1);
+        testObject.put("Wobble", 2);
+        Map<String,Integer> visited = new HashMap<>();
+
+        testObject.forEach(visited::put);
+
+        assertThat(visited, equalTo((Map<String,Integer>) testObject));
+    }
+
+    public void testByteArrayKeys() throws Exception {
+        CopyOnWriteHashMap<byte[],String> testObject = new CopyOnWriteHashMap<>(HashingStrategies.BYTE_ARRAY);
+        testObject.put(new byte[]{1, 2, 3}, "Wibble");
+        testObject.put(new byte[]{1, 2, 3}, "Wobble");
+        testObject.clear();
+        testObject.put(new byte[]{4}, "Foo");
+
+        assertThat(testObject.get(new byte[]{4}), equalTo("Foo"));
+        assertThat(testObject.remove(new byte[]{4}), equalTo("Foo"));
+        assertThat(testObject.isEmpty(), equalTo(true));
+    }
+
+    public void testEntrySetParallelStream() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            testObject.put(i, i);
+        }
+
+        long sum = testObject.entrySet().parallelStream().mapToLong(Map.Entry::getValue).sum();
+
+        assertThat(sum, equalTo(49_995_000L));
+        assertThat(testObject.reduce(1, (key, value) -> (long) value, Long::sum), equalTo(49_995_000L));
+        assertThat(testObject.search(1, (key, value) -> key == 42 ? value : null), equalTo(42));
+    }
+
+    public void testSnapshotToThenRestoreFrom() throws Exception {
+        CopyOnWriteHashMap<String,Long> original = new CopyOnWriteHashMap<>();
+        for (long i = 0; i < 1000; i++) {
+            original.put("key" + i, i);
+        }
+        Path directory = Files.createTempDirectory("CopyOnWriteHashMapTest");
+        Path path = directory.resolve("snapshot");
+        try {
+            original.snapshotTo(path, Codecs.STRING, Codecs.LONG);
+            original.put("later", -1L);
+
+            CopyOnWriteHashMap<String,Long> restored = new CopyOnWriteHashMap<>(CopyOnWriteHashMap.SnapshotLayout.COMPACT);
+            restored.put("replaced", 0L);
+            restored.restoreFrom(path, Codecs.STRING, Codecs.LONG);
+
+            Map<String,Long> expected = new HashMap<>(original);
+            expected.remove("later");
+            assertThat(restored, equalTo(expected));
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+
+    public void testStatsWithoutARecorderOnlyHaveTheShape() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put("Wibble", 1);
+        testObject.put("Wobble", 2);
+
+        MapStats stats = testObject.stats();
+
+        assertThat(stats.writeCount(), equalTo(0L));
+        assertThat(stats.size(), equalTo(2));
+        assertThat(stats.nodeCount() >= 1, equalTo(true));
+        assertThat(stats.maxChainLength(), equalTo(1));
+        assertThat(stats.averageChainLength(), equalTo(1.0));
+    }
+
+    public void testCountingRecorder() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>(
+                CopyOnWriteHashMap.SnapshotLayout.TRIE, HashingStrategies.DEFAULT, new CountingMapStatsRecorder());
+        String[] keys = Keys.collidingKeys(20);
+        for (int i = 0; i < keys.length; i++) {
+            testObject.put(keys[i], i);
+        }
+        testObject.put(keys[0], 0); // no change, not a write
+        testObject.remove(keys[1]);
+
+        MapStats stats = testObject.stats();
+
+        assertThat(stats.writeCount(), equalTo(21L));
+        assertThat(stats.casRetryCount(), equalTo(0L));
+        assertThat(stats.bytesCopied() > 21 * 32, equalTo(true));
+        assertThat(stats.compactionCount(), equalTo(0L));
+        assertThat(stats.maxChainLength(), equalTo(19));
+    }
+
+    public void testCompactionsAreCounted() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>(
+                CopyOnWriteHashMap.SnapshotLayout.COMPACT, HashingStrategies.DEFAULT, new CountingMapStatsRecorder());
+        for (int i = 0; i < 100; i++) {
+            testObject.put(i, i);
+        }
+
+        MapStats stats = testObject.stats();
+
+        assertThat(stats.compactionCount(), equalTo(100L));
+        assertThat(stats.loadFactor() > 0 && stats.loadFactor() <= 0.5, equalTo(true));
+        assertThat(stats.bytesCopiedPerWrite() > 100 * 12 / 2, equalTo(true)); // the tables dominate
+    }
+
+    public void testDropwizardRecorder() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>(
+                CopyOnWriteHashMap.SnapshotLayout.COMPACT, HashingStrategies.DEFAULT,
+                new DropwizardMapStatsRecorder(registry, "map"));
+        for (int i = 0; i < 10; i++) {
+            testObject.put(i, i);
+        }
+
+        assertThat(registry.histogram("map.bytesCopied").getCount(), equalTo(10L));
+        assertThat(registry.timer("map.compactions").getCount(), equalTo(10L));
+        assertThat(registry.meter("map.casRetries").getCount(), equalTo(0L));
+        assertThat(testObject.stats().writeCount(), equalTo(10L));
+    }
+
+    public void testConcurrentPutsAndRemovesInEachWriteMode() throws Exception {
+        for (CopyOnWriteHashMap.WriteMode mode : CopyOnWriteHashMap.WriteMode.values()) {
+            final CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>(
+                    CopyOnWriteHashMap.SnapshotLayout.TRIE, HashingStrategies.DEFAULT, null, mode);
+            final int writes = 20_000;
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int offset = t * writes;
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < writes; i++) {
+                            assertThat(testObject.put(offset + i, i), nullValue());
+                            if (i % 2 == 1) {
+                                assertThat(testObject.remove(offset + i - 1), equalTo(i - 1));
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) thread.start();
+            for (Thread thread : threads) thread.join();
+
+            assertThat(mode.toString(), testObject.size(), equalTo(4 * writes / 2));
+            for (int t = 0; t < 4; t++) {
+                assertThat(testObject.get(t * writes + 1), equalTo(1));
+                assertThat(testObject.get(t * writes), nullValue());
+            }
+        }
+    }
+
+    public void testCombiningRethrowsToTheWriter() throws Exception {
+        CopyOnWriteHashMap<Object,Integer> testObject = new CopyOnWriteHashMap<>(
+                CopyOnWriteHashMap.SnapshotLayout.TRIE, HashingStrategies.DEFAULT, null,
+                CopyOnWriteHashMap.WriteMode.COMBINING);
+        testObject.put("Wibble", 1);
+        try {
+            testObject.put(new Object() {
+                @Override
+                public int hashCode() {
+                    throw new IllegalStateException("no hash");
+                }
+            }, 2);
+            fail();
+        } catch (IllegalStateException expected) {
+            // rethrown from whichever thread combined the write
+        }
+        assertThat(testObject.put("Wibble", 3), equalTo(1));
+        assertThat(testObject.size(), equalTo(1));
+    }
+
+    public void testCombiningFailsTheWholeBatchWhenPublishingThrows() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<Integer,Integer>(
+                CopyOnWriteHashMap.SnapshotLayout.TRIE, HashingStrategies.DEFAULT, null,
+                CopyOnWriteHashMap.WriteMode.COMBINING) {
+            @Override
+            void published(Hash<Integer,Integer> previous, Hash<Integer,Integer> current) {
+                throw new IllegalStateException("publishing failed");
+            }
+        };
+        int writes = 2000;
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int base = t * writes;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < writes; i++) {
+                    try {
+                        testObject.put(base + i, i);
+                    } catch (IllegalStateException expected) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse("a writer is still waiting on its batch", thread.isAlive());
+        }
+
+        assertThat(failures.get(), equalTo(8 * writes)); // every write was published, and every one told it failed
+        assertThat(testObject.size(), equalTo(8 * writes));
+    }
+
+    public void testSnapshotIsUnaffectedByLaterWrites() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put("Wibble", 1);
+        Hash<String,Integer> snapshot = testObject.snapshot();
+
+        testObject.put("Wibble", 2);
+        testObject.put("Wobble", 3);
+
+        assertThat(snapshot.get("Wibble"), equalTo(1));
+        assertThat(snapshot.containsKey("Wobble"), equalTo(false));
+        assertThat(testObject.snapshot().version() > snapshot.version(), equalTo(true));
+    }
+
+    public void testVersionsOnlyGoUp() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        List<Long> versions = new ArrayList<>();
+        versions.add(testObject.snapshot().version());
+        testObject.put("Wibble", 1);
+        versions.add(testObject.snapshot().version());
+        testObject.clear();
+        versions.add(testObject.snapshot().version());
+        testObject.compareAndSetSnapshot(testObject.snapshot(), Hash.<String,Integer>emptyHash().with("Foo", 1));
+        versions.add(testObject.snapshot().version());
+
+        assertThat(versions, equalTo(Arrays.asList(0L, 1L, 2L, 3L)));
+    }
+
+    public void testCompareAndSetSnapshotFailsOnceStale() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put("Wibble", 1);
+        Hash<String,Integer> snapshot = testObject.snapshot();
+        testObject.put("Wobble", 2);
+
+        assertThat(testObject.compareAndSetSnapshot(snapshot, snapshot.with("Foo", 3)), equalTo(false));
+        assertThat(testObject.containsKey("Foo"), equalTo(false));
+        assertThat(testObject.compareAndSetSnapshot(testObject.snapshot(), testObject.snapshot().with("Foo", 3)), equalTo(true));
+        assertThat(testObject.get("Foo"), equalTo(3));
+    }
+
+    public void testCompareAndSetSnapshotWithAnotherStrategyFails() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        try {
+            testObject.compareAndSetSnapshot(testObject.snapshot(),
+                    Hash.<String,Integer>emptyHash(HashingStrategies.MURMUR3).with("Wibble", 1));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testOptimisticTransfersKeepTheTotal() throws Exception {
+        final CopyOnWriteHashMap<Integer,Integer> accounts = new CopyOnWriteHashMap<>();
+        final AtomicBoolean inconsistent = new AtomicBoolean();
+        for (int i = 0; i < 10; i++) {
+            accounts.put(i, 100);
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5_000; i++) {
+                        int from = (seed + i) % 10, to = (seed * 3 + i * 7 + 1) % 10;
+                        if (from == to) continue;
+                        Hash<Integer,Integer> snapshot;
+                        do {
+                            snapshot = accounts.snapshot();
+                            int total = 0;
+                            for (Map.Entry<Integer,Integer> entry : snapshot) {
+                                total += entry.getValue();
+                            }
+                            if (total != 1000) inconsistent.set(true); // every snapshot should be consistent
+                        } while ( ! accounts.compareAndSetSnapshot(snapshot, snapshot
+                                .with(from, snapshot.get(from) - 1)
+                                .with(to, snapshot.get(to) + 1)));
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        int total = 0;
+        for (Integer balance : accounts.values()) {
+            total += balance;
+        }
+        assertThat(total, equalTo(1000));
+        assertThat(inconsistent.get(), equalTo(false));
+    }
+
+    public void testListenerIsSentEachChange() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        List<MapChange<String,Integer>> changes = new ArrayList<>();
+        testObject.listen(Runnable::run, changes::add);
+
+        testObject.put("Wibble", 1);
+        testObject.put("Wobble", 2);
+        testObject.put("Wibble", 3);
+        testObject.remove("Wobble");
+
+        assertThat(changes.size(), equalTo(4));
+        assertThat(changes.get(0).diff().added().entrySet(), equalTo(Hash.<String,Integer>emptyHash().with("Wibble", 1).entrySet()));
+        assertThat(changes.get(2).diff().changed().entrySet(), equalTo(Hash.<String,Integer>emptyHash().with("Wibble", 3).entrySet()));
+        assertThat(changes.get(3).diff().removed().entrySet(), equalTo(Hash.<String,Integer>emptyHash().with("Wobble", 2).entrySet()));
+        assertThat(changes.get(3).current(), equalTo(testObject.snapshot()));
+        for (MapChange<String,Integer> change : changes) {
+            assertThat(change.writes(), equalTo(1L));
+        }
+    }
+
+    public void testSlowSubscriberIsSentTheChangesCoalesced() throws Exception {
+        CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        testObject.put(-1, -1);
+        List<Runnable> tasks = new ArrayList<>();
+        List<MapChange<Integer,Integer>> changes = new ArrayList<>();
+        testObject.listen(tasks::add, changes::add);
+
+        for (int i = 0; i < 100; i++) {
+            testObject.put(i, i);
+        }
+        testObject.remove(-1);
+        testObject.put(50, 0);
+        testObject.put(200, 200);
+        testObject.remove(200); // put and removed again between deliveries, so not seen
+
+        assertThat(tasks.size(), equalTo(1)); // the writers didn't queue anything more
+        tasks.get(0).run();
+
+        assertThat(changes.size(), equalTo(1));
+        MapChange<Integer,Integer> change = changes.get(0);
+        assertThat(change.writes(), equalTo(104L));
+        Hash.Diff<Integer,Integer> diff = change.diff();
+        assertThat(diff.added().size(), equalTo(100));
+        assertThat(diff.added().get(50), equalTo(0));
+        assertThat(diff.removed().size(), equalTo(1));
+        assertThat(diff.removed().containsKey(-1), equalTo(true));
+        assertThat(diff.changed().isEmpty(), equalTo(true));
+    }
+
+    public void testSubscriberIsOnlySentWhatItRequests() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        List<MapChange<String,Integer>> changes = new ArrayList<>();
+        List<MapChange.Subscription> subscriptions = new ArrayList<>();
+        testObject.subscribe(Runnable::run, new MapChange.Subscriber<String, Integer>() {
+            @Override
+            public void onSubscribe(MapChange.Subscription subscription) {
+                subscriptions.add(subscription);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(MapChange<String, Integer> change) {
+                changes.add(change);
+            }
+        });
+
+        testObject.put("Wibble", 1);
+        testObject.put("Wobble", 2);
+        testObject.put("Foo", 3);
+        assertThat(changes.size(), equalTo(1));
+
+        subscriptions.get(0).request(1);
+        assertThat(changes.size(), equalTo(2));
+        assertThat(changes.get(1).writes(), equalTo(2L));
+        assertThat(changes.get(1).diff().added().entrySet(), equalTo(Hash.<String,Integer>emptyHash().with("Wobble", 2).with("Foo", 3).entrySet()));
+
+        subscriptions.get(0).request(1); // nothing new yet
+        assertThat(changes.size(), equalTo(2));
+        testObject.put("Bar", 4);
+        assertThat(changes.size(), equalTo(3));
+
+        try {
+            subscriptions.get(0).request(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCancelledAndFailingSubscribersAreDropped() throws Exception {
+        CopyOnWriteHashMap<String,Integer> testObject = new CopyOnWriteHashMap<>();
+        List<MapChange<String,Integer>> changes = new ArrayList<>();
+        MapChange.Subscription subscription = testObject.listen(Runnable::run, changes::add);
+        testObject.listen(Runnable::run, change -> {
+            throw new IllegalStateException("Wibble");
+        });
+
+        try {
+            testObject.put("Wibble", 1);
+            fail();
+        } catch (IllegalStateException expected) {
+            // run on the writer's thread by this executor, the write has still been made
+        }
+        assertThat(testObject.get("Wibble"), equalTo(1));
+        subscription.cancel();
+
+        testObject.put("Wobble", 2);
+        assertThat(changes.size(), equalTo(1));
+    }
+
+    public void testConcurrentWritersAndASubscriberSeeTheSameMap() throws Exception {
+        final CopyOnWriteHashMap<Integer,Integer> testObject = new CopyOnWriteHashMap<>();
+        final Map<Integer,Integer> mirror = new HashMap<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        testObject.listen(executor, change -> change.forEach(new Hash.DiffVisitor<Integer, Integer>() {
+            @Override
+            public void added(Integer key, Integer value) {
+                mirror.put(key, value);
+            }
+
+            @Override
+            public void removed(Integer key, Integer value) {
+                mirror.remove(key);
+            }
+
+            @Override
+            public void changed(Integer key, Integer oldValue, Integer newValue) {
+                mirror.put(key, newValue);
+            }
+        }));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 1000;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < offset + 1000; i++) {
+                        testObject.put(i, i);
+                        if (i % 3 == 0) testObject.remove(i - 1);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), equalTo(true));
+
+        assertThat(mirror, equalTo((Map<Integer,Integer>) new HashMap<>(testObject)));
+    }
+}
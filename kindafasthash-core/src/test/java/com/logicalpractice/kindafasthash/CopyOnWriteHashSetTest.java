@@ -0,0 +1,131 @@
+package com.logicalpractice.kindafasthash;
+
+import com.google.common.collect.testing.SetTestSuiteBuilder;
+import com.google.common.collect.testing.TestStringSetGenerator;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class CopyOnWriteHashSetTest extends TestCase {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(CopyOnWriteHashSetTest.class);
+
+        suite.addTest(SetTestSuiteBuilder.using(new CopyOnWriteHashSetGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        CollectionFeature.SUPPORTS_ADD,
+                        CollectionFeature.SUPPORTS_REMOVE,
+                        CollectionFeature.SUPPORTS_ITERATOR_REMOVE,
+                        CollectionFeature.ALLOWS_NULL_QUERIES)
+                .named("CopyOnWriteHashSet")
+                .createTestSuite());
+
+        suite.addTest(SetTestSuiteBuilder.using(new PersistentHashSetGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        CollectionFeature.ALLOWS_NULL_QUERIES)
+                .named("PersistentHashSet")
+                .createTestSuite());
+
+        return suite;
+    }
+
+    public static class CopyOnWriteHashSetGenerator extends TestStringSetGenerator {
+        @Override
+        protected Set<String> create(String[] elements) {
+            CopyOnWriteHashSet<String> result = new CopyOnWriteHashSet<>();
+            result.addAll(Arrays.asList(elements));
+            return result;
+        }
+    }
+
+    public static class PersistentHashSetGenerator extends TestStringSetGenerator {
+        @Override
+        protected Set<String> create(String[] elements) {
+            return PersistentHashSet.copyOf(Arrays.asList(elements));
+        }
+    }
+
+    public void testSnapshotIsUnaffectedByLaterChanges() throws Exception {
+        CopyOnWriteHashSet<String> testObject = new CopyOnWriteHashSet<>();
+        testObject.add("a");
+        testObject.add("b");
+
+        PersistentHashSet<String> snapshot = testObject.snapshot();
+        testObject.remove("a");
+        testObject.add("c");
+
+        assertThat(snapshot, equalTo(PersistentHashSet.copyOf(Arrays.asList("a", "b"))));
+        assertThat(testObject.snapshot(), equalTo(PersistentHashSet.copyOf(Arrays.asList("b", "c"))));
+    }
+
+    public void testAddAllPublishesOnce() throws Exception {
+        CopyOnWriteHashSet<String> testObject = new CopyOnWriteHashSet<>();
+        testObject.add("a");
+        PersistentHashSet<String> before = testObject.snapshot();
+
+        assertThat(testObject.addAll(Arrays.asList("b", "c", "d")), equalTo(true));
+        assertThat(testObject.snapshot().asHash().version(), equalTo(before.asHash().version() + 1));
+
+        assertThat(testObject.addAll(Arrays.asList("a", "b")), equalTo(false));
+    }
+
+    public void testRetainAll() throws Exception {
+        CopyOnWriteHashSet<String> testObject = new CopyOnWriteHashSet<>();
+        testObject.addAll(Arrays.asList("a", "b", "c", "d"));
+
+        assertThat(testObject.retainAll(Arrays.asList("b", "d", "e")), equalTo(true));
+        assertThat(testObject.snapshot(), equalTo(PersistentHashSet.copyOf(Arrays.asList("b", "d"))));
+        assertThat(testObject.retainAll(Arrays.asList("b", "d")), equalTo(false));
+    }
+
+    public void testHashingStrategyIsUsed() throws Exception {
+        CopyOnWriteHashSet<String> testObject = new CopyOnWriteHashSet<>(HashingStrategies.MURMUR3);
+        testObject.addAll(Arrays.asList(Keys.sequentialKeys(1000)));
+        testObject.clear();
+        testObject.add("a");
+
+        assertThat(testObject.snapshot().asHash().hashingStrategy(), equalTo((Object) HashingStrategies.MURMUR3));
+        assertThat(testObject.contains("a"), equalTo(true));
+    }
+
+    public void testConcurrentAddsAndRemoves() throws Exception {
+        CopyOnWriteHashSet<Integer> testObject = new CopyOnWriteHashSet<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 10_000;
+            threads.add(new Thread(() -> {
+                for (int i = offset; i < offset + 10_000; i++) {
+                    if ( ! testObject.add(i)) failed.set(true);
+                }
+                for (int i = offset; i < offset + 10_000; i += 2) {
+                    if ( ! testObject.remove(i)) failed.set(true);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(failed.get(), equalTo(false));
+        assertThat(testObject.size(), equalTo(20_000));
+        for (int i = 0; i < 40_000; i++) {
+            assertThat(testObject.contains(i), equalTo(i % 2 == 1));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.logicalpractice.kindafasthash;
+
+import com.google.common.collect.testing.NavigableMapTestSuiteBuilder;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.MapFeature;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CopyOnWriteSortedMapTest extends TestCase {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(CopyOnWriteSortedMapTest.class);
+
+        suite.addTest(NavigableMapTestSuiteBuilder.using(new MapGenerators.CopyOnWriteSortedMapGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        MapFeature.SUPPORTS_PUT,
+                        MapFeature.SUPPORTS_REMOVE,
+                        CollectionFeature.SUPPORTS_ITERATOR_REMOVE)
+                .named("CopyOnWriteSortedMap")
+                .createTestSuite());
+
+        return suite;
+    }
+
+    public void testRangeIterationWalksASnapshot() throws Exception {
+        CopyOnWriteSortedMap<Integer,Integer> testObject = new CopyOnWriteSortedMap<>();
+        for (int i = 0; i < 1000; i++) {
+            testObject.put(i, i);
+        }
+        Iterator<Integer> keys = testObject.subMap(100, 200).keySet().iterator();
+
+        testObject.remove(150);
+        testObject.put(199, -1);
+        testObject.put(1500, 1500);
+
+        List<Integer> seen = new ArrayList<>();
+        keys.forEachRemaining(seen::add);
+        assertThat(seen.size(), equalTo(100));
+        assertThat(seen.get(50), equalTo(150));
+        assertThat(testObject.subMap(100, 200).size(), equalTo(99));
+    }
+
+    public void testViewsShareTheMap() throws Exception {
+        CopyOnWriteSortedMap<String,Integer> testObject = new CopyOnWriteSortedMap<>();
+        NavigableMap<String,Integer> bucket = testObject.subMap("2014-01", true, "2014-02", false);
+        testObject.put("2013-12-31", 1);
+        testObject.put("2014-01-01", 2);
+        testObject.put("2014-01-31", 3);
+        testObject.put("2014-02-01", 4);
+
+        assertThat(bucket.keySet(), equalTo((Set<String>) new TreeSet<>(Arrays.asList("2014-01-01", "2014-01-31"))));
+        assertThat(bucket.descendingMap().firstKey(), equalTo("2014-01-31"));
+
+        bucket.clear();
+        assertThat(testObject.keySet(), equalTo((Set<String>) new TreeSet<>(Arrays.asList("2013-12-31", "2014-02-01"))));
+        try {
+            bucket.put("2014-02-01", 5);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testDescendingSubMapOfADescendingMap() throws Exception {
+        CopyOnWriteSortedMap<Integer,Integer> testObject = new CopyOnWriteSortedMap<>();
+        TreeMap<Integer,Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 500; i += 3) {
+            testObject.put(i, i);
+            expected.put(i, i);
+        }
+
+        assertThat(testObject.descendingMap().subMap(400, true, 100, false).tailMap(300, false),
+                equalTo((Map<Integer,Integer>) expected.descendingMap().subMap(400, true, 100, false).tailMap(300, false)));
+        assertThat(testObject.descendingMap().headMap(50, false).lastEntry(),
+                equalTo(expected.descendingMap().headMap(50, false).lastEntry()));
+        assertThat(testObject.headMap(250, true).floorKey(1000), equalTo(249));
+        assertThat(testObject.tailMap(250).lowerKey(0), nullValue());
+    }
+
+    public void testSnapshotVersionsOnlyGoUp() throws Exception {
+        CopyOnWriteSortedMap<String,Integer> testObject = new CopyOnWriteSortedMap<>();
+        testObject.put("Wibble", 1);
+        BTree<String,Integer> snapshot = testObject.snapshot();
+        testObject.putAll(Collections.singletonMap("Wobble", 2));
+        testObject.clear();
+
+        assertThat(snapshot.get("Wibble"), equalTo(1));
+        assertThat(testObject.snapshot().version(), equalTo(snapshot.version() + 2));
+    }
+
+    public void testConcurrentWritersAndRangeReaders() throws Exception {
+        final CopyOnWriteSortedMap<Integer,Integer> testObject = new CopyOnWriteSortedMap<>();
+        final AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < 8_000; i += 4) {
+                        testObject.put(i, i);
+                    }
+                    for (int i = offset; i < 8_000; i += 8) {
+                        if (testObject.remove(i) == null) failed.set(true);
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200; i++) {
+                    Integer previous = null;
+                    for (Integer key : testObject.subMap(1000, 2000).keySet()) {
+                        if (previous != null && previous >= key) failed.set(true);
+                        previous = key;
+                    }
+                }
+            }
+        }));
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertThat(failed.get(), equalTo(false));
+        assertThat(testObject.size(), equalTo(4_000));
+        assertThat(testObject.firstKey(), equalTo(4));
+    }
+}
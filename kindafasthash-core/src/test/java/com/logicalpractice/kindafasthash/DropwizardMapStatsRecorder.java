@@ -0,0 +1,46 @@
+package com.logicalpractice.kindafasthash;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards a map's events to a Dropwizard {@link MetricRegistry}, under {@code name}.
+ */
+public class DropwizardMapStatsRecorder implements MapStatsRecorder {
+    private final Meter casRetries;
+    private final Histogram bytesCopied;
+    private final Timer compactions;
+
+    public DropwizardMapStatsRecorder(MetricRegistry registry, String name) {
+        casRetries = registry.meter(MetricRegistry.name(name, "casRetries"));
+        bytesCopied = registry.histogram(MetricRegistry.name(name, "bytesCopied"));
+        compactions = registry.timer(MetricRegistry.name(name, "compactions"));
+    }
+
+    @Override
+    public void recordCasRetry() {
+        casRetries.mark();
+    }
+
+    @Override
+    public void recordWrite(long bytesCopied) {
+        this.bytesCopied.update(bytesCopied);
+    }
+
+    @Override
+    public void recordCompaction(long nanos) {
+        compactions.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public MapStats snapshot() {
+        long compactionNanos = (long) (compactions.getSnapshot().getMean() * compactions.getCount());
+        return new MapStats(bytesCopied.getCount(), casRetries.getCount(),
+                (long) (bytesCopied.getSnapshot().getMean() * bytesCopied.getCount()),
+                compactions.getCount(), compactionNanos);
+    }
+}
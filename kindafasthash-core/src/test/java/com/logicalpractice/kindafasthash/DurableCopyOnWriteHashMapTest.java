@@ -0,0 +1,222 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DurableCopyOnWriteHashMapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_ShouldRecoverEveryWrite() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, Long> expected = new HashMap<>();
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.SYNC_PER_WRITE)) {
+            for (long i = 0; i < 1000; i++) {
+                testObject.put("key" + i, i);
+            }
+            for (long i = 0; i < 1000; i += 3) {
+                testObject.remove("key" + i);
+            }
+            testObject.merge("key1", 10L, Long::sum);
+            testObject.update(builder -> builder.put("Wibble", 1L).remove("key2"));
+            expected.putAll(testObject);
+        }
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject, equalTo(expected));
+            assertThat(testObject.get("key1"), equalTo(11L));
+            assertThat(testObject.get("key2"), nullValue());
+            assertThat(testObject.snapshot().version(), equalTo(1000L + 334 + 2));
+
+            testObject.clear();
+        }
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject.isEmpty(), equalTo(true));
+        }
+    }
+
+    @Test
+    public void checkpoint_ShouldReplaceTheLogWithASnapshot() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.SYNC_PER_BATCH)) {
+            for (long i = 0; i < 100; i++) {
+                testObject.put("key" + i, i);
+            }
+            testObject.checkpoint();
+            testObject.put("Wibble", 1L);
+            testObject.remove("key0");
+        }
+        assertThat(files(directory), equalTo(Stream.of(
+                "snapshot-0000000000000000100.kfh", "wal-0000000000000000101.log").collect(Collectors.toList())));
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject.size(), equalTo(100));
+            assertThat(testObject.get("Wibble"), equalTo(1L));
+            assertThat(testObject.get("key0"), nullValue());
+            assertThat(testObject.get("key99"), equalTo(99L));
+            assertThat(testObject.snapshot().version(), equalTo(102L));
+        }
+    }
+
+    @Test
+    public void open_ShouldTruncateATornLastRecord() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            testObject.put("Wibble", 1L);
+            testObject.put("Wobble", 2L);
+        }
+        Path segment = directory.resolve(files(directory).get(0));
+        try (FileChannel channel = FileChannel.open(segment, WRITE)) {
+            channel.truncate(channel.size() - 3); // part of the last record made it to disk
+        }
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject.get("Wibble"), equalTo(1L));
+            assertThat(testObject.get("Wobble"), nullValue());
+            testObject.put("Wubble", 3L);
+        }
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject.size(), equalTo(2));
+            assertThat(testObject.get("Wubble"), equalTo(3L));
+        }
+    }
+
+    @Test
+    public void open_ShouldRejectADamagedEarlierSegment() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            testObject.put("Wibble", 1L);
+        }
+        open(directory, DurableCopyOnWriteHashMap.Durability.NONE).close(); // starts a second segment
+        Path segment = directory.resolve(files(directory).get(0));
+        try (FileChannel channel = FileChannel.open(segment, WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try {
+            open(directory, DurableCopyOnWriteHashMap.Durability.NONE);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void put_afterClose_ShouldThrow() throws Exception {
+        DurableCopyOnWriteHashMap<String, Long> testObject = open(folder.getRoot().toPath(), DurableCopyOnWriteHashMap.Durability.NONE);
+        testObject.close();
+
+        try {
+            testObject.put("Wibble", 1L);
+            fail("expected an UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void open_afterConcurrentWriters_ShouldRecoverTheSameMap() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, Long> expected = new HashMap<>();
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.SYNC_PER_BATCH)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    for (long i = 0; i < 500; i++) {
+                        testObject.merge("key" + (i % 50), 1L, Long::sum);
+                        testObject.put("thread" + thread + "-" + i, i);
+                        if (i % 7 == 0) {
+                            testObject.remove("thread" + thread + "-" + (i / 2));
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            expected.putAll(testObject);
+            assertThat(testObject.get("key0"), equalTo(40L));
+        }
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject, equalTo(expected));
+        }
+    }
+
+    @Test
+    public void checkpoint_concurrentlyWithWriters_ShouldLoseNothing() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Map<String, Long> expected = new HashMap<>();
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.SYNC_PER_BATCH)) {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    for (long i = 0; i < 500; i++) {
+                        testObject.put("thread" + thread + "-" + i, i);
+                    }
+                }));
+            }
+            for (int t = 0; t < 2; t++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 20; i++) {
+                            testObject.checkpoint(); // two at once must not delete each other's segment or snapshot
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertThat(failures, equalTo(Collections.<Throwable>emptyList()));
+            expected.putAll(testObject);
+            assertThat(expected.size(), equalTo(2000));
+        }
+
+        try (DurableCopyOnWriteHashMap<String, Long> testObject = open(directory, DurableCopyOnWriteHashMap.Durability.NONE)) {
+            assertThat(testObject, equalTo(expected));
+            assertThat(testObject.snapshot().version(), equalTo(2000L));
+        }
+    }
+
+    private static DurableCopyOnWriteHashMap<String, Long> open(Path directory, DurableCopyOnWriteHashMap.Durability durability) throws IOException {
+        return DurableCopyOnWriteHashMap.open(directory, Codecs.STRING, Codecs.LONG, durability);
+    }
+
+    private static List<String> files(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
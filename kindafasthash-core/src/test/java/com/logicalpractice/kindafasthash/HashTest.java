@@ -5,8 +5,19 @@ import com.google.common.base.Functions;
 import org.junit.Test;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 import static com.google.common.collect.Iterators.transform;
 import static com.google.common.collect.Lists.newArrayList;
@@ -140,6 +151,655 @@ public class HashTest {
         assertThat(testObject.iterator().hasNext(), equalTo(false));
     }
 
+    @Test
+    public void with_manyKeys_ShouldAllBeRetrievable() throws Exception {
+        Hash<Integer, Integer> testObject = Hash.emptyHash();
+        for (int i = 0; i < 100_000; i++) {
+            testObject = testObject.with(i, i * 2);
+        }
+        assertThat(testObject.size(), equalTo(100_000));
+        for (int i = 0; i < 100_000; i++) {
+            assertThat(testObject.get(i), equalTo(i * 2));
+        }
+        assertThat(testObject.get(100_000), nullValue());
+    }
+
+    @Test
+    public void with_wellMixedHashCodes_ShouldAllBeRetrievable() throws Exception {
+        Hash<Integer, Integer> testObject = Hash.emptyHash();
+        for (int i = 0; i < 100_000; i++) {
+            testObject = testObject.with(i * 0x9E3779B9, i);
+        }
+        assertThat(testObject.size(), equalTo(100_000));
+        for (int i = 0; i < 100_000; i++) {
+            assertThat(testObject.get(i * 0x9E3779B9), equalTo(i));
+        }
+    }
+
+    @Test
+    public void with_shouldNotModifyThePreviousVersion() throws Exception {
+        Hash<Integer, Integer> before = Hash.emptyHash();
+        for (int i = 0; i < 1000; i++) {
+            before = before.with(i, i);
+        }
+        Hash<Integer, Integer> after = before.with(5, 50).with(5000, 1).without(7);
+
+        assertThat(before.size(), equalTo(1000));
+        assertThat(before.get(5), equalTo(5));
+        assertThat(before.get(7), equalTo(7));
+        assertThat(before.containsKey(5000), equalTo(false));
+
+        assertThat(after.size(), equalTo(1000));
+        assertThat(after.get(5), equalTo(50));
+        assertThat(after.containsKey(7), equalTo(false));
+        assertThat(after.get(5000), equalTo(1));
+    }
+
+    @Test
+    public void with_sameValue_ShouldReturnSameHash() throws Exception {
+        Integer value = 10;
+        Hash<String, Integer> testObject = Hash.<String, Integer>emptyHash().with("Wibble", value);
+
+        assertThat(testObject.with("Wibble", value) == testObject, equalTo(true));
+    }
+
+    @Test
+    public void without_missingKey_ShouldReturnSameHash() throws Exception {
+        Hash<String, Integer> testObject = Hash.<String, Integer>emptyHash().with("Wibble", 10);
+
+        assertThat(testObject.without("Wobble") == testObject, equalTo(true));
+    }
+
+    @Test
+    public void without_allKeys_ShouldLeaveAnEmptyHash() throws Exception {
+        Hash<Integer, Integer> testObject = Hash.emptyHash();
+        for (int i = 0; i < 10_000; i++) {
+            testObject = testObject.with(i, i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            testObject = testObject.without(i);
+            assertThat(testObject.size(), equalTo(10_000 - i - 1));
+        }
+        assertThat(testObject.isEmpty(), equalTo(true));
+        assertThat(testObject.iterator().hasNext(), equalTo(false));
+    }
+
+    @Test
+    public void randomOperations_ShouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<SharedHashCode, Integer> expected = new HashMap<>();
+        Hash<SharedHashCode, Integer> testObject = Hash.emptyHash();
+
+        for (int i = 0; i < 50_000; i++) {
+            SharedHashCode key = new SharedHashCode(random.nextInt(2000));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                testObject = testObject.without(key);
+            } else {
+                expected.put(key, i);
+                testObject = testObject.with(key, i);
+            }
+            assertThat(testObject.size(), equalTo(expected.size()));
+        }
+        for (Map.Entry<SharedHashCode, Integer> entry : expected.entrySet()) {
+            assertThat(testObject.get(entry.getKey()), equalTo(entry.getValue()));
+        }
+        Map<SharedHashCode, Integer> iterated = new HashMap<>();
+        for (Map.Entry<SharedHashCode, Integer> entry : testObject) {
+            iterated.put(entry.getKey(), entry.getValue());
+        }
+        assertThat(iterated, equalTo(expected));
+    }
+
+    @Test
+    public void without_hashCollisions_ShouldKeepTheRestOfTheChain() throws Exception {
+        Hash<ConstantHashCode, Integer> testObject = Hash.emptyHash();
+        testObject = testObject.with(new ConstantHashCode("Wibble"),1)
+                .with(new ConstantHashCode("Wobble"), 2)
+                .with(new ConstantHashCode("Foo"), 3)
+                .without(new ConstantHashCode("Wobble"));
+
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.get(new ConstantHashCode("Wibble")), equalTo(1));
+        assertThat(testObject.get(new ConstantHashCode("Wobble")), nullValue());
+        assertThat(testObject.get(new ConstantHashCode("Foo")), equalTo(3));
+    }
+
+    @Test
+    public void builder_shouldNotAffectTheHashItStartedFrom() throws Exception {
+        Hash<String, Integer> source = Hash.<String, Integer>emptyHash().with("Wibble", 1).with("Wobble", 2);
+
+        Hash<String, Integer> built = source.toBuilder()
+                .put("Foo", 3)
+                .remove("Wibble")
+                .build();
+
+        assertThat(source.size(), equalTo(2));
+        assertThat(source.get("Wibble"), equalTo(1));
+        assertThat(built.size(), equalTo(2));
+        assertThat(built.get("Wibble"), nullValue());
+        assertThat(built.get("Foo"), equalTo(3));
+    }
+
+    @Test
+    public void builder_withNoEffectiveChanges_ShouldBuildTheSameHash() throws Exception {
+        Hash<String, Integer> source = Hash.<String, Integer>emptyHash().with("Wibble", 1);
+
+        assertThat(source.toBuilder().remove("Wobble").build() == source, equalTo(true));
+    }
+
+    @Test
+    public void builder_changesAfterBuild_ShouldNotLeakInToTheBuiltHash() throws Exception {
+        Hash.Builder<Integer, Integer> builder = Hash.newBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            builder.put(i, i);
+        }
+        Hash<Integer, Integer> first = builder.build();
+
+        for (int i = 0; i < 10_000; i += 2) {
+            builder.put(i, -i).remove(i + 1);
+        }
+        Hash<Integer, Integer> second = builder.build();
+
+        assertThat(first.size(), equalTo(10_000));
+        assertThat(second.size(), equalTo(5_000));
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(first.get(i), equalTo(i));
+            assertThat(second.get(i), i % 2 == 0 ? equalTo(-i) : nullValue());
+        }
+    }
+
+    @Test
+    public void builder_fromExistingHash_ShouldNotEditItsNodes() throws Exception {
+        Hash<Integer, Integer> source = Hash.emptyHash();
+        for (int i = 0; i < 1000; i++) {
+            source = source.with(i, i);
+        }
+        Hash.Builder<Integer, Integer> builder = source.toBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.put(i, i + 1);
+        }
+
+        assertThat(builder.build().get(999), equalTo(1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(source.get(i), equalTo(i));
+        }
+    }
+
+    @Test
+    public void toHash_ShouldCollectAParallelStream() throws Exception {
+        Hash<Integer, String> testObject = IntStream.range(0, 10_000).boxed().parallel()
+                .collect(Hash.toHash(i -> i, String::valueOf));
+
+        assertThat(testObject.size(), equalTo(10_000));
+        assertThat(testObject.get(1234), equalTo("1234"));
+    }
+
+    @Test
+    public void compact_ShouldFindTheSameEntries() throws Exception {
+        Random random = new Random(42);
+        Hash.Builder<SharedHashCode, Integer> builder = Hash.newBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.put(new SharedHashCode(random.nextInt(10_000)), i);
+        }
+        Hash<SharedHashCode, Integer> trie = builder.build();
+        Hash<SharedHashCode, Integer> compact = trie.compact();
+
+        assertThat(compact.isCompact(), equalTo(true));
+        assertThat(compact.compact() == compact, equalTo(true));
+        assertThat(compact.size(), equalTo(trie.size()));
+        for (int i = 0; i < 10_000; i++) {
+            SharedHashCode key = new SharedHashCode(i);
+            assertThat(compact.get(key), equalTo(trie.get(key)));
+        }
+    }
+
+    @Test
+    public void compact_withLoadFactor_ShouldFindTheSameEntries() throws Exception {
+        String[] keys = Keys.sequentialKeys(1000);
+        Hash.Builder<String, Integer> builder = Hash.newBuilder();
+        for (int i = 0; i < keys.length; i += 2) {
+            builder.put(keys[i], i);
+        }
+        Hash<String, Integer> trie = builder.build();
+
+        for (double loadFactor : new double[]{0.1, 0.5, 0.75, 0.99}) {
+            Hash<String, Integer> compact = trie.compact(loadFactor);
+            assertThat(compact.compact(loadFactor) == compact, equalTo(true));
+            assertThat(compact.shape(MapStats.NONE).loadFactor() <= loadFactor, equalTo(true));
+            for (int i = 0; i < keys.length; i++) {
+                assertThat(compact.get(keys[i]), equalTo(trie.get(keys[i])));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compact_loadFactorOfOne_ShouldThrow() throws Exception {
+        Hash.emptyHash().compact(1.0);
+    }
+
+    @Test
+    public void compact_updatesShouldNotInheritTheCompactTable() throws Exception {
+        Hash<String, Integer> compact = Hash.<String, Integer>emptyHash().with("Wibble", 1).compact();
+        Hash<String, Integer> updated = compact.with("Wobble", 2).without("Wibble");
+
+        assertThat(updated.isCompact(), equalTo(false));
+        assertThat(updated.get("Wobble"), equalTo(2));
+        assertThat(updated.get("Wibble"), nullValue());
+        assertThat(compact.get("Wibble"), equalTo(1));
+        assertThat(Hash.emptyHash().compact().get("Wibble"), nullValue());
+    }
+
+    @Test
+    public void diff_ShouldReportAddedRemovedAndChanged() throws Exception {
+        Hash<String, Integer> before = Hash.<String, Integer>emptyHash()
+                .with("Wibble", 1).with("Wobble", 2).with("Foo", 3);
+        Hash<String, Integer> after = before.without("Wibble").with("Wobble", 20).with("Bar", 4);
+
+        Hash.Diff<String, Integer> diff = before.diff(after);
+
+        assertThat(diff.added().entrySet(), equalTo(Hash.<String, Integer>emptyHash().with("Bar", 4).entrySet()));
+        assertThat(diff.removed().entrySet(), equalTo(Hash.<String, Integer>emptyHash().with("Wibble", 1).entrySet()));
+        assertThat(diff.changed().entrySet(), equalTo(Hash.<String, Integer>emptyHash().with("Wobble", 20).entrySet()));
+        assertThat(before.diff(before).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void diff_equalValues_ShouldNotBeReportedAsChanged() throws Exception {
+        Hash<String, String> before = Hash.<String, String>emptyHash().with("Wibble", "Foo");
+        Hash<String, String> after = before.with("Wibble", new String("Foo"));
+
+        assertThat(before.diff(after).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void diff_ofUnrelatedHashes_ShouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<SharedHashCode, Integer> left = new HashMap<>();
+        Map<SharedHashCode, Integer> right = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            left.put(new SharedHashCode(random.nextInt(2000)), random.nextInt(2));
+            right.put(new SharedHashCode(random.nextInt(2000)), random.nextInt(2));
+        }
+        Hash<SharedHashCode, Integer> leftHash = left.entrySet().stream().collect(Hash.toHash());
+        Hash<SharedHashCode, Integer> rightHash = right.entrySet().stream().collect(Hash.toHash());
+
+        Hash.Diff<SharedHashCode, Integer> diff = leftHash.diff(rightHash);
+
+        Map<SharedHashCode, Integer> added = new HashMap<>(right);
+        added.keySet().removeAll(left.keySet());
+        Map<SharedHashCode, Integer> removed = new HashMap<>(left);
+        removed.keySet().removeAll(right.keySet());
+        Map<SharedHashCode, Integer> changed = new HashMap<>();
+        for (Map.Entry<SharedHashCode, Integer> entry : right.entrySet()) {
+            Integer old = left.get(entry.getKey());
+            if (old != null && !old.equals(entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        assertThat(toMap(diff.added()), equalTo(added));
+        assertThat(toMap(diff.removed()), equalTo(removed));
+        assertThat(toMap(diff.changed()), equalTo(changed));
+    }
+
+    @Test
+    public void diff_ofDerivedVersions_ShouldOnlyReportTheChanges() throws Exception {
+        Hash<String, Integer> before = IntStream.range(0, 100_000).boxed()
+                .collect(Hash.toHash(i -> "key" + i, i -> i));
+        Hash<String, Integer> after = before.with("key5", -5).without("key77").with("extra", 1);
+        List<String> visited = newArrayList();
+
+        before.diff(after, new Hash.DiffVisitor<String, Integer>() {
+            @Override
+            public void added(String key, Integer value) {
+                visited.add("+" + key);
+            }
+
+            @Override
+            public void removed(String key, Integer value) {
+                visited.add("-" + key);
+            }
+
+            @Override
+            public void changed(String key, Integer oldValue, Integer newValue) {
+                visited.add("~" + key);
+            }
+        });
+
+        assertThat(visited.size(), equalTo(3));
+        assertThat(visited, hasItems("~key5", "-key77", "+extra"));
+    }
+
+    @Test
+    public void union_ShouldOnlyMergeValuesThatDiffer() throws Exception {
+        Hash<String, Integer> left = Hash.<String, Integer>emptyHash().with("Wibble", 1).with("Wobble", 2).with("Foo", 3);
+        Hash<String, Integer> right = Hash.<String, Integer>emptyHash().with("Wobble", 2).with("Foo", 30).with("Bar", 4);
+        List<String> merged = newArrayList();
+
+        Hash<String, Integer> union = left.union(right, (l, r) -> {
+            merged.add(l + "," + r);
+            return l + r;
+        });
+
+        assertThat(union.size(), equalTo(4));
+        assertThat(union.get("Wibble"), equalTo(1));
+        assertThat(union.get("Wobble"), equalTo(2));
+        assertThat(union.get("Foo"), equalTo(33));
+        assertThat(union.get("Bar"), equalTo(4));
+        assertThat(merged, equalTo(newArrayList("3,30")));
+        assertThat(left.union(left, (l, r) -> null), equalTo(left));
+    }
+
+    @Test
+    public void intersectAndDifference_ShouldSplitTheKeys() throws Exception {
+        Hash<String, Integer> left = Hash.<String, Integer>emptyHash().with("Wibble", 1).with("Wobble", 2).with("Foo", 3);
+        Hash<String, String> right = Hash.<String, String>emptyHash().with("Wobble", "x").with("Foo", "y").with("Bar", "z");
+
+        Hash<String, Integer> intersection = left.intersect(right);
+        Hash<String, Integer> difference = left.difference(right);
+
+        assertThat(intersection.size(), equalTo(2));
+        assertThat(intersection.get("Wobble"), equalTo(2));
+        assertThat(intersection.get("Foo"), equalTo(3));
+        assertThat(difference.size(), equalTo(1));
+        assertThat(difference.get("Wibble"), equalTo(1));
+        assertThat(left.intersect(left), equalTo(left));
+        assertThat(left.difference(left).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void writeTo_ShouldReadBackTheSameEntries() throws Exception {
+        Hash<String, byte[]> hash = IntStream.range(0, 20_000).boxed()
+                .collect(Hash.toHash(i -> "key" + i, i -> new byte[i % 100]));
+        hash = hash.with("big", new byte[200_000]); // more than the buffer holds
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hash.writeTo(out, Codecs.STRING, Codecs.BYTES);
+        Hash<String, byte[]> read = Hash.readFrom(new ByteArrayInputStream(out.toByteArray()), Codecs.STRING, Codecs.BYTES);
+
+        assertThat(read.size(), equalTo(hash.size()));
+        for (Map.Entry<String, byte[]> entry : hash) {
+            assertThat(Arrays.equals(read.get(entry.getKey()), entry.getValue()), equalTo(true));
+        }
+    }
+
+    @Test
+    public void writeTo_emptyHash_ShouldReadBackEmpty() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hash.<Long, Long>emptyHash().writeTo(out, Codecs.LONG, Codecs.LONG);
+
+        assertThat(Hash.readFrom(new ByteArrayInputStream(out.toByteArray()), Codecs.LONG, Codecs.LONG).isEmpty(), equalTo(true));
+    }
+
+    @Test(expected = EOFException.class)
+    public void readFrom_truncated_ShouldFail() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hash.<String, String>emptyHash().with("Wibble", "Wobble").writeTo(out, Codecs.STRING, Codecs.STRING);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+
+        Hash.readFrom(new ByteArrayInputStream(truncated), Codecs.STRING, Codecs.STRING);
+    }
+
+    @Test(expected = IOException.class)
+    public void readFrom_notAHash_ShouldFail() throws Exception {
+        Hash.readFrom(new ByteArrayInputStream(new byte[64]), Codecs.STRING, Codecs.STRING);
+    }
+
+    @Test
+    public void spliterator_ShouldSplitInToPartsCoveringEveryEntry() throws Exception {
+        Hash<Integer, Integer> hash = IntStream.range(0, 100_000).boxed().collect(Hash.toHash(i -> i, i -> i));
+        Spliterator<Map.Entry<Integer, Integer>> spliterator = hash.spliterator();
+
+        assertThat(spliterator.estimateSize(), equalTo(100_000L));
+        assertThat(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.IMMUTABLE), equalTo(true));
+
+        List<Spliterator<Map.Entry<Integer, Integer>>> parts = newArrayList(spliterator);
+        for (int round = 0; round < 8; round++) {
+            List<Spliterator<Map.Entry<Integer, Integer>>> split = newArrayList();
+            for (Spliterator<Map.Entry<Integer, Integer>> part : parts) {
+                Spliterator<Map.Entry<Integer, Integer>> prefix = part.trySplit();
+                if (prefix != null) split.add(prefix);
+                split.add(part);
+            }
+            parts = split;
+        }
+        assertThat(parts.size(), equalTo(256));
+
+        Map<Integer, Integer> seen = new HashMap<>();
+        for (Spliterator<Map.Entry<Integer, Integer>> part : parts) {
+            part.tryAdvance(entry -> seen.put(entry.getKey(), entry.getValue()));
+            part.forEachRemaining(entry -> seen.put(entry.getKey(), entry.getValue()));
+        }
+        assertThat(seen, equalTo(toMap(hash)));
+    }
+
+    @Test
+    public void spliterator_withCollisionChains_ShouldCoverEveryEntry() throws Exception {
+        Hash<SharedHashCode, Integer> hash = IntStream.range(0, 3000).boxed()
+                .collect(Hash.toHash(SharedHashCode::new, i -> i));
+
+        Map<SharedHashCode, Integer> seen = new ConcurrentHashMap<>();
+        hash.parallelStream().forEach(entry -> seen.put(entry.getKey(), entry.getValue()));
+
+        assertThat(seen, equalTo(toMap(hash)));
+        assertThat(Hash.emptyHash().stream().count(), equalTo(0L));
+    }
+
+    @Test
+    public void bulkOperations_ShouldSeeEveryEntry() throws Exception {
+        Hash<Integer, Long> hash = IntStream.range(0, 10_000).boxed().collect(Hash.toHash(i -> i, i -> (long) i));
+        LongAdder sum = new LongAdder();
+
+        hash.forEach(1, (key, value) -> sum.add(value));
+
+        assertThat(sum.sum(), equalTo(49_995_000L));
+        assertThat(hash.reduce(1, (key, value) -> value, Long::sum), equalTo(49_995_000L));
+        assertThat(hash.reduce(Long.MAX_VALUE, (key, value) -> key < 10 ? value : null, Long::sum), equalTo(45L));
+        assertThat(hash.search(1, (key, value) -> key == 1234 ? "found" : null), equalTo("found"));
+        assertThat(hash.search(1, (key, value) -> null), nullValue());
+        assertThat(Hash.<Integer, Long>emptyHash().reduce(1, (key, value) -> value, Long::sum), nullValue());
+    }
+
+    @Test
+    public void forEach_ShouldVisitEveryEntry() throws Exception {
+        Hash<SharedHashCode, Integer> hash = IntStream.range(0, 3000).boxed()
+                .collect(Hash.toHash(SharedHashCode::new, i -> i));
+        Map<SharedHashCode, Integer> visited = new HashMap<>();
+
+        hash.forEach(visited::put);
+
+        assertThat(visited, equalTo(toMap(hash)));
+    }
+
+    @Test
+    public void entrySet_ShouldBeAViewOfTheEntries() throws Exception {
+        Hash<String, Integer> hash = Hash.<String, Integer>emptyHash().with("Wibble", 1).with("Wobble", 2);
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("Wibble", 1);
+        expected.put("Wobble", 2);
+
+        assertThat(hash.entrySet(), equalTo(expected.entrySet()));
+        assertThat(hash.entrySet().contains(new java.util.AbstractMap.SimpleEntry<>("Wibble", 1)), equalTo(true));
+        assertThat(hash.entrySet().contains(new java.util.AbstractMap.SimpleEntry<>("Wibble", 2)), equalTo(false));
+    }
+
+    @Test
+    public void byteArrayStrategy_ShouldCompareContents() throws Exception {
+        Hash<byte[], String> testObject = Hash.<byte[], String>emptyHash(HashingStrategies.BYTE_ARRAY)
+                .with(new byte[]{1, 2, 3}, "Wibble")
+                .with(new byte[]{1, 2, 3}, "Wobble");
+
+        assertThat(testObject.size(), equalTo(1));
+        assertThat(testObject.get(new byte[]{1, 2, 3}), equalTo("Wobble"));
+        assertThat(testObject.without(new byte[]{1, 2, 3}).isEmpty(), equalTo(true));
+        assertThat(testObject.compact().get(new byte[]{1, 2, 3}), equalTo("Wobble"));
+    }
+
+    @Test
+    public void caseInsensitiveStrategy_ShouldFoldCase() throws Exception {
+        Hash.Builder<String, Integer> builder = Hash.newBuilder(HashingStrategies.CASE_INSENSITIVE);
+        Hash<String, Integer> testObject = builder.put("Wibble", 1).put("WIBBLE", 2).put("Wobble", 3).build();
+
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.get("wibble"), equalTo(2));
+        assertThat(testObject.toBuilder().remove("WOBBLE").build().size(), equalTo(1));
+        assertThat(testObject.hashingStrategy() == HashingStrategies.CASE_INSENSITIVE, equalTo(true));
+    }
+
+    @Test
+    public void identityStrategy_ShouldOnlyMatchTheSameObject() throws Exception {
+        String key = "Wibble";
+        Hash<String, Integer> testObject = Hash.<String, Integer>emptyHash(HashingStrategies.IDENTITY).with(key, 1);
+
+        assertThat(testObject.get(key), equalTo(1));
+        assertThat(testObject.get(new String(key)), nullValue());
+    }
+
+    @Test
+    public void murmur3Strategy_ShouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<>();
+        Hash<String, Integer> testObject = Hash.emptyHash(HashingStrategies.MURMUR3);
+
+        for (int i = 0; i < 20_000; i++) {
+            String key = Integer.toHexString(random.nextInt(5000));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                testObject = testObject.without(key);
+            } else {
+                expected.put(key, i);
+                testObject = testObject.with(key, i);
+            }
+        }
+        assertThat(toMap(testObject), equalTo(expected));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void diff_withDifferentStrategies_ShouldFail() throws Exception {
+        Hash<String, Integer> left = Hash.<String, Integer>emptyHash().with("Wibble", 1);
+        Hash<String, Integer> right = Hash.<String, Integer>emptyHash(HashingStrategies.MURMUR3).with("Wibble", 1);
+
+        left.diff(right);
+    }
+
+    @Test
+    public void collidingKeys_randomOperations_ShouldMatchHashMap() throws Exception {
+        String[] keys = Keys.collidingKeys(512);
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<>();
+        Hash<String, Integer> testObject = Hash.emptyHash();
+
+        for (int i = 0; i < 20_000; i++) {
+            String key = keys[random.nextInt(keys.length)];
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                testObject = testObject.without(key);
+            } else {
+                expected.put(key, i);
+                testObject = testObject.with(key, i);
+            }
+            assertThat(testObject.size(), equalTo(expected.size()));
+        }
+        for (String key : keys) {
+            assertThat(testObject.get(key), equalTo(expected.get(key)));
+        }
+        assertThat(toMap(testObject), equalTo(expected));
+
+        Map<String, Integer> seen = new ConcurrentHashMap<>();
+        testObject.parallelStream().forEach(entry -> seen.put(entry.getKey(), entry.getValue()));
+        assertThat(seen, equalTo(expected));
+    }
+
+    @Test
+    public void collidingKeys_removingMostOfThem_ShouldKeepTheRest() throws Exception {
+        String[] keys = Keys.collidingKeys(64);
+        Hash<String, Integer> full = Arrays.stream(keys).collect(Hash.toHash(key -> key, String::length));
+        Hash<String, Integer> testObject = full;
+        for (int i = 0; i < 60; i++) {
+            testObject = testObject.without(keys[i]);
+        }
+
+        assertThat(testObject.size(), equalTo(4));
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(testObject.containsKey(keys[i]), equalTo(i >= 60));
+        }
+        assertThat(full.diff(testObject).removed().size(), equalTo(60));
+        assertThat(testObject.diff(full).added().size(), equalTo(60));
+    }
+
+    @Test
+    public void collidingKeys_ofAnotherClass_ShouldStillBeFound() throws Exception {
+        String[] keys = Keys.collidingKeys(32);
+        Hash<Object, Integer> testObject = Hash.emptyHash();
+        for (int i = 0; i < keys.length; i++) {
+            testObject = testObject.with(keys[i], i);
+        }
+        FixedHashCode stranger = new FixedHashCode(keys[0].hashCode());
+        testObject = testObject.with(stranger, -1).with(keys[1], 100);
+
+        assertThat(testObject.size(), equalTo(33));
+        assertThat(testObject.get(stranger), equalTo(-1));
+        assertThat(testObject.get(keys[1]), equalTo(100));
+        assertThat(testObject.get(keys[2]), equalTo(2));
+
+        testObject = testObject.without(stranger).without(keys[2]);
+        assertThat(testObject.size(), equalTo(31));
+        assertThat(testObject.get(stranger), nullValue());
+        assertThat(testObject.get(keys[3]), equalTo(3));
+    }
+
+    @Test
+    public void collidingKeys_compareToInconsistentWithEquals_ShouldStillBeFound() throws Exception {
+        Hash<AlwaysEqualCompareTo, Integer> testObject = Hash.emptyHash();
+        for (int i = 0; i < 20; i++) {
+            testObject = testObject.with(new AlwaysEqualCompareTo(i), i);
+        }
+
+        assertThat(testObject.size(), equalTo(20));
+        for (int i = 0; i < 20; i++) {
+            assertThat(testObject.get(new AlwaysEqualCompareTo(i)), equalTo(i));
+        }
+        testObject = testObject.without(new AlwaysEqualCompareTo(7));
+        assertThat(testObject.get(new AlwaysEqualCompareTo(7)), nullValue());
+        assertThat(testObject.get(new AlwaysEqualCompareTo(8)), equalTo(8));
+    }
+
+    @Test
+    public void collidingKeys_withAStrategy_ShouldStayInAChain() throws Exception {
+        String[] keys = Keys.collidingKeys(32);
+        Hash<String, Integer> testObject = Hash.emptyHash(HashingStrategies.CASE_INSENSITIVE);
+        for (int i = 0; i < keys.length; i++) {
+            testObject = testObject.with(keys[i], i);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(testObject.get(keys[i].toLowerCase()), equalTo(i));
+        }
+    }
+
+    @Test
+    public void version_ShouldGoUpWithEachDerivedHash() throws Exception {
+        Hash<String, Integer> empty = Hash.emptyHash();
+        Hash<String, Integer> one = empty.with("Wibble", 1);
+        Hash<String, Integer> two = one.with("Wobble", 2).without("Wibble");
+        Hash<String, Integer> built = two.toBuilder().put("Foo", 3).put("Bar", 4).build();
+
+        assertThat(empty.version(), equalTo(0L));
+        assertThat(one.version(), equalTo(1L));
+        assertThat(two.version(), equalTo(3L));
+        assertThat(built.version(), equalTo(4L));
+        assertThat(built.compact().version(), equalTo(4L));
+        assertThat(two.with("Wobble", 2).version(), equalTo(3L)); // unchanged
+    }
+
+    private static <K, V> Map<K, V> toMap(Hash<K, V> hash) {
+        Map<K, V> map = new HashMap<>();
+        for (Map.Entry<K, V> entry : hash) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
     private <K> Function<? super Map.Entry<K,Integer>,K> key() {
         return new Function<Map.Entry<K, Integer>, K>() {
             @Nullable
@@ -151,6 +811,33 @@ public class HashTest {
         };
     }
 
+    /**
+     * Hash codes that agree in their low bits, and sometimes entirely, so that keys end up deep in
+     * the trie and in collision chains.
+     */
+    static class SharedHashCode {
+        private final int value;
+
+        SharedHashCode(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SharedHashCode && ((SharedHashCode) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return (value / 3) << 20;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
     static class ConstantHashCode {
         private final String value ;
 
@@ -178,6 +865,43 @@ public class HashTest {
             return value;
         }
     }
-}
 
+    static class FixedHashCode {
+        private final int hashCode;
+
+        FixedHashCode(int hashCode) {
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Comparable but with every key comparing as 0, so none of them can be told apart by a tree.
+     */
+    static class AlwaysEqualCompareTo implements Comparable<AlwaysEqualCompareTo> {
+        private final int value;
 
+        AlwaysEqualCompareTo(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(AlwaysEqualCompareTo o) {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof AlwaysEqualCompareTo && ((AlwaysEqualCompareTo) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+}
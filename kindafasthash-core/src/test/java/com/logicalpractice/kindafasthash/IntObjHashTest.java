@@ -0,0 +1,82 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class IntObjHashTest {
+
+    @Test
+    public void with() throws Exception {
+        IntObjHash<String> testObject = IntObjHash.<String>emptyHash().with(1, "one").with(Integer.MIN_VALUE, "min");
+
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.get(1), equalTo("one"));
+        assertThat(testObject.get(Integer.MIN_VALUE), equalTo("min"));
+        assertThat(testObject.get(2), nullValue());
+    }
+
+    @Test
+    public void withDupKeys() throws Exception {
+        IntObjHash<String> testObject = IntObjHash.<String>emptyHash().with(1, "one").with(1, "uno");
+
+        assertThat(testObject.size(), equalTo(1));
+        assertThat(testObject.get(1), equalTo("uno"));
+    }
+
+    @Test
+    public void without_shouldNotModifyThePreviousVersion() throws Exception {
+        IntObjHash<String> before = IntObjHash.<String>emptyHash().with(1, "one").with(2, "two");
+        IntObjHash<String> after = before.without(1);
+
+        assertThat(before.get(1), equalTo("one"));
+        assertThat(after.containsKey(1), equalTo(false));
+        assertThat(after.size(), equalTo(1));
+        assertThat(after.without(1) == after, equalTo(true));
+    }
+
+    @Test
+    public void randomOperations_ShouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        IntObjHash<Integer> testObject = IntObjHash.emptyHash();
+
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(5000) * 0x9E3779B9;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                testObject = testObject.without(key);
+            } else {
+                expected.put(key, i);
+                testObject = testObject.with(key, i);
+            }
+        }
+        assertThat(testObject.size(), equalTo(expected.size()));
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertThat(testObject.get(entry.getKey()), equalTo(entry.getValue()));
+        }
+        final Map<Integer, Integer> iterated = new HashMap<>();
+        testObject.forEach((key, value) -> iterated.put(key, value));
+        assertThat(iterated, equalTo(expected));
+    }
+
+    @Test
+    public void copyOnWriteMap() throws Exception {
+        CopyOnWriteIntObjHashMap<String> testObject = new CopyOnWriteIntObjHashMap<>();
+
+        assertThat(testObject.put(1, "one"), nullValue());
+        assertThat(testObject.put(1, "uno"), equalTo("one"));
+        assertThat(testObject.putIfAbsent(1, "ein"), equalTo("uno"));
+        assertThat(testObject.putIfAbsent(2, "two"), nullValue());
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.remove(1), equalTo("uno"));
+        assertThat(testObject.remove(1), nullValue());
+        assertThat(testObject.snapshot().get(2), equalTo("two"));
+    }
+}
@@ -1,6 +1,7 @@
 package com.logicalpractice.kindafasthash;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -21,4 +22,22 @@ public class Keys {
         return keys.toArray(new String[count]);
     }
 
+    /**
+     * Strings that all have the same hashCode, made of "Aa" and "BB" (which hash alike) spelling
+     * out each index in binary.
+     */
+    public static String[] collidingKeys(int count) {
+        int pairs = Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+        String[] keys = new String[count];
+        for( int i = 0; i < count; i ++ ) {
+            StringBuilder key = new StringBuilder(pairs * 2);
+            for( int bit = pairs - 1; bit >= 0; bit -- ) {
+                key.append((i >>> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = key.toString();
+        }
+        Collections.shuffle(Arrays.asList(keys));
+        return keys;
+    }
+
 }
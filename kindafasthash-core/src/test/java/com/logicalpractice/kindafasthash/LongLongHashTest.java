@@ -0,0 +1,81 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LongLongHashTest {
+
+    @Test
+    public void with() throws Exception {
+        LongLongHash testObject = LongLongHash.emptyHash().with(1L, 10L).with(-1L, 0L);
+
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.get(1L, -99L), equalTo(10L));
+        assertThat(testObject.get(-1L, -99L), equalTo(0L));
+        assertThat(testObject.get(2L, -99L), equalTo(-99L));
+        assertThat(testObject.containsKey(-1L), equalTo(true));
+    }
+
+    @Test
+    public void with_sameValue_ShouldReturnSameHash() throws Exception {
+        LongLongHash testObject = LongLongHash.emptyHash().with(1L, 10L);
+
+        assertThat(testObject.with(1L, 10L) == testObject, equalTo(true));
+    }
+
+    @Test
+    public void randomOperations_ShouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Long, Long> expected = new HashMap<>();
+        LongLongHash testObject = LongLongHash.emptyHash();
+
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(5000) - 2500;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                testObject = testObject.without(key);
+            } else {
+                expected.put(key, (long) i);
+                testObject = testObject.with(key, i);
+            }
+        }
+        assertThat(testObject.size(), equalTo(expected.size()));
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertThat(testObject.get(entry.getKey(), -1L), equalTo(entry.getValue()));
+        }
+        final Map<Long, Long> iterated = new HashMap<>();
+        testObject.forEach((key, value) -> iterated.put(key, value));
+        assertThat(iterated, equalTo(expected));
+    }
+
+    @Test
+    public void copyOnWriteMap_addAndGetShouldNotLoseUpdates() throws Exception {
+        final CopyOnWriteLongLongHashMap testObject = new CopyOnWriteLongLongHashMap();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    testObject.addAndGet(i % 7, 1);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        long total = 0;
+        for (long key = 0; key < 7; key++) {
+            total += testObject.get(key, 0L);
+        }
+        assertThat(total, equalTo(40_000L));
+        assertThat(testObject.remove(3L), equalTo(true));
+        assertThat(testObject.remove(3L), equalTo(false));
+    }
+}
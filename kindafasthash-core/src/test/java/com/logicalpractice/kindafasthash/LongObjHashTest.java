@@ -0,0 +1,82 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LongObjHashTest {
+
+    @Test
+    public void with() throws Exception {
+        LongObjHash<String> testObject = LongObjHash.<String>emptyHash().with(1L, "one").with(Long.MIN_VALUE, "min");
+
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.get(1L), equalTo("one"));
+        assertThat(testObject.get(Long.MIN_VALUE), equalTo("min"));
+        assertThat(testObject.get(2L), nullValue());
+    }
+
+    @Test
+    public void withDupKeys() throws Exception {
+        LongObjHash<String> testObject = LongObjHash.<String>emptyHash().with(1L, "one").with(1L, "uno");
+
+        assertThat(testObject.size(), equalTo(1));
+        assertThat(testObject.get(1L), equalTo("uno"));
+    }
+
+    @Test
+    public void without_shouldNotModifyThePreviousVersion() throws Exception {
+        LongObjHash<String> before = LongObjHash.<String>emptyHash().with(1L, "one").with(2L, "two");
+        LongObjHash<String> after = before.without(1L);
+
+        assertThat(before.get(1L), equalTo("one"));
+        assertThat(after.containsKey(1L), equalTo(false));
+        assertThat(after.size(), equalTo(1));
+        assertThat(after.without(1L) == after, equalTo(true));
+    }
+
+    @Test
+    public void randomOperations_ShouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Long, Integer> expected = new HashMap<>();
+        LongObjHash<Integer> testObject = LongObjHash.emptyHash();
+
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(5000) * 0x1_0000_0001L;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                testObject = testObject.without(key);
+            } else {
+                expected.put(key, i);
+                testObject = testObject.with(key, i);
+            }
+        }
+        assertThat(testObject.size(), equalTo(expected.size()));
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertThat(testObject.get(entry.getKey()), equalTo(entry.getValue()));
+        }
+        final Map<Long, Integer> iterated = new HashMap<>();
+        testObject.forEach((key, value) -> iterated.put(key, value));
+        assertThat(iterated, equalTo(expected));
+    }
+
+    @Test
+    public void copyOnWriteMap() throws Exception {
+        CopyOnWriteLongObjHashMap<String> testObject = new CopyOnWriteLongObjHashMap<>();
+
+        assertThat(testObject.put(1L, "one"), nullValue());
+        assertThat(testObject.put(1L, "uno"), equalTo("one"));
+        assertThat(testObject.putIfAbsent(1L, "ein"), equalTo("uno"));
+        assertThat(testObject.putIfAbsent(2L, "two"), nullValue());
+        assertThat(testObject.size(), equalTo(2));
+        assertThat(testObject.remove(1L), equalTo("uno"));
+        assertThat(testObject.remove(1L), nullValue());
+        assertThat(testObject.snapshot().get(2L), equalTo("two"));
+    }
+}
@@ -1,8 +1,10 @@
 package com.logicalpractice.kindafasthash;
 
 import com.google.common.collect.testing.TestStringMapGenerator;
+import com.google.common.collect.testing.TestStringSortedMapGenerator;
 
 import java.util.Map;
+import java.util.SortedMap;
 
 /**
  *
@@ -19,4 +21,60 @@ public class MapGenerators {
             return result;
         }
     }
+
+    public static class CompactCopyOnWriteHashMapGenerator extends TestStringMapGenerator {
+        @Override
+        protected Map<String, String> create(Map.Entry<String, String>[] entries) {
+            CopyOnWriteHashMap<String,String> result = new CopyOnWriteHashMap<>(CopyOnWriteHashMap.SnapshotLayout.COMPACT);
+            for (Map.Entry<String, String> entry : entries) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+    }
+
+    public static class Murmur3CopyOnWriteHashMapGenerator extends TestStringMapGenerator {
+        @Override
+        protected Map<String, String> create(Map.Entry<String, String>[] entries) {
+            CopyOnWriteHashMap<String,String> result = new CopyOnWriteHashMap<>(HashingStrategies.MURMUR3);
+            for (Map.Entry<String, String> entry : entries) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+    }
+
+    public static class CombiningCopyOnWriteHashMapGenerator extends TestStringMapGenerator {
+        @Override
+        protected Map<String, String> create(Map.Entry<String, String>[] entries) {
+            CopyOnWriteHashMap<String,String> result = new CopyOnWriteHashMap<>(CopyOnWriteHashMap.SnapshotLayout.TRIE,
+                    HashingStrategies.DEFAULT, null, CopyOnWriteHashMap.WriteMode.COMBINING);
+            for (Map.Entry<String, String> entry : entries) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+    }
+
+    public static class StripedCopyOnWriteHashMapGenerator extends TestStringMapGenerator {
+        @Override
+        protected Map<String, String> create(Map.Entry<String, String>[] entries) {
+            StripedCopyOnWriteHashMap<String,String> result = new StripedCopyOnWriteHashMap<>(4);
+            for (Map.Entry<String, String> entry : entries) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+    }
+
+    public static class CopyOnWriteSortedMapGenerator extends TestStringSortedMapGenerator {
+        @Override
+        protected SortedMap<String, String> create(Map.Entry<String, String>[] entries) {
+            CopyOnWriteSortedMap<String,String> result = new CopyOnWriteSortedMap<>();
+            for (Map.Entry<String, String> entry : entries) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+    }
 }
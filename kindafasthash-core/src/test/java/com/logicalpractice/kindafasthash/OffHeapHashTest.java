@@ -0,0 +1,120 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class OffHeapHashTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_ShouldFindEveryEntryWritten() throws Exception {
+        Hash<String, Integer> hash = IntStream.range(0, 10_000).boxed()
+                .collect(Hash.toHash(i -> "key" + i, i -> i));
+        Path path = folder.getRoot().toPath().resolve("snapshot");
+
+        OffHeapHash.write(hash, path, Codecs.STRING, Codecs.INTEGER);
+        OffHeapHash<String, Integer> testObject = OffHeapHash.open(path, Codecs.STRING, Codecs.INTEGER);
+
+        assertThat(testObject.size(), equalTo(10_000));
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(testObject.get("key" + i), equalTo(i));
+        }
+        assertThat(testObject.get("missing"), nullValue());
+        assertThat(testObject.containsKey("key1"), equalTo(true));
+        assertThat(testObject.toHash().entrySet(), equalTo(hash.entrySet()));
+    }
+
+    @Test
+    public void byteBufferValues_ShouldBeViewsOfTheSnapshot() throws Exception {
+        Hash<String, byte[]> hash = Hash.<String, byte[]>emptyHash()
+                .with("Wibble", "Foo".getBytes(StandardCharsets.UTF_8))
+                .with("Wobble", new byte[0]);
+        Path path = folder.getRoot().toPath().resolve("snapshot");
+
+        OffHeapHash.write(hash, path, Codecs.STRING, Codecs.BYTES);
+        OffHeapHash<String, ByteBuffer> testObject = OffHeapHash.open(path, Codecs.STRING, Codecs.BYTE_BUFFER);
+
+        ByteBuffer value = testObject.get("Wibble");
+        assertThat(value.isReadOnly(), equalTo(true));
+        assertThat(StandardCharsets.UTF_8.decode(value).toString(), equalTo("Foo"));
+        assertThat(testObject.get("Wobble").remaining(), equalTo(0));
+    }
+
+    @Test
+    public void empty_ShouldHaveNoEntries() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("snapshot");
+        OffHeapHash.write(Hash.<Long, Long>emptyHash(), path, Codecs.LONG, Codecs.LONG);
+
+        OffHeapHash<Long, Long> testObject = OffHeapHash.open(path, Codecs.LONG, Codecs.LONG);
+
+        assertThat(testObject.isEmpty(), equalTo(true));
+        assertThat(testObject.get(1L), nullValue());
+        assertThat(OffHeapHash.empty(Codecs.LONG, Codecs.LONG).get(1L), nullValue());
+    }
+
+    @Test
+    public void forEach_ShouldVisitEveryEntry() throws Exception {
+        Hash<Long, String> hash = Hash.<Long, String>emptyHash().with(1L, "one").with(2L, "two").with(-3L, "minus three");
+        Path path = folder.getRoot().toPath().resolve("snapshot");
+        OffHeapHash.write(hash, path, Codecs.LONG, Codecs.STRING);
+
+        Map<Long, String> visited = new HashMap<>();
+        OffHeapHash.open(path, Codecs.LONG, Codecs.STRING).forEach(visited::put);
+
+        assertThat(visited.size(), equalTo(3));
+        assertThat(visited.get(-3L), equalTo("minus three"));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_notASnapshot_ShouldFail() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("garbage");
+        Files.write(path, "not a snapshot at all".getBytes(StandardCharsets.UTF_8));
+
+        OffHeapHash.open(path, Codecs.STRING, Codecs.STRING);
+    }
+
+    @Test
+    public void offHeapHashMap_load_ShouldSwapInTheNewSnapshot() throws Exception {
+        Path first = folder.getRoot().toPath().resolve("first");
+        Path second = folder.getRoot().toPath().resolve("second");
+        OffHeapHash.write(Hash.<String, String>emptyHash().with("Wibble", "1"), first, Codecs.STRING, Codecs.STRING);
+        OffHeapHash.write(Hash.<String, String>emptyHash().with("Wobble", "2"), second, Codecs.STRING, Codecs.STRING);
+        OffHeapHashMap<String, String> testObject = new OffHeapHashMap<>(Codecs.STRING, Codecs.STRING);
+
+        assertThat(testObject.isEmpty(), equalTo(true));
+        testObject.load(first);
+        OffHeapHash<String, String> replaced = testObject.load(second);
+
+        assertThat(testObject.get("Wobble"), equalTo("2"));
+        assertThat(testObject.get("Wibble"), nullValue());
+        assertThat(replaced.get("Wibble"), equalTo("1"));
+    }
+
+    @Test
+    public void write_overAnOpenSnapshot_ShouldLeaveItReadable() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("snapshot");
+        OffHeapHash.write(Hash.<String, String>emptyHash().with("Wibble", "1"), path, Codecs.STRING, Codecs.STRING);
+        OffHeapHash<String, String> before = OffHeapHash.open(path, Codecs.STRING, Codecs.STRING);
+
+        OffHeapHash.write(Hash.<String, String>emptyHash().with("Wobble", "2"), path, Codecs.STRING, Codecs.STRING);
+
+        assertThat(before.get("Wibble"), equalTo("1"));
+        assertThat(OffHeapHash.open(path, Codecs.STRING, Codecs.STRING).get("Wobble"), equalTo("2"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.logicalpractice.kindafasthash;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentHashSetTest {
+
+    @Test
+    public void with_ShouldNotModifyThePreviousVersion() throws Exception {
+        PersistentHashSet<String> first = PersistentHashSet.<String>emptySet().with("a");
+        PersistentHashSet<String> second = first.with("b");
+
+        assertThat(first, equalTo(set("a")));
+        assertThat(second, equalTo(set("a", "b")));
+        assertThat(second.without("a"), equalTo(set("b")));
+    }
+
+    @Test
+    public void with_existingElement_ShouldReturnSameSet() throws Exception {
+        PersistentHashSet<String> testObject = PersistentHashSet.copyOf(Arrays.asList("a", "b"));
+
+        assertThat(testObject.with("a"), sameInstance(testObject));
+        assertThat(testObject.without("c"), sameInstance(testObject));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void with_null_ShouldThrow() throws Exception {
+        PersistentHashSet.emptySet().with(null);
+    }
+
+    @Test
+    public void elements_ShouldBeStoredWithoutValues() throws Exception {
+        Hash<String, Object> empty = Hash.emptyHash();
+        long element = Hash.bytesCopied(empty, PersistentHashSet.<String>emptySet().with("a").asHash());
+        long entry = Hash.bytesCopied(empty, empty.with("a", 1));
+
+        assertThat(element <= entry, equalTo(true)); // the same with compressed oops, the value fits in the padding
+        assertThat(PersistentHashSet.<String>emptySet().with("a").asHash().get("a"), equalTo(Boolean.TRUE));
+    }
+
+    @Test
+    public void union_ShouldHoldTheElementsOfBoth() throws Exception {
+        PersistentHashSet<String> left = PersistentHashSet.copyOf(Arrays.asList("a", "b", "c"));
+        PersistentHashSet<String> right = PersistentHashSet.copyOf(Arrays.asList("c", "d"));
+
+        assertThat(left.union(right), equalTo(set("a", "b", "c", "d")));
+        assertThat(left.union(left.without("a")), sameInstance(left));
+        assertThat(PersistentHashSet.<String>emptySet().union(right), sameInstance(right));
+    }
+
+    @Test
+    public void intersectAndDifference_ShouldSplitTheElements() throws Exception {
+        PersistentHashSet<String> left = PersistentHashSet.copyOf(Arrays.asList("a", "b", "c"));
+        PersistentHashSet<String> right = PersistentHashSet.copyOf(Arrays.asList("b", "c", "d"));
+
+        assertThat(left.intersect(right), equalTo(set("b", "c")));
+        assertThat(left.difference(right), equalTo(set("a")));
+        assertThat(left.difference(PersistentHashSet.emptySet()), sameInstance(left));
+    }
+
+    @Test
+    public void setAlgebra_manyElements_ShouldMatchHashSet() throws Exception {
+        String[] keys = Keys.sequentialKeys(10_000);
+        PersistentHashSet<String> all = PersistentHashSet.copyOf(Arrays.asList(keys));
+        PersistentHashSet<String> evens = all;
+        for (int i = 1; i < keys.length; i += 2) {
+            evens = evens.without(keys[i]);
+        }
+        PersistentHashSet<String> firstHalf = PersistentHashSet.copyOf(Arrays.asList(keys).subList(0, 5_000));
+
+        Set<String> expected = new HashSet<>(evens);
+        expected.retainAll(firstHalf);
+        assertThat(evens.intersect(firstHalf), equalTo(expected));
+
+        expected = new HashSet<>(evens);
+        expected.removeAll(firstHalf);
+        assertThat(evens.difference(firstHalf), equalTo(expected));
+
+        expected = new HashSet<>(evens);
+        expected.addAll(firstHalf);
+        assertThat(evens.union(firstHalf), equalTo(expected));
+        assertThat(evens.union(all), equalTo(all));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void union_differentStrategies_ShouldThrow() throws Exception {
+        PersistentHashSet.<String>emptySet().with("a")
+                .union(PersistentHashSet.<String>emptySet(HashingStrategies.MURMUR3).with("b"));
+    }
+
+    @Test
+    public void parallelStream_ShouldSeeEveryElement() throws Exception {
+        String[] keys = Keys.sequentialKeys(10_000);
+        PersistentHashSet<String> testObject = PersistentHashSet.copyOf(Arrays.asList(keys));
+
+        assertThat(testObject.parallelStream().collect(Collectors.toSet()), equalTo(new HashSet<>(Arrays.asList(keys))));
+    }
+
+    private static Set<String> set(String... elements) {
+        return new HashSet<>(Arrays.asList(elements));
+    }
+}
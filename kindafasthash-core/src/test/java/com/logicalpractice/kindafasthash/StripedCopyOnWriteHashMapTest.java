@@ -0,0 +1,96 @@
+package com.logicalpractice.kindafasthash;
+
+import com.google.common.collect.testing.MapTestSuiteBuilder;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.MapFeature;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class StripedCopyOnWriteHashMapTest extends TestCase {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTestSuite(StripedCopyOnWriteHashMapTest.class);
+
+        suite.addTest(MapTestSuiteBuilder.using(new MapGenerators.StripedCopyOnWriteHashMapGenerator())
+                .withFeatures(
+                        CollectionSize.ANY,
+                        MapFeature.SUPPORTS_PUT,
+                        MapFeature.SUPPORTS_REMOVE,
+                        CollectionFeature.SUPPORTS_ITERATOR_REMOVE,
+                        CollectionFeature.ALLOWS_NULL_QUERIES)
+                .named("StripedCopyOnWriteHashMap")
+                .createTestSuite());
+
+        return suite;
+    }
+
+    public void testStripeCountIsRoundedUpToAPowerOfTwo() throws Exception {
+        assertThat(new StripedCopyOnWriteHashMap<String,String>(1).stripeCount(), equalTo(1));
+        assertThat(new StripedCopyOnWriteHashMap<String,String>(5).stripeCount(), equalTo(8));
+        assertThat(new StripedCopyOnWriteHashMap<String,String>(16).stripeCount(), equalTo(16));
+    }
+
+    public void testStripeCountIsCappedRatherThanOverflowing() throws Exception {
+        assertThat(new StripedCopyOnWriteHashMap<String,String>((1 << 30) + 1).stripeCount(), equalTo(1 << 16));
+        assertThat(new StripedCopyOnWriteHashMap<String,String>(Integer.MAX_VALUE).stripeCount(), equalTo(1 << 16));
+    }
+
+    public void testPutAndRemoveReturnThePreviousValue() throws Exception {
+        StripedCopyOnWriteHashMap<String,Integer> testObject = new StripedCopyOnWriteHashMap<>();
+        Integer one = 1000;
+
+        assertThat(testObject.put("Wibble", one), nullValue());
+        assertThat(testObject.put("Wibble", one), equalTo(one));
+        assertThat(testObject.put("Wibble", 2), equalTo(one));
+        assertThat(testObject.remove("Wobble"), nullValue());
+        assertThat(testObject.remove("Wibble"), equalTo(2));
+        assertThat(testObject.isEmpty(), equalTo(true));
+    }
+
+    public void testPutAll() throws Exception {
+        StripedCopyOnWriteHashMap<Integer,Integer> testObject = new StripedCopyOnWriteHashMap<>();
+        Map<Integer,Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.put(i, i);
+        }
+        testObject.putAll(expected);
+
+        assertThat(testObject, equalTo(expected));
+    }
+
+    public void testConcurrentWritersDoNotLoseUpdates() throws Exception {
+        final StripedCopyOnWriteHashMap<Integer,Integer> testObject = new StripedCopyOnWriteHashMap<>(8);
+        final int perThread = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t * perThread;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        testObject.put(offset + i, i);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertThat(testObject.size(), equalTo(8 * perThread));
+        for (int i = 0; i < 8 * perThread; i++) {
+            assertThat(testObject.get(i), equalTo(i % perThread));
+        }
+    }
+}